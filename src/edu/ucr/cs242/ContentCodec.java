@@ -0,0 +1,284 @@
+package edu.ucr.cs242;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The codec of the page content. Content is stored either as plain TEXT, or as a BLOB in the format below:
+ * <pre>
+ *   [1 byte: format version] [4 bytes: length of the UTF-8 text] [zlib stream, with a preset dictionary]
+ * </pre>
+ * The preset dictionaries are trained from a sample of pages, and kept in the `dictionaries` table.
+ * A zlib stream carries the Adler-32 checksum of its dictionary, thus a page always decodes with the dictionary
+ * it was encoded with, even after a newer dictionary is trained. All readers of the content go through this class,
+ * so that plain and compressed pages can live in the same table.
+ */
+public class ContentCodec {
+    /**
+     * The format version of Deflate with a preset dictionary.
+     */
+    public static final byte FORMAT_DEFLATE = 1;
+    /**
+     * The size of the dictionary. Deflate never looks back further than 32 KB.
+     */
+    public static final int DICTIONARY_SIZE = 32 * 1024;
+    /**
+     * The SQL statement creating the dictionary table.
+     */
+    public static final String SQL_CREATE =
+            "CREATE TABLE IF NOT EXISTS dictionaries (" +
+            "id INTEGER PRIMARY KEY, " +
+            "checksum INTEGER NOT NULL, " +
+            "dictionary BLOB NOT NULL)";
+
+    private static final int HEADER_SIZE = 5;
+    // The parameters of dictionary training: the length of a k-mer, the length of a segment copied
+    // into the dictionary, and the number of bits to hash a k-mer into.
+    private static final int KMER_SIZE = 8;
+    private static final int SEGMENT_SIZE = 128;
+    private static final int HASH_BITS = 22;
+
+    private static final ThreadLocal<Deflater> deflater = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> inflater = ThreadLocal.withInitial(Inflater::new);
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+    private volatile byte[] dictionary = null;
+
+    /**
+     * Load the dictionaries of the database. The latest dictionary is used for encoding.
+     * @param dbConnection The connection to the database.
+     * @return The codec, which can decode all the pages in the database.
+     * @throws SQLException
+     */
+    public static ContentCodec load(Connection dbConnection) throws SQLException {
+        final String SQL_COUNT = "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = 'dictionaries'";
+        final String SQL_QUERY = "SELECT checksum, dictionary FROM dictionaries ORDER BY id";
+
+        ContentCodec codec = new ContentCodec();
+        try (Statement query = dbConnection.createStatement()) {
+            try (ResultSet result = query.executeQuery(SQL_COUNT)) {
+                // Databases created before have no dictionary.
+                if (!result.next() || result.getInt(1) == 0)
+                    return codec;
+            }
+            try (ResultSet result = query.executeQuery(SQL_QUERY)) {
+                while (result.next()) {
+                    byte[] dictionary = result.getBytes("dictionary");
+                    codec.dictionaries.put((int) result.getLong("checksum"), dictionary);
+                    codec.dictionary = dictionary;
+                }
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Store a new dictionary into the database, and use it for encoding from now on.
+     * @param dbConnection The connection to the database.
+     * @param dictionary   The dictionary.
+     * @throws SQLException
+     */
+    public void addDictionary(Connection dbConnection, byte[] dictionary) throws SQLException {
+        final String SQL_INSERT = "INSERT INTO dictionaries (checksum, dictionary) VALUES (?, ?)";
+
+        Adler32 checksum = new Adler32();
+        checksum.update(dictionary);
+
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute(SQL_CREATE);
+        }
+        try (PreparedStatement statement = dbConnection.prepareStatement(SQL_INSERT)) {
+            statement.setLong(1, checksum.getValue());
+            statement.setBytes(2, dictionary);
+            statement.executeUpdate();
+        }
+
+        dictionaries.put((int) checksum.getValue(), dictionary);
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * @return Whether a dictionary is available for encoding.
+     */
+    public boolean canEncode() {
+        return dictionary != null;
+    }
+
+    /**
+     * @return The size of the dictionary used for encoding, or 0 if there is none.
+     */
+    public int getDictionarySize() {
+        byte[] current = dictionary;
+        return current == null ? 0 : current.length;
+    }
+
+    /**
+     * Encode the content with the latest dictionary.
+     * @param content The content.
+     * @return The encoded content, to be stored as a BLOB.
+     */
+    public byte[] encode(String content) {
+        byte[] text = content.getBytes(StandardCharsets.UTF_8);
+        Deflater compressor = deflater.get();
+        compressor.reset();
+        compressor.setDictionary(dictionary);
+        compressor.setInput(text);
+        compressor.finish();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(text.length / 3 + HEADER_SIZE + 16);
+        output.write(FORMAT_DEFLATE);
+        output.write(text.length >>> 24);
+        output.write(text.length >>> 16);
+        output.write(text.length >>> 8);
+        output.write(text.length);
+
+        byte[] buffer = new byte[4096];
+        while (!compressor.finished()) {
+            int length = compressor.deflate(buffer);
+            output.write(buffer, 0, length);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Decode the content, as read from the database.
+     * @param value The stored value, either a String (plain) or a byte array (encoded).
+     * @return The content.
+     * @throws SQLException If the format or the dictionary is unknown, or the data is corrupted.
+     */
+    public String decode(Object value) throws SQLException {
+        if (value == null || value instanceof String)
+            return (String) value;
+        if (!(value instanceof byte[]))
+            throw new SQLException("Unexpected type of content: " + value.getClass().getName());
+
+        byte[] data = (byte[]) value;
+        if (data.length < HEADER_SIZE || data[0] != FORMAT_DEFLATE)
+            throw new SQLException("Unknown format of content: " + (data.length == 0 ? "empty" : data[0]));
+
+        int length = (data[1] & 0xFF) << 24 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 8 | (data[4] & 0xFF);
+        byte[] text = new byte[length];
+
+        Inflater decompressor = inflater.get();
+        decompressor.reset();
+        decompressor.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+        try {
+            int offset = decompressor.inflate(text);
+            if (decompressor.needsDictionary()) {
+                byte[] dictionary = dictionaries.get(decompressor.getAdler());
+                if (dictionary == null)
+                    throw new SQLException("Unknown dictionary of content: " + Integer.toHexString(decompressor.getAdler()));
+                decompressor.setDictionary(dictionary);
+            }
+            while (offset < length && !decompressor.finished()) {
+                int inflated = decompressor.inflate(text, offset, length - offset);
+                if (inflated == 0 && decompressor.needsInput())
+                    break;
+                offset += inflated;
+            }
+            if (offset != length)
+                throw new SQLException("Truncated content: " + offset + " of " + length + " bytes.");
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupted content.", e);
+        }
+
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read and decode the content from the current row.
+     * @param result The result set.
+     * @param column The column of the content.
+     * @return The content.
+     * @throws SQLException
+     */
+    public String getContent(ResultSet result, String column) throws SQLException {
+        return decode(result.getObject(column));
+    }
+
+    private static int hashKmer(byte[] data, int offset) {
+        long kmer = 0;
+        for (int i = 0; i < KMER_SIZE; i++)
+            kmer = kmer << 8 | (data[offset + i] & 0xFF);
+        return (int) ((kmer * 0x9E3779B97F4A7C15L) >>> (64 - HASH_BITS));
+    }
+
+    /**
+     * Train a dictionary from the samples. The k-mers are counted by the number of samples containing them,
+     * then the samples are split into epochs, and the segment with the most frequent k-mers is picked from each.
+     * The k-mers of a picked segment are not counted again, so the dictionary is not filled with repetitions.
+     * The segments picked first are placed at the end of the dictionary, where they are the cheapest to refer to.
+     * @param samples The sample contents.
+     * @param size    The maximum size of the dictionary.
+     * @return The dictionary.
+     */
+    public static byte[] train(List<String> samples, int size) {
+        int[] frequency = new int[1 << HASH_BITS];
+        int[] lastSample = new int[1 << HASH_BITS];
+
+        ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+        for (int i = 0; i < samples.size(); i++) {
+            byte[] sample = samples.get(i).getBytes(StandardCharsets.UTF_8);
+            for (int j = 0; j + KMER_SIZE <= sample.length; j++) {
+                int hash = hashKmer(sample, j);
+                // Count each k-mer once per sample.
+                if (lastSample[hash] != i + 1) {
+                    lastSample[hash] = i + 1;
+                    ++frequency[hash];
+                }
+            }
+            concatenated.write(sample, 0, sample.length);
+        }
+
+        byte[] data = concatenated.toByteArray();
+        if (data.length <= size)
+            return data;
+
+        byte[] dictionary = new byte[size];
+        int position = size;
+        int numOfEpochs = Math.max(1, size / SEGMENT_SIZE);
+        int epochSize = data.length / numOfEpochs;
+
+        for (int epoch = 0; epoch < numOfEpochs && position > 0; epoch++) {
+            int begin = epoch * epochSize;
+            int end = Math.min(data.length, begin + epochSize);
+            if (end - begin < SEGMENT_SIZE)
+                continue;
+
+            // Slide a window of a segment through the epoch.
+            long score = 0, bestScore = 0;
+            int bestBegin = begin;
+            for (int i = begin; i <= begin + SEGMENT_SIZE - KMER_SIZE; i++)
+                score += frequency[hashKmer(data, i)];
+            bestScore = score;
+            for (int i = begin + 1; i + SEGMENT_SIZE <= end; i++) {
+                score -= frequency[hashKmer(data, i - 1)];
+                score += frequency[hashKmer(data, i + SEGMENT_SIZE - KMER_SIZE)];
+                if (score > bestScore) {
+                    bestScore = score;
+                    bestBegin = i;
+                }
+            }
+            // Only the k-mers seen in more than one sample are worth a place.
+            if (bestScore <= SEGMENT_SIZE - KMER_SIZE + 1)
+                continue;
+
+            int length = Math.min(SEGMENT_SIZE, position);
+            position -= length;
+            System.arraycopy(data, bestBegin, dictionary, position, length);
+            for (int i = bestBegin; i <= bestBegin + SEGMENT_SIZE - KMER_SIZE; i++)
+                frequency[hashKmer(data, i)] = 0;
+        }
+
+        return Arrays.copyOfRange(dictionary, position, size);
+    }
+}
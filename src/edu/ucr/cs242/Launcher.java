@@ -13,6 +13,38 @@ public class Launcher {
                 new Subroutine("crawler",
                         "edu.ucr.cs242.crawler.WikiCrawler",
                         "execute the Wikipedia crawler"));
+        subroutines.put("stubserver",
+                new Subroutine("stubserver",
+                        "edu.ucr.cs242.crawler.StubWikiServer",
+                        "execute a local stub Wikipedia for offline load tests"));
+        subroutines.put("extractbench",
+                new Subroutine("extractbench",
+                        "edu.ucr.cs242.crawler.ExtractorBenchmark",
+                        "benchmark the page extraction on captured HTML"));
+        subroutines.put("fetchbench",
+                new Subroutine("fetchbench",
+                        "edu.ucr.cs242.crawler.FetchBenchmark",
+                        "benchmark the connections and bytes per page fetched"));
+        subroutines.put("merge",
+                new Subroutine("merge",
+                        "edu.ucr.cs242.crawler.ShardMerger",
+                        "merge the databases of a sharded crawl"));
+        subroutines.put("reextract",
+                new Subroutine("reextract",
+                        "edu.ucr.cs242.crawler.ReExtractor",
+                        "re-extract the pages from the WARC archives of a crawl"));
+        subroutines.put("ingest-dump",
+                new Subroutine("ingest-dump",
+                        "edu.ucr.cs242.crawler.DumpIngester",
+                        "fill the pages table from a Wikipedia XML dump instead of crawling"));
+        subroutines.put("compressor",
+                new Subroutine("compressor",
+                        "edu.ucr.cs242.crawler.ContentCompressor",
+                        "compress or decompress the page content in SQLite"));
+        subroutines.put("migrate",
+                new Subroutine("migrate",
+                        "edu.ucr.cs242.crawler.SchemaMigrator",
+                        "migrate a database of an older schema (version 1, 2 or 3) into the current one"));
         subroutines.put("indexer",
                 new Subroutine("indexer",
                         "edu.ucr.cs242.indexing.IndexMapReduce",
@@ -46,7 +78,7 @@ public class Launcher {
     private static void printUsage() {
         System.out.println("usage: cs242 <subroutine> [options] <arguments...>");
         System.out.println("possible subroutines:");
-        subroutines.forEach((key, value) -> System.out.format(" %-10s%s%n", key, value.getDescription()));
+        subroutines.forEach((key, value) -> System.out.format(" %-14s%s%n", key, value.getDescription()));
         System.exit(1);
     }
 
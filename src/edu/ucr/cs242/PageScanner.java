@@ -0,0 +1,148 @@
+package edu.ucr.cs242;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Scan the pages to export or index (those not a near-duplicate), in order of id, with keyset pagination:
+ * each batch starts after the last id read, `WHERE id > ?`, instead of skipping the rows read with `OFFSET`,
+ * which SQLite walks through again for every batch. The id is the rowid, thus a batch is a range seek on
+ * the table itself, and a full scan is linear in the number of pages.
+ * The ids can be split into ranges of about the same width, one per thread, each scanned on its own.
+ */
+public class PageScanner {
+    /**
+     * The number of records read per query.
+     */
+    public static final int BATCH_READ_COUNT = 1000;
+    /**
+     * The SQL query statement of the first and the last id. Each is a sub-query of its own, as SQLite reads
+     * a single `MIN` or `MAX` off an end of the table, but scans the table for both in one query.
+     */
+    public static final String SQL_QUERY_BOUNDS = "SELECT (SELECT MIN(id) FROM pages), (SELECT MAX(id) FROM pages)";
+
+    /**
+     * The pages with an id in `(after, last]`.
+     */
+    public static class Range {
+        private final long after;
+        private final long last;
+
+        private Range(long after, long last) {
+            this.after = after;
+            this.last = last;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + after + ", " + (last == Long.MAX_VALUE ? "end" : String.valueOf(last)) + "]";
+        }
+    }
+
+    /**
+     * The handler of a page read.
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void accept(ResultSet row) throws SQLException, IOException;
+    }
+
+    /**
+     * The handler of a batch read, after its pages are handled.
+     */
+    @FunctionalInterface
+    public interface BatchHandler {
+        void accept(int count) throws SQLException, IOException;
+    }
+
+    private final Connection dbConnection;
+    private final String sqlQuery;
+
+    /**
+     * Construct a scanner with given settings.
+     * @param dbConnection The active database connection.
+     * @param columns      The columns to read besides `id`, which may refer to `pages.id` in sub-queries.
+     */
+    public PageScanner(Connection dbConnection, String columns) {
+        this.dbConnection = dbConnection;
+        this.sqlQuery = "SELECT id, " + columns + " FROM pages " +
+                "WHERE id > ? AND id <= ? AND duplicateOf IS NULL ORDER BY id LIMIT ?";
+    }
+
+    /**
+     * Split the ids between the first and the last into ranges of the same width. The ids of the pages are spread
+     * over the titles in order of crawling, thus a range holds about as many pages as another, though near-duplicates
+     * and gaps are not counted. The first range starts before any id, and the last is open, thus both take the pages
+     * added since. A single range, of all pages, takes no query.
+     * @param dbConnection    The active database connection.
+     * @param numOfPartitions The number of ranges.
+     * @return The ranges, in order of id.
+     * @throws SQLException
+     */
+    public static List<Range> partition(Connection dbConnection, int numOfPartitions) throws SQLException {
+        long first = 0, last = 0;
+        if (numOfPartitions > 1) {
+            try (Statement statement = dbConnection.createStatement();
+                 ResultSet result = statement.executeQuery(SQL_QUERY_BOUNDS)) {
+                if (result.next()) {
+                    first = result.getLong(1);
+                    last = result.getLong(2);
+                }
+            }
+        }
+
+        List<Range> ranges = new ArrayList<>(numOfPartitions);
+        long after = 0;
+        for (int i = 0; i < numOfPartitions; i++) {
+            long end = i == numOfPartitions - 1 ? Long.MAX_VALUE :
+                    Math.max(after, first - 1 + (last - first + 1) * (i + 1) / numOfPartitions);
+            ranges.add(new Range(after, end));
+            after = end;
+        }
+        return ranges;
+    }
+
+    /**
+     * Read the pages of a range, in batches.
+     * @param range The range.
+     * @param row   The handler of each page.
+     * @param batch The handler of each batch, e.g. to commit and report the progress.
+     * @return The number of pages read.
+     * @throws SQLException
+     * @throws IOException
+     */
+    public int scan(Range range, RowHandler row, BatchHandler batch) throws SQLException, IOException {
+        int scannedCount = 0;
+        long lastId = range.after;
+
+        try (PreparedStatement statement = dbConnection.prepareStatement(sqlQuery)) {
+            statement.setFetchSize(BATCH_READ_COUNT);
+            while (lastId < range.last) {
+                statement.setLong(1, lastId);
+                statement.setLong(2, range.last);
+                statement.setInt(3, BATCH_READ_COUNT);
+
+                int localCount = 0;
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) {
+                        lastId = result.getLong("id");
+                        row.accept(result);
+                        ++localCount;
+                    }
+                }
+                if (localCount == 0)
+                    break;
+
+                scannedCount += localCount;
+                batch.accept(localCount);
+            }
+        }
+        return scannedCount;
+    }
+}
@@ -2,16 +2,23 @@ package edu.ucr.cs242;
 
 import org.fusesource.leveldbjni.JniDBFactory;
 import org.iq80.leveldb.DB;
+import org.json.JSONArray;
+import org.json.JSONObject;
 
 import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.sql.*;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -92,8 +99,11 @@ public class Utility {
         }
     }
 
+    /**
+     * Count the pages to index, leaving out the near-duplicates marked by the crawler.
+     */
     public static int fetchPageCount(Connection dbConnection) {
-        final String SQL_COUNT = "SELECT COUNT(*) FROM pages";
+        final String SQL_COUNT = "SELECT COUNT(*) FROM pages WHERE duplicateOf IS NULL";
         int numOfPages = -1;
 
         try (Statement query = dbConnection.createStatement();
@@ -133,6 +143,36 @@ public class Utility {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Read the category dictionary written by the exporter into `categories.json`.
+     * @param reader The reader of the file, one object of `id` and `name` per line.
+     * @return The category names in lower case, by id.
+     * @throws IOException
+     */
+    public static Map<Integer, String> readCategories(BufferedReader reader) throws IOException {
+        Map<Integer, String> categories = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty()) continue;
+            JSONObject json = new JSONObject(line);
+            categories.put(json.getInt("id"), json.getString("name").toLowerCase());
+        }
+        return categories;
+    }
+
+    /**
+     * Resolve the category ids of an exported page into the text of its categories field.
+     * @param ids        The ids of the categories, as exported into `data.json`.
+     * @param categories The category dictionary.
+     * @return The category names, joined by spaces.
+     */
+    public static String joinCategories(JSONArray ids, Map<Integer, String> categories) {
+        return ids.toList().stream()
+                .map(id -> categories.get(((Number) id).intValue()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.joining(" "));
+    }
+
     public static String levelDBGet(DB db, String key) {
         return JniDBFactory.asString(db.get(JniDBFactory.bytes(key)));
     }
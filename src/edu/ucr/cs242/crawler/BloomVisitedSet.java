@@ -0,0 +1,223 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The visited set backed by scalable Bloom filters (Almeida et al., 2007).
+ * When a filter is full, a new one is added with twice the capacity and half the false positive rate,
+ * so the compound false positive rate stays below twice the configured rate, however many urls are added.
+ * The set is split into stripes by the fingerprint, each with its own chain of filters and lock.
+ */
+public class BloomVisitedSet implements VisitedSet {
+    /**
+     * The number of stripes, which should be a power of 2.
+     */
+    private static final int NUMBER_OF_STRIPES = 64;
+    private static final int STRIPE_SHIFT = Long.numberOfLeadingZeros(NUMBER_OF_STRIPES - 1);
+    /**
+     * The growth of capacity, and the tightening of false positive rate of each new filter.
+     */
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private static class Filter {
+        private final long[] bits;
+        private final long numOfBits;
+        private final int numOfHashes;
+        private final int capacity;
+        private int size = 0;
+
+        public Filter(int capacity, double fpp) {
+            // The optimal number of bits and hash functions for the given capacity and false positive rate.
+            long numOfBits = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) ((numOfBits + 63) / 64)];
+            this.numOfBits = bits.length * 64L;
+            this.numOfHashes = Math.max(1, (int) Math.round(-Math.log(fpp) / Math.log(2)));
+            this.capacity = capacity;
+        }
+
+        private Filter(long[] bits, int numOfHashes, int capacity, int size) {
+            this.bits = bits;
+            this.numOfBits = bits.length * 64L;
+            this.numOfHashes = numOfHashes;
+            this.capacity = capacity;
+            this.size = size;
+        }
+
+        // Kirsch-Mitzenmacher: k hashes derived from two halves of the fingerprint.
+        private long index(long fp, int i) {
+            int h1 = (int) fp, h2 = (int) (fp >>> 32);
+            return ((h1 + (long) i * h2) & Long.MAX_VALUE) % numOfBits;
+        }
+
+        public boolean contains(long fp) {
+            for (int i = 0; i < numOfHashes; i++) {
+                long index = index(fp, i);
+                if ((bits[(int) (index >>> 6)] & (1L << index)) == 0)
+                    return false;
+            }
+            return true;
+        }
+
+        public void add(long fp) {
+            for (int i = 0; i < numOfHashes; i++) {
+                long index = index(fp, i);
+                bits[(int) (index >>> 6)] |= 1L << index;
+            }
+            ++size;
+        }
+
+        public double falsePositiveRate() {
+            return Math.pow(1 - Math.exp(-numOfHashes * (double) size / numOfBits), numOfHashes);
+        }
+    }
+
+    private static class Stripe {
+        private final List<Filter> filters = new ArrayList<>();
+        private long size = 0;
+    }
+
+    private final Stripe[] stripes = new Stripe[NUMBER_OF_STRIPES];
+    private final double fpp;
+
+    /**
+     * Construct a scalable Bloom filter.
+     * @param expectedSize The expected number of urls, to size the first filters.
+     * @param fpp          The false positive rate of the first filters.
+     */
+    public BloomVisitedSet(int expectedSize, double fpp) {
+        this.fpp = fpp;
+        int capacity = Math.max(1024, expectedSize / NUMBER_OF_STRIPES);
+
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            stripes[i] = new Stripe();
+            stripes[i].filters.add(new Filter(capacity, fpp));
+        }
+    }
+
+    private BloomVisitedSet(double fpp) {
+        this.fpp = fpp;
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe stripeOf(long fp) {
+        return stripes[(int) (fp >>> STRIPE_SHIFT)];
+    }
+
+    private static boolean contains(Stripe stripe, long fp) {
+        for (Filter filter : stripe.filters) {
+            if (filter.contains(fp))
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(String url) {
+        long fp = VisitedSet.fingerprint(url);
+        Stripe stripe = stripeOf(fp);
+
+        synchronized (stripe) {
+            if (contains(stripe, fp))
+                return false;
+
+            Filter filter = stripe.filters.get(stripe.filters.size() - 1);
+            if (filter.size >= filter.capacity) {
+                int index = stripe.filters.size();
+                filter = new Filter(filter.capacity * GROWTH, fpp * Math.pow(TIGHTENING, index));
+                stripe.filters.add(filter);
+            }
+
+            filter.add(fp);
+            ++stripe.size;
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(String url) {
+        long fp = VisitedSet.fingerprint(url);
+        Stripe stripe = stripeOf(fp);
+
+        synchronized (stripe) {
+            return contains(stripe, fp);
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) { size += stripe.size; }
+        }
+        return size;
+    }
+
+    @Override
+    public long memoryUsage() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Filter filter : stripe.filters) bytes += filter.bits.length * (long) Long.BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public double falsePositiveRate() {
+        // An absent url lands on a single stripe, and passes if any filter of the stripe passes.
+        double sum = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                double pass = 1;
+                for (Filter filter : stripe.filters) pass *= 1 - filter.falsePositiveRate();
+                sum += 1 - pass;
+            }
+        }
+        return sum / NUMBER_OF_STRIPES;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF("bloom");
+        out.writeDouble(fpp);
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                out.writeLong(stripe.size);
+                out.writeInt(stripe.filters.size());
+                for (Filter filter : stripe.filters) {
+                    out.writeInt(filter.capacity);
+                    out.writeInt(filter.numOfHashes);
+                    out.writeInt(filter.size);
+                    out.writeInt(filter.bits.length);
+                    for (long word : filter.bits) out.writeLong(word);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a set written by {@link #writeTo(DataOutputStream)}, after its type.
+     */
+    static BloomVisitedSet readFrom(DataInputStream in) throws IOException {
+        BloomVisitedSet set = new BloomVisitedSet(in.readDouble());
+        for (Stripe stripe : set.stripes) {
+            stripe.size = in.readLong();
+            int numOfFilters = in.readInt();
+            for (int i = 0; i < numOfFilters; i++) {
+                int capacity = in.readInt(), numOfHashes = in.readInt(), size = in.readInt();
+                long[] bits = new long[in.readInt()];
+                for (int j = 0; j < bits.length; j++) bits[j] = in.readLong();
+                stripe.filters.add(new Filter(bits, numOfHashes, capacity, size));
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,148 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The checkpoint of a crawl, kept in a single gzip file next to the SQLite database:
+ * the number of pages crawled, the visited urls, the urls ever enqueued, and the waiting urls of the frontier.
+ * A checkpoint is written into a temporary file first, then renamed over the previous one,
+ * so a crash while writing never leaves a broken checkpoint behind.
+ */
+public class Checkpoint {
+    private static final int MAGIC = 0x43533234;
+    private static final int VERSION = 3;
+
+    private final Path path;
+
+    /**
+     * The crawl state restored from a checkpoint.
+     */
+    public static class State {
+        private final int crawledCount;
+        private final long savedAt;
+        private final VisitedSet visitedUrls;
+        private final VisitedSet seenUrls;
+        private final Frontier frontier;
+
+        private State(int crawledCount, long savedAt, VisitedSet visitedUrls, VisitedSet seenUrls, Frontier frontier) {
+            this.crawledCount = crawledCount;
+            this.savedAt = savedAt;
+            this.visitedUrls = visitedUrls;
+            this.seenUrls = seenUrls;
+            this.frontier = frontier;
+        }
+
+        public int getCrawledCount() {
+            return crawledCount;
+        }
+
+        public long getSavedAt() {
+            return savedAt;
+        }
+
+        public VisitedSet getVisitedUrls() {
+            return visitedUrls;
+        }
+
+        public VisitedSet getSeenUrls() {
+            return seenUrls;
+        }
+
+        public Frontier getFrontier() {
+            return frontier;
+        }
+    }
+
+    public Checkpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Get the path of the checkpoint of a database.
+     * @param jdbcUrl The JDBC url of the database.
+     * @return The path next to the database file, or null if the database is not a file.
+     */
+    public static Path pathOf(String jdbcUrl) {
+        final String PREFIX = "jdbc:sqlite:";
+        if (!jdbcUrl.startsWith(PREFIX))
+            return null;
+
+        String file = jdbcUrl.substring(PREFIX.length());
+        int query = file.indexOf('?');
+        if (query != -1) file = file.substring(0, query);
+        if (file.startsWith("file:")) file = file.substring("file:".length());
+        if (file.isEmpty() || file.equals(":memory:"))
+            return null;
+
+        return Paths.get(file + ".checkpoint");
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public boolean exists() {
+        return Files.isRegularFile(path);
+    }
+
+    /**
+     * Save a checkpoint. The crawl should be paused, so that the state is consistent.
+     * @param crawledCount The number of pages crawled.
+     * @param visitedUrls  The visited urls.
+     * @param seenUrls     The urls ever enqueued.
+     * @param frontier     The frontier.
+     * @return The size of the checkpoint file in bytes.
+     * @throws IOException
+     */
+    public long save(int crawledCount, VisitedSet visitedUrls, VisitedSet seenUrls, Frontier frontier)
+            throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temporary), 65536)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(crawledCount);
+            out.writeLong(System.currentTimeMillis());
+            visitedUrls.writeTo(out);
+            seenUrls.writeTo(out);
+            frontier.writeTo(out);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return Files.size(path);
+    }
+
+    /**
+     * Load the checkpoint.
+     * @param spoolDir The directory for the restored frontier to spill into.
+     * @return The restored state. The frontier should be closed by the caller.
+     * @throws IOException If the checkpoint is missing or corrupted.
+     */
+    public State load(Path spoolDir) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(path), 65536)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a checkpoint of this version: " + path);
+
+            int crawledCount = in.readInt();
+            long savedAt = in.readLong();
+            VisitedSet visitedUrls = VisitedSet.readFrom(in);
+            VisitedSet seenUrls = VisitedSet.readFrom(in);
+
+            Frontier frontier = new Frontier(seenUrls, spoolDir, Frontier.HEAD_CAPACITY, Frontier.SEGMENT_SIZE);
+            try {
+                frontier.readFrom(in);
+            } catch (IOException e) {
+                frontier.close();
+                throw e;
+            }
+            return new State(crawledCount, savedAt, visitedUrls, seenUrls, frontier);
+        }
+    }
+}
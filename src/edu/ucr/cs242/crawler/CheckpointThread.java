@@ -0,0 +1,119 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/**
+ * The thread taking checkpoints periodically. To take one, the crawl gate is closed, so no url is in process,
+ * and the writer commits all pages handed over. The frontier, the visited urls and the database are thus consistent
+ * while the checkpoint is written, after which the gate is opened again.
+ */
+public class CheckpointThread extends Thread {
+    private final Checkpoint checkpoint;
+    private final long interval;
+    private final CrawlGate gate;
+    private final WriterThread writer;
+    private final VisitedSet visitedUrls;
+    private final VisitedSet seenUrls;
+    private final Frontier frontier;
+    private final int resumedCount;
+
+    private volatile boolean finishing = false;
+    private int savedCount = 0;
+    private long totalPauseTime = 0;
+    private long lastSize = 0;
+
+    /**
+     * Construct a checkpoint thread with given settings.
+     * @param checkpoint   The checkpoint to save into.
+     * @param interval     The interval between two checkpoints (milliseconds).
+     * @param gate         The gate the crawling workers pass.
+     * @param writer       The writer of the pages.
+     * @param visitedUrls  The visited urls.
+     * @param seenUrls     The urls ever enqueued.
+     * @param frontier     The frontier.
+     * @param resumedCount The number of pages crawled before resuming, or 0 for a new crawl.
+     */
+    public CheckpointThread(Checkpoint checkpoint, long interval, CrawlGate gate, WriterThread writer,
+                            VisitedSet visitedUrls, VisitedSet seenUrls, Frontier frontier, int resumedCount) {
+        super("CheckpointThread");
+        this.checkpoint = checkpoint;
+        this.interval = interval;
+        this.gate = gate;
+        this.writer = writer;
+        this.visitedUrls = visitedUrls;
+        this.seenUrls = seenUrls;
+        this.frontier = frontier;
+        this.resumedCount = resumedCount;
+    }
+
+    /**
+     * Take a checkpoint now, pausing the crawl meanwhile.
+     * @return Whether the checkpoint is saved.
+     */
+    public synchronized boolean take() {
+        long begin = System.nanoTime();
+        try {
+            gate.close();
+        } catch (InterruptedException e) {
+            return false;
+        }
+
+        try {
+            if (!writer.sync()) {
+                System.out.println("CheckpointThread skipped a checkpoint, since the writer has failed.");
+                return false;
+            }
+
+            int crawledCount = resumedCount + writer.getWrittenCount();
+            lastSize = checkpoint.save(crawledCount, visitedUrls, seenUrls, frontier);
+            long elapsed = System.nanoTime() - begin;
+            totalPauseTime += elapsed;
+            ++savedCount;
+
+            System.out.format("CheckpointThread saved a checkpoint at %s: %d pages crawled, %d urls waiting, " +
+                            "%.2f MB. Paused for %d ms.%n",
+                    LocalDateTime.now().toLocalTime(), crawledCount, frontier.size(), lastSize / 1048576.0,
+                    elapsed / 1000000);
+            return true;
+        } catch (InterruptedException e) {
+            return false;
+        } catch (IOException e) {
+            System.out.println("CheckpointThread throws an IOException: " + e.getMessage());
+            return false;
+        } finally {
+            gate.open();
+        }
+    }
+
+    /**
+     * Stop taking checkpoints periodically.
+     */
+    public void finish() {
+        finishing = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (!finishing) {
+            try {
+                Thread.sleep(interval);
+            } catch (InterruptedException e) {
+                // Finishing, or interrupted by someone else.
+                continue;
+            }
+            take();
+        }
+    }
+
+    /**
+     * Print the summary of the checkpoints taken.
+     */
+    public synchronized void reportSummary() {
+        System.out.format("Summary: CheckpointThread saved %d checkpoints into %s, the last one %.2f MB. " +
+                        "Paused for %d ms on average.%n",
+                savedCount, checkpoint.getPath(), lastSize / 1048576.0,
+                savedCount == 0 ? 0 : totalPauseTime / 1000000 / savedCount);
+    }
+}
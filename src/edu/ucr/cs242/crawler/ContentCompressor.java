@@ -0,0 +1,255 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.ContentCodec;
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Migrate the content of an existing database between plain text and the compressed format of {@link ContentCodec}.
+ * A dictionary is trained from a random sample of pages if the database has none. The database is vacuumed after
+ * migration, and the size and the read throughput before and after are reported.
+ */
+public class ContentCompressor {
+    /**
+     * The number of records to be batch-processed per SQL transaction.
+     */
+    public static final int BATCH_COUNT = 500;
+    /**
+     * The SQL query statement of the rows to migrate, in the order of rowid.
+     */
+    public static final String SQL_QUERY =
+            "SELECT rowid, content FROM pages WHERE rowid > ? AND typeof(content) = ? ORDER BY rowid LIMIT ?";
+    /**
+     * The SQL update statement. The content is not changed, thus the page is not flagged dirty.
+     */
+    public static final String SQL_UPDATE = "UPDATE pages SET content = ? WHERE rowid = ?";
+
+    private final Connection dbConnection;
+    private final boolean decompress;
+    private final int numOfSamples;
+
+    /**
+     * Construct a compressor with given settings.
+     * @param dbConnection The active database connection.
+     * @param decompress   Whether to decompress the content back into plain text.
+     * @param numOfSamples The number of pages sampled to train a dictionary.
+     */
+    public ContentCompressor(Connection dbConnection, boolean decompress, int numOfSamples) {
+        this.dbConnection = dbConnection;
+        this.decompress = decompress;
+        this.numOfSamples = numOfSamples;
+    }
+
+    private long fetchDatabaseSize() throws SQLException {
+        try (Statement query = dbConnection.createStatement()) {
+            long pageCount, pageSize;
+            try (ResultSet result = query.executeQuery("PRAGMA page_count")) { result.next(); pageCount = result.getLong(1); }
+            try (ResultSet result = query.executeQuery("PRAGMA page_size")) { result.next(); pageSize = result.getLong(1); }
+            return pageCount * pageSize;
+        }
+    }
+
+    /**
+     * Read and decode the content of all pages, and report the throughput.
+     */
+    private void measure(ContentCodec codec, String stage) throws SQLException {
+        long size = fetchDatabaseSize();
+        long begin = System.nanoTime();
+        long chars = 0;
+        int count = 0;
+
+        try (Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT content FROM pages")) {
+            while (result.next()) {
+                chars += codec.getContent(result, "content").length();
+                ++count;
+            }
+        }
+
+        double seconds = Math.max(System.nanoTime() - begin, 1) / 1e9;
+        System.out.format("Summary: %s, the database takes %.2f MB. Read %d pages (%.2f MB of text) in %.2f s, " +
+                        "%.0f pages/s, %.2f MB/s.%n",
+                stage, size / 1048576.0, count, chars / 1048576.0, seconds, count / seconds, chars / 1048576.0 / seconds);
+    }
+
+    private void train(ContentCodec codec) throws SQLException {
+        final String SQL_SAMPLE = "SELECT content FROM pages WHERE typeof(content) = 'text' ORDER BY random() LIMIT ?";
+        List<String> samples = new ArrayList<>(numOfSamples);
+
+        try (PreparedStatement statement = dbConnection.prepareStatement(SQL_SAMPLE)) {
+            statement.setInt(1, numOfSamples);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) samples.add(result.getString("content"));
+            }
+        }
+
+        codec.addDictionary(dbConnection, ContentCodec.train(samples, ContentCodec.DICTIONARY_SIZE));
+        System.out.println("ContentCompressor trained a dictionary of " + codec.getDictionarySize() + " bytes " +
+                "from " + samples.size() + " pages.");
+    }
+
+    private int migrate(ContentCodec codec) throws SQLException {
+        LocalDateTime startAt = LocalDateTime.now();
+        int migratedCount = 0;
+        long lastRowId = 0;
+
+        dbConnection.setAutoCommit(false);
+        try (PreparedStatement query = dbConnection.prepareStatement(SQL_QUERY);
+             PreparedStatement update = dbConnection.prepareStatement(SQL_UPDATE)) {
+            while (true) {
+                query.setLong(1, lastRowId);
+                query.setString(2, decompress ? "blob" : "text");
+                query.setInt(3, BATCH_COUNT);
+
+                int localCount = 0;
+                try (ResultSet result = query.executeQuery()) {
+                    while (result.next()) {
+                        lastRowId = result.getLong("rowid");
+                        String content = codec.getContent(result, "content");
+                        update.setObject(1, decompress ? content : codec.encode(content));
+                        update.setLong(2, lastRowId);
+                        update.addBatch();
+                        ++localCount;
+                    }
+                }
+                if (localCount == 0)
+                    break;
+
+                update.executeBatch();
+                dbConnection.commit();
+                migratedCount += localCount;
+                System.out.format("ContentCompressor has %s %d pages. Elapsed time: %s.%n",
+                        decompress ? "decompressed" : "compressed", migratedCount,
+                        Utility.elapsedTime(startAt, LocalDateTime.now()));
+            }
+        } catch (SQLException e) {
+            dbConnection.rollback();
+            throw e;
+        } finally {
+            dbConnection.setAutoCommit(true);
+        }
+
+        return migratedCount;
+    }
+
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("ContentCompressor started at " + startAt.toLocalTime() + ".");
+
+        try {
+            ContentCodec codec = ContentCodec.load(dbConnection);
+            measure(codec, "Before migration");
+
+            if (!decompress && !codec.canEncode()) {
+                train(codec);
+            }
+
+            int migratedCount = migrate(codec);
+
+            // Give the free pages back to the file system.
+            try (Statement statement = dbConnection.createStatement()) {
+                statement.execute("VACUUM");
+            }
+
+            System.out.format("Summary: ContentCompressor %s %d pages. Elapsed time: %s.%n",
+                    decompress ? "decompressed" : "compressed", migratedCount,
+                    Utility.elapsedTime(startAt, LocalDateTime.now()));
+            measure(codec, "After migration");
+        } catch (SQLException e) {
+            System.out.println("ContentCompressor throws an SQLException.");
+            e.printStackTrace();
+        }
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("compressor: " + message);
+    }
+
+    private static void printUsage() {
+        System.out.println("usage: compressor [options] <jdbc-url>");
+        System.out.println("use -h for a list of possible options");
+        System.exit(1);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("compressor [options] <jdbc-url>", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws SQLException, ClassNotFoundException {
+        final int NUMBER_OF_SAMPLES = 1000;
+
+        Options options = new Options();
+        options.addOption(Option.builder("s")
+                        .longOpt("samples")
+                        .argName("NUM OF PAGES")
+                        .desc("the number of pages sampled to train a dictionary, if the database has none " +
+                                "(default: " + NUMBER_OF_SAMPLES + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("x", "decompress", false, "decompress the content back into plain text");
+
+        options.addOption(Option.builder("l")
+                        .longOpt("log-output")
+                        .argName("FILE NAME")
+                        .desc("the file to write logs into (default: STDOUT)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            if (argList.isEmpty()) {
+                printMessage("JDBC url is not specified");
+                printUsage();
+            }
+
+            String logOutput = cmd.getOptionValue("log-output");
+            if (!Utility.openOutputLog(logOutput)) {
+                printMessage("invalid log file path");
+                printUsage();
+            }
+
+            try {
+                int numOfSamples = Integer.parseInt(cmd.getOptionValue("samples", String.valueOf(NUMBER_OF_SAMPLES)));
+                if (numOfSamples <= 0) {
+                    throw new NumberFormatException();
+                }
+
+                Optional<Connection> dbConnection = Utility.getConnection(argList.get(0));
+                if (!dbConnection.isPresent()) {
+                    printMessage("invalid JDBC url");
+                    printUsage();
+                } else {
+                    new ContentCompressor(dbConnection.get(), cmd.hasOption("decompress"), numOfSamples).start();
+                    dbConnection.get().close();
+                }
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
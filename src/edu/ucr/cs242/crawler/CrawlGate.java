@@ -0,0 +1,46 @@
+package edu.ucr.cs242.crawler;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * The gate every url passes while it is processed, from being polled out of the frontier until its page is
+ * handed over to the writer and its links are enqueued. Closing the gate waits for the urls in process,
+ * and holds back the new ones, so that the frontier, the visited set and the database are consistent.
+ * A url may enter on one thread and exit on another, as in the asynchronous modes.
+ */
+public class CrawlGate {
+    private static final int PERMITS = Integer.MAX_VALUE;
+
+    // Fair, so that closing is not starved by the urls entering.
+    private final Semaphore semaphore = new Semaphore(PERMITS, true);
+
+    /**
+     * Let an url in, blocking while the gate is closed.
+     * @throws InterruptedException
+     */
+    public void enter() throws InterruptedException {
+        semaphore.acquire();
+    }
+
+    /**
+     * Let an url out.
+     */
+    public void exit() {
+        semaphore.release();
+    }
+
+    /**
+     * Close the gate, blocking until all urls in process exit.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        semaphore.acquire(PERMITS);
+    }
+
+    /**
+     * Open the gate closed by {@link #close()}.
+     */
+    public void open() {
+        semaphore.release(PERMITS);
+    }
+}
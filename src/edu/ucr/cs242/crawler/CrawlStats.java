@@ -0,0 +1,321 @@
+package edu.ucr.cs242.crawler;
+
+import org.json.JSONObject;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpResponse;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The live statistics of a crawl: a latency histogram per stage of a url, recorded by all workers,
+ * and the sizes of the frontier, the visited set and the write queue, read when asked.
+ * They are exposed over JMX, and optionally over HTTP by {@link StatsServer}, and summarized when the crawl ends.
+ */
+public class CrawlStats implements CrawlStatsMXBean {
+    /**
+     * The name the statistics are registered under in JMX.
+     */
+    public static final String OBJECT_NAME = "edu.ucr.cs242.crawler:type=CrawlStats";
+
+    /**
+     * The stages a url goes through, in order.
+     */
+    public enum Stage {
+        /** Checking the url against robots.txt, which includes fetching it the first time a host is seen. */
+        ROBOTS("robots"),
+        /** Waiting for the next free slot of the host. */
+        POLITENESS("politeness"),
+        /** From sending the request until the response headers arrive, including name lookup and connecting. */
+        FIRST_BYTE("firstByte"),
+        /** Reading the response body. */
+        BODY("body"),
+        /** Extracting the page and its links. */
+        PARSE("parse"),
+        /** Fingerprinting the content and looking up its near-duplicates. */
+        DEDUP("dedup"),
+        /** Blocked handing the page over to the writer, while the write queue is full. */
+        QUEUE_PUT("queuePut"),
+        /** From handing the page over until the writer takes it from the write queue. */
+        QUEUE_WAIT("queueWait"),
+        /** Executing a batch and committing it. */
+        COMMIT("commit");
+
+        private final String name;
+
+        Stage(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    /**
+     * A snapshot of the latencies of a stage, in milliseconds.
+     */
+    public static class Latency {
+        private final long count;
+        private final double mean;
+        private final double p50;
+        private final double p90;
+        private final double p99;
+        private final double max;
+
+        private Latency(LatencyHistogram histogram) {
+            this.count = histogram.getCount();
+            this.mean = histogram.getMean();
+            this.p50 = histogram.getPercentile(50);
+            this.p90 = histogram.getPercentile(90);
+            this.p99 = histogram.getPercentile(99);
+            this.max = histogram.getMax();
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public double getP50() {
+            return p50;
+        }
+
+        public double getP90() {
+            return p90;
+        }
+
+        public double getP99() {
+            return p99;
+        }
+
+        public double getMax() {
+            return max;
+        }
+    }
+
+    /**
+     * A body handler wrapping another one, which records the time until the headers arrive,
+     * and the time reading the body once {@link #finish()} is called. A handler is used for one request only.
+     */
+    public class TimedBodyHandler implements HttpResponse.BodyHandler<String> {
+        private final HttpResponse.BodyHandler<String> delegate;
+        private final long sentAt = System.nanoTime();
+        private volatile long receivedAt = 0;
+
+        private TimedBodyHandler(HttpResponse.BodyHandler<String> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public HttpResponse.BodySubscriber<String> apply(HttpResponse.ResponseInfo responseInfo) {
+            receivedAt = System.nanoTime();
+            record(Stage.FIRST_BYTE, receivedAt - sentAt);
+            return delegate.apply(responseInfo);
+        }
+
+        /**
+         * @return The time until the headers arrived (nanoseconds), or -1 if they have not arrived.
+         */
+        public long getFirstByteLatency() {
+            long receivedAt = this.receivedAt;
+            return receivedAt == 0 ? -1 : receivedAt - sentAt;
+        }
+
+        /**
+         * Record the time reading the body, when the response is completed.
+         */
+        public void finish() {
+            if (receivedAt != 0) recordSince(Stage.BODY, receivedAt);
+        }
+    }
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private volatile Frontier frontier;
+    private volatile VisitedSet visitedUrls;
+    private volatile WriterThread writer;
+    private ObjectName registeredName;
+
+    public CrawlStats() {
+        for (int i = 0; i < histograms.length; i++) histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Watch the sizes of the crawl.
+     * @param frontier    The frontier.
+     * @param visitedUrls The visited urls.
+     * @param writer      The writer.
+     */
+    public void watch(Frontier frontier, VisitedSet visitedUrls, WriterThread writer) {
+        this.frontier = frontier;
+        this.visitedUrls = visitedUrls;
+        this.writer = writer;
+    }
+
+    /**
+     * Record a latency of a stage.
+     * @param stage The stage.
+     * @param nanos The latency (nanoseconds).
+     */
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record the time elapsed in a stage.
+     * @param stage The stage.
+     * @param begin The beginning of the stage, from {@link System#nanoTime()}.
+     */
+    public void recordSince(Stage stage, long begin) {
+        histograms[stage.ordinal()].recordSince(begin);
+    }
+
+    /**
+     * @param delegate The body handler reading the body, as by {@link HttpFetcher#newBodyHandler()}.
+     * @return A body handler recording the time of the request, from now on.
+     */
+    public TimedBodyHandler newBodyHandler(HttpResponse.BodyHandler<String> delegate) {
+        return new TimedBodyHandler(delegate);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    @Override
+    public long getFrontierSize() {
+        Frontier frontier = this.frontier;
+        return frontier == null ? 0 : frontier.size();
+    }
+
+    @Override
+    public long getSpilledSize() {
+        Frontier frontier = this.frontier;
+        return frontier == null ? 0 : frontier.spilledSize();
+    }
+
+    @Override
+    public long getSeenSize() {
+        Frontier frontier = this.frontier;
+        return frontier == null ? 0 : frontier.seenSize();
+    }
+
+    @Override
+    public long getVisitedSize() {
+        VisitedSet visitedUrls = this.visitedUrls;
+        return visitedUrls == null ? 0 : visitedUrls.size();
+    }
+
+    @Override
+    public int getWriteQueueDepth() {
+        WriterThread writer = this.writer;
+        return writer == null ? 0 : writer.getQueueDepth();
+    }
+
+    @Override
+    public long getWriteQueueMemory() {
+        WriterThread writer = this.writer;
+        return writer == null ? 0 : writer.getQueueMemory();
+    }
+
+    @Override
+    public long getWriteQueueCapacity() {
+        WriterThread writer = this.writer;
+        return writer == null ? 0 : writer.getQueueCapacity();
+    }
+
+    @Override
+    public long getWriteBlockedCount() {
+        WriterThread writer = this.writer;
+        return writer == null ? 0 : writer.getBlockedCount();
+    }
+
+    @Override
+    public int getWrittenCount() {
+        WriterThread writer = this.writer;
+        return writer == null ? 0 : writer.getWrittenCount();
+    }
+
+    @Override
+    public Map<String, Latency> getLatencies() {
+        Map<String, Latency> latencies = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) latencies.put(stage.getName(), new Latency(getHistogram(stage)));
+        return latencies;
+    }
+
+    /**
+     * @return All statistics as a JSON object, with the latencies in milliseconds.
+     */
+    public JSONObject toJSON() {
+        JSONObject latencies = new JSONObject();
+        getLatencies().forEach((name, latency) -> latencies.put(name, new JSONObject()
+                .put("count", latency.getCount())
+                .put("mean", latency.getMean())
+                .put("p50", latency.getP50())
+                .put("p90", latency.getP90())
+                .put("p99", latency.getP99())
+                .put("max", latency.getMax())));
+
+        return new JSONObject()
+                .put("frontierSize", getFrontierSize())
+                .put("spilledSize", getSpilledSize())
+                .put("seenSize", getSeenSize())
+                .put("visitedSize", getVisitedSize())
+                .put("writeQueueDepth", getWriteQueueDepth())
+                .put("writeQueueMemory", getWriteQueueMemory())
+                .put("writeQueueCapacity", getWriteQueueCapacity())
+                .put("writeBlockedCount", getWriteBlockedCount())
+                .put("writtenCount", getWrittenCount())
+                .put("latencies", latencies);
+    }
+
+    /**
+     * Register the statistics into the platform MBean server.
+     * @return Whether the statistics are registered.
+     */
+    public synchronized boolean register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // Left behind by a previous crawl in the same JVM.
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(this, name);
+            registeredName = name;
+            return true;
+        } catch (JMException e) {
+            System.out.println("CrawlStats cannot be registered into JMX: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Unregister the statistics from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        if (registeredName == null)
+            return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(registeredName);
+        } catch (JMException e) {
+            // Already unregistered.
+        }
+        registeredName = null;
+    }
+
+    /**
+     * Print the latencies of all stages.
+     */
+    public void reportSummary() {
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getHistogram(stage);
+            if (histogram.getCount() > 0)
+                System.out.println("Summary: Latency of " + stage.getName() + ": " + histogram + ".");
+        }
+    }
+}
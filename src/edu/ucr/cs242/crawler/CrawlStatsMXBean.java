@@ -0,0 +1,59 @@
+package edu.ucr.cs242.crawler;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link CrawlStats}, registered as `edu.ucr.cs242.crawler:type=CrawlStats`,
+ * so the crawl can be watched in JConsole or VisualVM while it runs.
+ */
+public interface CrawlStatsMXBean {
+    /**
+     * @return The number of urls waiting in the frontier.
+     */
+    long getFrontierSize();
+
+    /**
+     * @return The number of urls of the frontier spilled onto disk.
+     */
+    long getSpilledSize();
+
+    /**
+     * @return The number of urls ever enqueued.
+     */
+    long getSeenSize();
+
+    /**
+     * @return The number of urls visited.
+     */
+    long getVisitedSize();
+
+    /**
+     * @return The number of pages waiting to be written.
+     */
+    int getWriteQueueDepth();
+
+    /**
+     * @return The estimated memory held by the pages waiting to be written (bytes).
+     */
+    long getWriteQueueMemory();
+
+    /**
+     * @return The capacity of the write queue (bytes).
+     */
+    long getWriteQueueCapacity();
+
+    /**
+     * @return The number of pages whose workers were blocked by a full write queue.
+     */
+    long getWriteBlockedCount();
+
+    /**
+     * @return The number of pages committed, whether changed or not.
+     */
+    int getWrittenCount();
+
+    /**
+     * @return The latencies of all stages, by the name of the stage.
+     */
+    Map<String, CrawlStats.Latency> getLatencies();
+}
@@ -0,0 +1,335 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fill the pages table from a Wikipedia XML dump (`pages-articles.xml.bz2`) instead of crawling.
+ * A single reader thread streams the dump, while decompressing runs beside it, and the articles are converted
+ * from wikitext by a converter thread per core, which hand the pages over to a single writer, as when crawling.
+ * The queues between them are bounded, so the memory stays the same whatever the size of the dump is.
+ * The redirects are not stored as pages, but recorded into the `redirects` table, as the crawler does.
+ */
+public class DumpIngester {
+    /**
+     * The number of pages converted between two progress reports.
+     */
+    public static final int REPORT_COUNT = 10000;
+    /**
+     * The interval of polling the queue when shutting down (milliseconds).
+     */
+    private static final int POLL_INTERVAL = 100;
+
+    private final Path dump;
+    private final String jdbcUrl;
+    private final String urlPrefix;
+    private final String bunzip2Command;
+    private final int numOfThreads;
+    private final int numOfPages;
+    private final boolean compress;
+    private final DuplicateDetector.Action duplicateAction;
+    private final WikitextConverter converter = new WikitextConverter();
+
+    private final BlockingQueue<DumpReader.Page> pageQueue;
+    private final AtomicInteger articleCount = new AtomicInteger(0);
+    private final AtomicInteger convertedCount = new AtomicInteger(0);
+    private volatile int readCount = 0;
+    private volatile int redirectCount = 0;
+    private volatile long bytesRead = -1;
+    private volatile boolean readFinished = false;
+
+    /**
+     * Construct an ingester with given settings.
+     * @param dump            The dump file.
+     * @param jdbcUrl         The JDBC url of the database to fill.
+     * @param urlPrefix       The url of an article is this prefix followed by its title.
+     * @param bunzip2Command  The command decompressing a bzip2 dump into its standard output.
+     * @param numOfThreads    The number of threads for converting.
+     * @param numOfPages      The maximum number of articles to read, or 0 for all.
+     * @param compress        Whether to compress the content with a trained dictionary.
+     * @param duplicateAction What to do with a near-duplicate page, or null not to detect near-duplicates.
+     */
+    public DumpIngester(Path dump, String jdbcUrl, String urlPrefix, String bunzip2Command, int numOfThreads,
+                        int numOfPages, boolean compress, DuplicateDetector.Action duplicateAction) {
+        this.dump = dump;
+        this.jdbcUrl = jdbcUrl;
+        this.urlPrefix = urlPrefix;
+        this.bunzip2Command = bunzip2Command;
+        this.numOfThreads = numOfThreads;
+        this.numOfPages = numOfPages;
+        this.compress = compress;
+        this.duplicateAction = duplicateAction;
+        this.pageQueue = new ArrayBlockingQueue<>(numOfThreads * 64);
+    }
+
+    private Thread createReader(WriterThread writer) {
+        return new Thread(() -> {
+            try (DumpReader reader = new DumpReader(dump, bunzip2Command)) {
+                DumpReader.Page page;
+                while ((page = reader.next()) != null) {
+                    ++readCount;
+                    // Only the articles are stored.
+                    if (page.getNamespace() != 0)
+                        continue;
+                    if (page.getRedirect() != null) {
+                        // The section a redirect may point to is not a part of the title.
+                        String target = page.getRedirect();
+                        if (target.indexOf('#') >= 0) target = target.substring(0, target.indexOf('#'));
+                        target = WikitextConverter.normalizeTitle(target);
+                        if (!target.isEmpty()) {
+                            writer.putRedirect(page.getTitle(), target, urlOf(page.getTitle()));
+                            ++redirectCount;
+                        }
+                        continue;
+                    }
+
+                    // Nobody takes the pages any more, if the writer has failed.
+                    while (!pageQueue.offer(page, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        if (writer.isFailed()) return;
+                    }
+                    if (articleCount.incrementAndGet() == numOfPages) break;
+                }
+                bytesRead = reader.getBytesRead();
+            } catch (InterruptedException e) {
+                // Actions are performed by the caller.
+            } catch (IOException e) {
+                System.out.println("ReadThread cannot read " + dump + ": " + e.getMessage());
+            }
+        }, "ReadThread");
+    }
+
+    /**
+     * @return The url of an article, escaped as in the links of Wikipedia.
+     */
+    private String urlOf(String title) {
+        return urlPrefix + PageExtractor.encodeTitle(title);
+    }
+
+    private void convert(WriterThread writer, DumpReader.Page article) throws InterruptedException {
+        WikiPage page = converter.convert(article.getTitle(), article.getText(), article.getTimestamp());
+        if (page == null)
+            return;
+
+        // The time of the revision serves as Last-Modified, so re-crawling the page is conditional.
+        String lastModified = article.getTimestamp() == null ? null : DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                page.getLastModify().atOffset(ZoneOffset.UTC));
+        writer.put(page.withValidators(urlOf(page.getTitle()), null, lastModified));
+        if (convertedCount.incrementAndGet() % REPORT_COUNT == 0) {
+            System.out.println("DumpIngester has converted " + convertedCount.get() + " pages.");
+        }
+    }
+
+    private Thread createConverter(int converterId, WriterThread writer) {
+        return new Thread(() -> {
+            while (!writer.isFailed()) {
+                try {
+                    DumpReader.Page article = pageQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (article != null) {
+                        convert(writer, article);
+                    } else if (readFinished) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    System.out.println("ConvertThread " + converterId + " throws an exception.");
+                    e.printStackTrace();
+                }
+            }
+        }, "ConvertThread-" + converterId);
+    }
+
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("DumpIngester started at " + startAt.toLocalTime() + ". Dump: " + dump +
+                ", converters: " + numOfThreads + ".");
+
+        // The stored pages are the originals to detect the new ones against.
+        DuplicateDetector duplicates;
+        WriterThread writer;
+        try {
+            duplicates = duplicateAction == null ? null : DuplicateDetector.load(jdbcUrl, duplicateAction);
+            writer = new WriterThread(jdbcUrl, compress, new CrawlStats(), WriterThread.QUEUE_MEMORY, duplicates);
+        } catch (SQLException e) {
+            System.out.println("Failed to create the writer, or to load the stored fingerprints.");
+            e.printStackTrace();
+            return;
+        }
+        writer.start();
+
+        Thread reader = createReader(writer);
+        reader.start();
+        Thread[] converters = new Thread[numOfThreads];
+        for (int i = 0; i < numOfThreads; i++) {
+            converters[i] = createConverter(i, writer);
+            converters[i].start();
+        }
+
+        Utility.waitThread(reader);
+        readFinished = true;
+        Utility.waitThreads(converters);
+
+        writer.finish();
+        Utility.waitThread(writer);
+
+        double seconds = Math.max(Duration.between(startAt, LocalDateTime.now()).toMillis(), 1) / 1000.0;
+        System.out.format("Summary: DumpIngester read %d pages (%d articles, %d redirects recorded)%s, " +
+                        "converted %d pages, %.0f pages/s. Elapsed time: %s.%n",
+                readCount, articleCount.get(), redirectCount,
+                bytesRead < 0 ? "" : String.format(" from %.2f MB", bytesRead / 1048576.0),
+                convertedCount.get(), convertedCount.get() / seconds,
+                Utility.elapsedTime(startAt, LocalDateTime.now()));
+        System.out.format("Summary: WriterThread committed %d pages.%n", writer.getCommittedCount());
+        if (duplicates != null) duplicates.reportSummary();
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("ingest-dump: " + message);
+    }
+
+    private static void printUsage() {
+        System.out.println("usage: ingest-dump [options] <dump-file> <jdbc-url>");
+        System.out.println("use -h for a list of possible options");
+        System.exit(1);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("ingest-dump [options] <dump-file> <jdbc-url>", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException {
+        final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+        final String URL_PREFIX = "https://en.wikipedia.org/wiki/";
+        final String NEAR_DUPLICATES = "off";
+
+        Options options = new Options();
+        options.addOption(Option.builder("t")
+                        .longOpt("threads")
+                        .argName("NUM OF THREADS")
+                        .desc("the number of threads for converting (default: " + NUMBER_OF_THREADS + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("c")
+                        .longOpt("pages")
+                        .argName("NUM OF PAGES")
+                        .desc("the maximum number of articles to read (default: all)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("u")
+                        .longOpt("url-prefix")
+                        .argName("URL PREFIX")
+                        .desc("the url of an article is this prefix followed by its title (default: " +
+                                URL_PREFIX + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("b")
+                        .longOpt("bunzip2")
+                        .argName("COMMAND")
+                        .desc("the command decompressing a .bz2 dump into its standard output, e.g. `lbzip2 -dc` " +
+                                "(default: " + DumpReader.BUNZIP2_COMMAND + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("z", "compress", false,
+                "compress the content with a dictionary, trained from the first pages written");
+
+        options.addOption(Option.builder("x")
+                        .longOpt("near-duplicates")
+                        .argName("ACTION")
+                        .desc("what to do with a page whose content nearly duplicates a stored page: " +
+                                "`mark`, `skip` or `off` (default: " + NEAR_DUPLICATES + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("l")
+                        .longOpt("log-output")
+                        .argName("FILE NAME")
+                        .desc("the file to write logs into (default: STDOUT)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            if (argList.size() < 2) {
+                printMessage("dump file or JDBC url is not specified");
+                printUsage();
+            }
+
+            String logOutput = cmd.getOptionValue("log-output");
+            if (!Utility.openOutputLog(logOutput)) {
+                printMessage("invalid log file path");
+                printUsage();
+            }
+
+            Path dump = Paths.get(argList.get(0));
+            if (!Files.isRegularFile(dump)) {
+                printMessage("invalid dump file (not exist or not a file)");
+                printUsage();
+            }
+
+            String jdbcUrl = argList.get(1);
+            if (!WikiCrawler.initializeDatabase(jdbcUrl)) {
+                printMessage("invalid JDBC url");
+                printUsage();
+            }
+
+            try {
+                int numOfThreads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(NUMBER_OF_THREADS)));
+                int numOfPages = Integer.parseInt(cmd.getOptionValue("pages", "0"));
+                if (numOfThreads <= 0 || numOfPages < 0) {
+                    throw new NumberFormatException();
+                }
+
+                String nearDuplicates = cmd.getOptionValue("near-duplicates", NEAR_DUPLICATES);
+                DuplicateDetector.Action duplicateAction = DuplicateDetector.parseAction(nearDuplicates);
+                if (duplicateAction == null && !nearDuplicates.equals("off")) {
+                    printMessage("invalid near-duplicate action");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                new DumpIngester(dump, jdbcUrl, cmd.getOptionValue("url-prefix", URL_PREFIX),
+                        cmd.getOptionValue("bunzip2", DumpReader.BUNZIP2_COMMAND), numOfThreads, numOfPages,
+                        cmd.hasOption("compress"), duplicateAction).start();
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
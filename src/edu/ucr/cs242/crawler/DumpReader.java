@@ -0,0 +1,317 @@
+package edu.ucr.cs242.crawler;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A sequential reader of the pages in a MediaWiki XML dump (`pages-articles.xml`), streamed with StAX,
+ * so only the current page is held in memory whatever the size of the dump is.
+ * A dump ending with `.bz2` is decompressed by an external `bzip2 -dc` process, as the JDK has no bzip2 codec,
+ * and one ending with `.gz` by a thread of its own; either way, decompressing runs beside parsing.
+ */
+public class DumpReader implements Closeable {
+    /**
+     * The command decompressing a bzip2 dump into its standard output.
+     */
+    public static final String BUNZIP2_COMMAND = "bzip2 -dc";
+    /**
+     * The size of a chunk handed over by the decompressing thread (bytes).
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    /**
+     * The number of chunks waiting to be parsed, which bounds the memory of decompressing ahead.
+     */
+    private static final int CHUNK_QUEUE_SIZE = 64;
+    /**
+     * The interval of polling the chunk queue, to notice the reader being closed (milliseconds).
+     */
+    private static final int POLL_INTERVAL = 100;
+
+    static {
+        // A dump expands far more entities in total (&quot; &lt; ...) than the JDK allows by default.
+        if (System.getProperty("jdk.xml.totalEntitySizeLimit") == null)
+            System.setProperty("jdk.xml.totalEntitySizeLimit", "0");
+        if (System.getProperty("jdk.xml.maxGeneralEntitySizeLimit") == null)
+            System.setProperty("jdk.xml.maxGeneralEntitySizeLimit", "0");
+    }
+
+    /**
+     * A page in the dump, with its latest revision.
+     */
+    public static class Page {
+        private final String title;
+        private final int namespace;
+        private final String redirect;
+        private final String timestamp;
+        private final String text;
+
+        public Page(String title, int namespace, String redirect, String timestamp, String text) {
+            this.title = title;
+            this.namespace = namespace;
+            this.redirect = redirect;
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return The namespace, 0 for articles.
+         */
+        public int getNamespace() {
+            return namespace;
+        }
+
+        /**
+         * @return The title of the page redirected to, or null if not a redirect.
+         */
+        public String getRedirect() {
+            return redirect;
+        }
+
+        /**
+         * @return The time of the revision, in ISO 8601 (e.g. `2018-01-18T21:30:00Z`), may be null.
+         */
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return The wikitext of the revision.
+         */
+        public String getText() {
+            return text;
+        }
+    }
+
+    /**
+     * The input stream of the chunks decompressed by another thread.
+     */
+    private static class ChunkStream extends InputStream {
+        // A chunk shorter than the others marks the end.
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNK_QUEUE_SIZE);
+        private final Thread thread;
+        private volatile IOException failure;
+        private volatile boolean closed = false;
+        private byte[] current = new byte[0];
+        private int position = 0;
+
+        private ChunkStream(InputStream source, String name) {
+            this.thread = new Thread(() -> {
+                try (InputStream input = source) {
+                    byte[] buffer = new byte[CHUNK_SIZE];
+                    int length;
+                    while (!closed && (length = input.readNBytes(buffer, 0, CHUNK_SIZE)) > 0) {
+                        offer(Arrays.copyOf(buffer, length));
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } catch (InterruptedException e) {
+                    // Closed.
+                }
+                try { offer(END); }
+                catch (InterruptedException e) { /* closed */ }
+            }, name);
+            this.thread.start();
+        }
+
+        private void offer(byte[] chunk) throws InterruptedException {
+            while (!closed && !chunks.offer(chunk, POLL_INTERVAL, TimeUnit.MILLISECONDS));
+        }
+
+        /**
+         * @return Whether there are bytes to read in the current chunk.
+         */
+        private boolean fill() throws IOException {
+            if (current == END)
+                return false;
+            if (position < current.length)
+                return true;
+
+            try { current = chunks.take(); }
+            catch (InterruptedException e) { throw new InterruptedIOException(); }
+            position = 0;
+            if (current == END) {
+                if (failure != null) throw failure;
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? current[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            if (!fill())
+                return -1;
+
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, bytes, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            thread.interrupt();
+        }
+    }
+
+    private final InputStream input;
+    private final Process process;
+    private final XMLStreamReader reader;
+    private final CountingStream counter;
+
+    /**
+     * The stream counting the bytes read from the dump file.
+     */
+    private static class CountingStream extends FilterInputStream {
+        private volatile long count = 0;
+
+        private CountingStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) ++count;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            int n = super.read(bytes, offset, length);
+            if (n > 0) count += n;
+            return n;
+        }
+    }
+
+    /**
+     * Open a dump.
+     * @param dump           The dump file, plain or compressed by bzip2 (`.bz2`) or gzip (`.gz`).
+     * @param bunzip2Command The command decompressing a bzip2 file into its standard output.
+     * @throws IOException
+     */
+    public DumpReader(Path dump, String bunzip2Command) throws IOException {
+        String name = dump.getFileName().toString();
+        if (name.endsWith(".bz2")) {
+            // The dump is read by the process, thus counted as decompressed.
+            String[] command = (bunzip2Command + " " + dump.toAbsolutePath()).trim().split("\\s+");
+            this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            this.counter = null;
+            this.input = new BufferedInputStream(process.getInputStream(), CHUNK_SIZE);
+        } else if (name.endsWith(".gz")) {
+            this.process = null;
+            this.counter = new CountingStream(new BufferedInputStream(Files.newInputStream(dump), CHUNK_SIZE));
+            this.input = new ChunkStream(new GZIPInputStream(counter, CHUNK_SIZE), "DecompressThread");
+        } else {
+            this.process = null;
+            this.counter = new CountingStream(new BufferedInputStream(Files.newInputStream(dump), CHUNK_SIZE));
+            this.input = counter;
+        }
+
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            // The text of a page is returned at once, whatever entities it has.
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            this.reader = factory.createXMLStreamReader(input, "UTF-8");
+        } catch (XMLStreamException e) {
+            close();
+            throw new IOException("Not an XML dump: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Read the next page.
+     * @return The page, or null if no more pages.
+     * @throws IOException
+     */
+    public Page next() throws IOException {
+        String title = null, redirect = null, timestamp = null, text = null;
+        int namespace = 0;
+        boolean inPage = false, inRevision = false;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "page":
+                            inPage = true;
+                            break;
+                        case "title":
+                            if (inPage) title = reader.getElementText();
+                            break;
+                        case "ns":
+                            if (inPage && !inRevision) namespace = Integer.parseInt(reader.getElementText().trim());
+                            break;
+                        case "redirect":
+                            if (inPage) redirect = reader.getAttributeValue(null, "title");
+                            break;
+                        case "revision":
+                            inRevision = inPage;
+                            break;
+                        case "timestamp":
+                            if (inRevision && timestamp == null) timestamp = reader.getElementText();
+                            break;
+                        case "text":
+                            if (inRevision && text == null) text = reader.getElementText();
+                            break;
+                        default:
+                            break;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (reader.getLocalName().equals("revision")) {
+                        inRevision = false;
+                    } else if (inPage && reader.getLocalName().equals("page")) {
+                        return new Page(title, namespace, redirect, timestamp, text == null ? "" : text);
+                    }
+                }
+            }
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Malformed dump: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * @return The number of bytes read from the dump file, or -1 if read by another process.
+     */
+    public long getBytesRead() {
+        return counter == null ? -1 : counter.count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (reader != null) reader.close();
+        } catch (XMLStreamException e) {
+            // The input is closed below anyway.
+        } finally {
+            input.close();
+            if (process != null) process.destroy();
+        }
+    }
+}
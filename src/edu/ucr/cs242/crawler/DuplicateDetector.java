@@ -0,0 +1,183 @@
+package edu.ucr.cs242.crawler;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The near-duplicate detector shared by all crawling workers, over the SimHash fingerprints of the page content.
+ * Two pages are near-duplicates if their fingerprints differ in at most {@link #MAX_DISTANCE} bits.
+ * The fingerprint is split into {@link #MAX_DISTANCE} + 1 bands of 10 or 11 bits, and a page is indexed under each
+ * of its bands.
+ * Two fingerprints that close agree on at least one whole band, so only the pages sharing a band are compared,
+ * which takes a few hash lookups instead of a scan of all pages.
+ * Only the originals are indexed, thus a near-duplicate always refers to a page which is not one itself.
+ */
+public class DuplicateDetector {
+    /**
+     * The maximum number of bits two near-duplicates differ in.
+     */
+    public static final int MAX_DISTANCE = 5;
+    /**
+     * The SQL query statement of the fingerprints of the stored originals.
+     */
+    public static final String SQL_QUERY =
+            "SELECT title, simhash FROM pages WHERE simhash IS NOT NULL AND duplicateOf IS NULL";
+
+    private static final int NUMBER_OF_BANDS = MAX_DISTANCE + 1;
+    // The lowest bit of each band, and the end of the last one.
+    private static final int[] BAND_OFFSETS = new int[NUMBER_OF_BANDS + 1];
+
+    static {
+        for (int band = 0; band <= NUMBER_OF_BANDS; band++) {
+            BAND_OFFSETS[band] = band * 64 / NUMBER_OF_BANDS;
+        }
+    }
+
+    /**
+     * What to do with a near-duplicate.
+     */
+    public enum Action {
+        /** Store the page, along with the id of the page it duplicates. */
+        MARK,
+        /** Do not store the page at all. */
+        SKIP
+    }
+
+    /**
+     * An indexed page.
+     */
+    private static class Entry {
+        private final long fingerprint;
+        private final String title;
+
+        private Entry(long fingerprint, String title) {
+            this.fingerprint = fingerprint;
+            this.title = title;
+        }
+    }
+
+    private final Action action;
+    // Keyed by the band number and the bits of the band.
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+    private int indexedCount = 0;
+
+    private final AtomicLong checkedCount = new AtomicLong(0);
+    private final AtomicLong duplicateCount = new AtomicLong(0);
+
+    /**
+     * Construct an empty detector.
+     * @param action What to do with a near-duplicate.
+     */
+    public DuplicateDetector(Action action) {
+        this.action = action;
+    }
+
+    /**
+     * Construct a detector with the stored originals indexed, so the pages crawled before are detected against.
+     * @param jdbcUrl The JDBC connection string.
+     * @param action  What to do with a near-duplicate.
+     * @return The detector.
+     * @throws SQLException
+     */
+    public static DuplicateDetector load(String jdbcUrl, Action action) throws SQLException {
+        DuplicateDetector detector = new DuplicateDetector(action);
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
+             Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery(SQL_QUERY)) {
+            while (result.next()) {
+                detector.index(result.getLong("simhash"), result.getString("title"));
+            }
+        }
+        return detector;
+    }
+
+    /**
+     * Parse an action by its name.
+     * @param name One of `mark` and `skip`.
+     * @return The action, or null if the name is unknown.
+     */
+    public static Action parseAction(String name) {
+        for (Action action : Action.values()) {
+            if (action.name().equalsIgnoreCase(name)) return action;
+        }
+        return null;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    private static long keyOf(int band, long fingerprint) {
+        long mask = (1L << BAND_OFFSETS[band + 1] - BAND_OFFSETS[band]) - 1;
+        return (long) band << 32 | (fingerprint >>> BAND_OFFSETS[band] & mask);
+    }
+
+    private void index(long fingerprint, String title) {
+        Entry entry = new Entry(fingerprint, title);
+        for (int band = 0; band < NUMBER_OF_BANDS; band++) {
+            buckets.computeIfAbsent(keyOf(band, fingerprint), key -> new ArrayList<>(1)).add(entry);
+        }
+        ++indexedCount;
+    }
+
+    /**
+     * Look up a near-duplicate of a page, and index the page as an original if none is found.
+     * A page is never a near-duplicate of itself, i.e. of a page with the same title, as when re-crawled.
+     * @param title       The title of the page.
+     * @param fingerprint The fingerprint of its content, by {@link SimHash#of(String)}.
+     * @return The title of the page it duplicates, or null if it is an original.
+     */
+    public synchronized String check(String title, long fingerprint) {
+        checkedCount.incrementAndGet();
+        // Nothing to compare with an empty page.
+        if (fingerprint == 0)
+            return null;
+
+        boolean indexed = false;
+        for (int band = 0; band < NUMBER_OF_BANDS; band++) {
+            List<Entry> bucket = buckets.get(keyOf(band, fingerprint));
+            if (bucket == null)
+                continue;
+
+            for (Entry entry : bucket) {
+                if (entry.title.equals(title)) {
+                    indexed |= entry.fingerprint == fingerprint;
+                } else if (SimHash.distance(entry.fingerprint, fingerprint) <= MAX_DISTANCE) {
+                    duplicateCount.incrementAndGet();
+                    return entry.title;
+                }
+            }
+        }
+
+        if (!indexed) index(fingerprint, title);
+        return null;
+    }
+
+    /**
+     * @return The number of pages checked.
+     */
+    public long getCheckedCount() {
+        return checkedCount.get();
+    }
+
+    /**
+     * @return The number of near-duplicates found.
+     */
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    /**
+     * Print the summary of the detection.
+     */
+    public synchronized void reportSummary() {
+        System.out.format("Summary: DuplicateDetector checked %d pages, %d near-duplicates were %s; " +
+                        "%d originals indexed in %d buckets.%n",
+                checkedCount.get(), duplicateCount.get(), action == Action.MARK ? "marked" : "skipped",
+                indexedCount, buckets.size());
+    }
+}
@@ -0,0 +1,75 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The visited set storing the full urls, which is exact but memory-hungry.
+ */
+public class ExactVisitedSet implements VisitedSet {
+    /**
+     * The approximate overhead per entry: the map node, the table slot, the String and its byte array headers.
+     */
+    private static final int ENTRY_OVERHEAD = 88;
+
+    private final Set<String> urls = ConcurrentHashMap.newKeySet();
+    private final AtomicLong totalLength = new AtomicLong(0);
+
+    @Override
+    public boolean add(String url) {
+        if (urls.add(url)) {
+            totalLength.addAndGet(url.length());
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean contains(String url) {
+        return urls.contains(url);
+    }
+
+    @Override
+    public long size() {
+        return urls.size();
+    }
+
+    @Override
+    public long memoryUsage() {
+        return urls.size() * (long) ENTRY_OVERHEAD + totalLength.get();
+    }
+
+    @Override
+    public double falsePositiveRate() {
+        return 0;
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF("exact");
+        // The count is written after the urls, since the set may grow meanwhile.
+        long count = 0;
+        for (String url : urls) {
+            out.writeBoolean(true);
+            out.writeUTF(url);
+            ++count;
+        }
+        out.writeBoolean(false);
+        out.writeLong(count);
+    }
+
+    /**
+     * Read a set written by {@link #writeTo(DataOutputStream)}, after its type.
+     */
+    static ExactVisitedSet readFrom(DataInputStream in) throws IOException {
+        ExactVisitedSet set = new ExactVisitedSet();
+        while (in.readBoolean()) set.add(in.readUTF());
+        if (in.readLong() != set.size())
+            throw new IOException("Corrupted visited set.");
+        return set;
+    }
+}
@@ -0,0 +1,349 @@
+package edu.ucr.cs242.crawler;
+
+import org.apache.commons.cli.*;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The microbenchmark of page extraction, measuring the CPU time per page on captured Wikipedia HTML.
+ * The extractor before precompiling patterns and walking anchors once is kept here as the baseline.
+ * The streaming extractor is compared with the DOM extractor end to end, as it never builds the document.
+ */
+public class ExtractorBenchmark {
+    private static final String CRAWL_HOST_REGEX = "^en.wikipedia.org$";
+    private static final String CRAWL_PATH_REGEX = "^/wiki/([^:]*)$";
+
+    /**
+     * A captured page.
+     */
+    private static class Sample {
+        private final URL url;
+        private final String html;
+
+        public Sample(URL url, String html) {
+            this.url = url;
+            this.html = html;
+        }
+    }
+
+    private final List<Sample> samples;
+    private final int iterations;
+    private final int warmups;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Construct a benchmark with given settings.
+     * @param samples    The captured pages.
+     * @param iterations The number of measured passes over all pages.
+     * @param warmups    The number of passes before measuring.
+     */
+    public ExtractorBenchmark(List<Sample> samples, int iterations, int warmups) {
+        this.samples = samples;
+        this.iterations = iterations;
+        this.warmups = warmups;
+    }
+
+    /**
+     * The extraction in CrawlThread.process() before the dedicated extractor, as the baseline.
+     */
+    private static PageExtractor.Result extractBaseline(Document doc, URL actualUrl) {
+        final String crawlHostRegex = CRAWL_HOST_REGEX;
+        final String crawlPathRegex = CRAWL_PATH_REGEX;
+
+        Element elTitle = doc.getElementById("firstHeading");
+        Element elContent = doc.selectFirst("#mw-content-text .mw-parser-output");
+        Element elCategory = doc.getElementById("mw-normal-catlinks");
+        Element elLastMod = doc.getElementById("footer-info-lastmod");
+
+        if (elTitle == null || elContent == null || elCategory == null)
+            return null;
+
+        String title = elTitle.text().trim();
+
+        elContent.select("sup[class='reference']").remove();
+        elContent.select("span[class='mw-editsection']").remove();
+        Arrays.asList("table", "div").forEach(tag -> elContent.select(tag).remove());
+        Arrays.asList("h1", "h2", "h3", "h4", "h5", "h6").forEach(
+                tag -> elContent.select(tag + "+" + tag).stream()
+                        .map(Element::previousElementSibling)
+                        .forEach(Element::remove));
+        String content = elContent.children().stream()
+                .filter(Element::hasText)
+                .map(Element::wholeText).map(String::trim)
+                .collect(Collectors.joining("\n"));
+
+        List<String> categories = elCategory.select("ul > li").stream()
+                .map(Element::text)
+                .map(String::trim)
+                .collect(Collectors.toList());
+
+        LocalDateTime lastModify = elLastMod == null ? LocalDateTime.now() : Stream.of(elLastMod)
+                .map(el -> {
+                    Pattern pattern = Pattern.compile("edited on ([^,]*), at ([^.]*)");
+                    Matcher matcher = pattern.matcher(el.html());
+                    return matcher.find() && matcher.groupCount() == 2 ?
+                            matcher.group(1) + " " + matcher.group(2) : null;
+                }).filter(Objects::nonNull)
+                .map(time -> LocalDateTime.parse(time,
+                        DateTimeFormatter.ofPattern("d MMMM yyyy HH:mm", Locale.US)))
+                .findFirst().orElse(LocalDateTime.now());
+
+        if (content.isEmpty() || categories.isEmpty())
+            return null;
+
+        Supplier<Stream<URL>> linkSupplier = () -> elContent.select("a[href]").stream()
+                .map(a -> a.attr("href"))
+                .map(href -> {
+                    try { return new URL(actualUrl, href); }
+                    catch (MalformedURLException e) { return null; }
+                }).filter(Objects::nonNull)
+                .filter(url -> url.getHost().matches(crawlHostRegex) && url.getPath().matches(crawlPathRegex));
+
+        List<String> outLinks = linkSupplier.get().map(URL::getPath)
+                .map(url -> {
+                    try { return URLDecoder.decode(url, "UTF-8"); }
+                    catch (UnsupportedEncodingException e) { return null; }
+                }).filter(Objects::nonNull)
+                .map(url -> {
+                    Pattern pattern = Pattern.compile(crawlPathRegex);
+                    Matcher matcher = pattern.matcher(url);
+                    return matcher.find() && matcher.groupCount() == 1 ? matcher.group(1) : null;
+                }).filter(Objects::nonNull)
+                .map(dest -> dest.replace('_', ' '))
+                .distinct().collect(Collectors.toList());
+
+        List<String> nextUrls = linkSupplier.get().map(PageExtractor::normalize)
+                .distinct().collect(Collectors.toList());
+
+        return new PageExtractor.Result(new WikiPage(title, content, categories, lastModify, outLinks), nextUrls,
+                PageExtractor.normalize(actualUrl), null);
+    }
+
+    private static boolean sameResult(PageExtractor.Result a, PageExtractor.Result b) {
+        if (a == null || b == null)
+            return a == b;
+
+        WikiPage pa = a.getPage(), pb = b.getPage();
+        return pa.getTitle().equals(pb.getTitle()) &&
+                pa.getContent().equals(pb.getContent()) &&
+                pa.getCategories().equals(pb.getCategories()) &&
+                pa.getOutLinks().equals(pb.getOutLinks()) &&
+                a.getNextUrls().equals(b.getNextUrls());
+    }
+
+    /**
+     * Run a pass over all pages, with parsing.
+     * @return The CPU time spent in parsing and extraction (nanoseconds).
+     */
+    private long runEndToEnd(PageExtractor extractor) {
+        long begin = threadBean.getCurrentThreadCpuTime();
+        for (Sample sample : samples) {
+            extractor.extract(sample.html, sample.url);
+        }
+        return threadBean.getCurrentThreadCpuTime() - begin;
+    }
+
+    /**
+     * Run a pass over all pages.
+     * @return The CPU time spent in extraction (nanoseconds). Parsing is not counted.
+     */
+    private long runPass(boolean baseline, PageExtractor extractor) {
+        long cpuTime = 0;
+        for (Sample sample : samples) {
+            Document doc = Jsoup.parse(sample.html, sample.url.toString());
+
+            long begin = threadBean.getCurrentThreadCpuTime();
+            if (baseline) extractBaseline(doc, sample.url);
+            else extractor.extract(doc, sample.url);
+            cpuTime += threadBean.getCurrentThreadCpuTime() - begin;
+        }
+        return cpuTime;
+    }
+
+    public void start() {
+        PageExtractor extractor = new PageExtractor(CRAWL_HOST_REGEX, CRAWL_PATH_REGEX);
+        PageExtractor streaming = new StreamingExtractor(CRAWL_HOST_REGEX, CRAWL_PATH_REGEX);
+
+        // All extractors should agree on every page.
+        int mismatches = 0;
+        for (Sample sample : samples) {
+            PageExtractor.Result expected = extractBaseline(Jsoup.parse(sample.html, sample.url.toString()), sample.url);
+            PageExtractor.Result actual = extractor.extract(Jsoup.parse(sample.html, sample.url.toString()), sample.url);
+            if (!sameResult(expected, actual)) {
+                System.out.println("ExtractorBenchmark reports a mismatch: " + sample.url);
+                ++mismatches;
+            }
+            if (!sameResult(actual, streaming.extract(sample.html, sample.url))) {
+                System.out.println("ExtractorBenchmark reports a mismatch of streaming extractor: " + sample.url);
+                ++mismatches;
+            }
+        }
+
+        for (int i = 0; i < warmups; i++) {
+            runPass(true, extractor);
+            runPass(false, extractor);
+            runEndToEnd(extractor);
+            runEndToEnd(streaming);
+        }
+
+        long baselineTime = 0, extractorTime = 0, domTime = 0, streamingTime = 0;
+        for (int i = 0; i < iterations; i++) {
+            baselineTime += runPass(true, extractor);
+            extractorTime += runPass(false, extractor);
+            domTime += runEndToEnd(extractor);
+            streamingTime += runEndToEnd(streaming);
+        }
+
+        long numOfRuns = (long) samples.size() * iterations;
+        double baselinePerPage = baselineTime / 1000.0 / numOfRuns;
+        double extractorPerPage = extractorTime / 1000.0 / numOfRuns;
+        double domPerPage = domTime / 1000.0 / numOfRuns;
+        double streamingPerPage = streamingTime / 1000.0 / numOfRuns;
+
+        System.out.format("Summary: ExtractorBenchmark ran %d pages x %d iterations, %d mismatches.%n",
+                samples.size(), iterations, mismatches);
+        System.out.println("  Extraction only:");
+        System.out.format("    baseline:  %10.1f us/page%n", baselinePerPage);
+        System.out.format("    extractor: %10.1f us/page (%.1f%% less CPU)%n",
+                extractorPerPage, (1 - extractorPerPage / baselinePerPage) * 100);
+        System.out.println("  Parsing and extraction:");
+        System.out.format("    dom:       %10.1f us/page%n", domPerPage);
+        System.out.format("    streaming: %10.1f us/page (%.1f%% less CPU)%n",
+                streamingPerPage, (1 - streamingPerPage / domPerPage) * 100);
+    }
+
+    private static List<Sample> loadSamples(Path htmlDir, String urlPrefix) throws IOException {
+        List<Sample> samples = new ArrayList<>();
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(htmlDir)) {
+            files = stream.filter(p -> p.toString().endsWith(".html")).sorted().collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            // The file name is the (encoded) title in the url.
+            String name = file.getFileName().toString();
+            URL url = new URL(urlPrefix + name.substring(0, name.length() - ".html".length()));
+            samples.add(new Sample(url, new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+        }
+        return samples;
+    }
+
+    private static List<Sample> generateSamples(int numOfPages) throws MalformedURLException {
+        // Without captured pages, fall back to the pages of the stub server.
+        StubWikiServer stub = new StubWikiServer(0, 1000000, 100, 0, 0);
+        List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < numOfPages; i++) {
+            samples.add(new Sample(new URL("https://en.wikipedia.org/wiki/Page_" + i), stub.renderPage(i)));
+        }
+        return samples;
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("extractbench: " + message);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("extractbench [options] [html-dir]", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        final int ITERATIONS = 20;
+        final int WARMUPS = 5;
+        final String URL_PREFIX = "https://en.wikipedia.org/wiki/";
+
+        Options options = new Options();
+        options.addOption(Option.builder("n")
+                .longOpt("iterations")
+                .argName("NUM OF ITERATIONS")
+                .desc("the number of measured passes over all pages (default: " + ITERATIONS + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("w")
+                .longOpt("warmups")
+                .argName("NUM OF WARMUPS")
+                .desc("the number of passes before measuring (default: " + WARMUPS + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("u")
+                .longOpt("url-prefix")
+                .argName("URL PREFIX")
+                .desc("the url of a page is this prefix followed by its file name " +
+                        "without .html (default: " + URL_PREFIX + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            try {
+                int iterations = Integer.parseInt(cmd.getOptionValue("iterations", String.valueOf(ITERATIONS)));
+                int warmups = Integer.parseInt(cmd.getOptionValue("warmups", String.valueOf(WARMUPS)));
+
+                List<Sample> samples;
+                if (argList.isEmpty()) {
+                    printMessage("HTML directory is not specified, using generated pages");
+                    samples = generateSamples(50);
+                } else {
+                    Path htmlDir = Paths.get(argList.get(0));
+                    if (!Files.isDirectory(htmlDir)) {
+                        printMessage("invalid HTML directory (not exist or not directory)");
+                        System.exit(1);
+                    }
+                    samples = loadSamples(htmlDir, cmd.getOptionValue("url-prefix", URL_PREFIX));
+                }
+
+                if (samples.isEmpty()) {
+                    printMessage("no .html files found");
+                    System.exit(1);
+                }
+
+                new ExtractorBenchmark(samples, iterations, warmups).start();
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            } catch (IOException e) {
+                printMessage("failed to load pages: " + e.getMessage());
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+import org.jsoup.Jsoup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The benchmark of fetching, measuring the connections opened and the bytes on the wire per page,
+ * against a stub server started in-process. The clients used before the shared {@link HttpFetcher} are kept here
+ * as the baselines: Jsoup's connection in the thread mode, and a bare HttpClient in the other modes.
+ * Each client fetches the same pages with the same threads, from a fresh server.
+ */
+public class FetchBenchmark {
+    /**
+     * A client fetching a page, as a crawler does.
+     */
+    private interface Client {
+        /**
+         * @return The page, or null if failed.
+         */
+        String fetch(String url) throws IOException, InterruptedException;
+    }
+
+    private final int numOfPages;
+    private final int numOfThreads;
+    private final int numOfLinks;
+    private final int latency;
+
+    /**
+     * Construct a benchmark with given settings.
+     * @param numOfPages   The number of pages to fetch by each client.
+     * @param numOfThreads The number of threads fetching.
+     * @param numOfLinks   The number of outgoing links per page, i.e. the size of the pages.
+     * @param latency      The delay of the server before each response (milliseconds).
+     */
+    public FetchBenchmark(int numOfPages, int numOfThreads, int numOfLinks, int latency) {
+        this.numOfPages = numOfPages;
+        this.numOfThreads = numOfThreads;
+        this.numOfLinks = numOfLinks;
+        this.latency = latency;
+    }
+
+    private void run(String name, Client client) throws IOException {
+        StubWikiServer server = new StubWikiServer(0, numOfPages, numOfLinks, latency, 0);
+        server.listen();
+        String prefix = "http://localhost:" + server.getPort() + "/wiki/Page_";
+
+        AtomicInteger nextPage = new AtomicInteger(0);
+        AtomicInteger failedCount = new AtomicInteger(0);
+        Thread[] threads = new Thread[numOfThreads];
+        long begin = System.nanoTime();
+        for (int i = 0; i < numOfThreads; i++) {
+            threads[i] = new Thread(() -> {
+                int page;
+                while ((page = nextPage.getAndIncrement()) < numOfPages) {
+                    try {
+                        if (client.fetch(prefix + page) == null) failedCount.incrementAndGet();
+                    } catch (IOException e) {
+                        failedCount.incrementAndGet();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Utility.waitThreads(threads);
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        server.stop();
+
+        System.out.format("    %-12s %6.3f connections/page %9.1f KB/page %9.1f pages/s (%d failed)%n",
+                name + ":", server.getConnectionCount() / (double) numOfPages,
+                server.getBytesSent() / 1024.0 / numOfPages, numOfPages / elapsed, failedCount.get());
+    }
+
+    public void start() throws IOException {
+        System.out.format("Summary: FetchBenchmark fetched %d pages by each client, with %d threads.%n",
+                numOfPages, numOfThreads);
+
+        // The thread mode, before.
+        run("jsoup", url -> Jsoup.connect(url).ignoreHttpErrors(true).execute().body());
+
+        // The asynchronous and virtual-thread modes, before: a client of their own, asking for no compression.
+        HttpClient bare = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(HttpFetcher.REQUEST_TIMEOUT))
+                .build();
+        run("httpclient", url -> bare.send(HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofSeconds(HttpFetcher.REQUEST_TIMEOUT))
+                .header("User-Agent", RobotPolicy.USER_AGENT)
+                .GET().build(), HttpResponse.BodyHandlers.ofString()).body());
+
+        try (HttpFetcher fetcher = new HttpFetcher()) {
+            run("fetcher", url -> fetcher.send(fetcher.newRequest(URI.create(url)).GET().build(),
+                    fetcher.newBodyHandler()).body());
+        }
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("fetchbench: " + message);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("fetchbench [options]", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        final int NUMBER_OF_PAGES = 2000;
+        final int NUMBER_OF_THREADS = 16;
+        final int NUMBER_OF_LINKS = 100;
+        final int LATENCY = 0;
+
+        Options options = new Options();
+        options.addOption(Option.builder("c")
+                .longOpt("pages")
+                .argName("NUM OF PAGES")
+                .desc("the number of pages to fetch by each client (default: " + NUMBER_OF_PAGES + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("t")
+                .longOpt("threads")
+                .argName("NUM OF THREADS")
+                .desc("the number of threads fetching (default: " + NUMBER_OF_THREADS + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("k")
+                .longOpt("links")
+                .argName("NUM OF LINKS")
+                .desc("the number of outgoing links per page (default: " + NUMBER_OF_LINKS + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("L")
+                .longOpt("latency")
+                .argName("LATENCY")
+                .desc("the delay (milliseconds) of the server before each response (default: " + LATENCY + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            try {
+                int numOfPages = Integer.parseInt(cmd.getOptionValue("pages", String.valueOf(NUMBER_OF_PAGES)));
+                int numOfThreads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(NUMBER_OF_THREADS)));
+                int numOfLinks = Integer.parseInt(cmd.getOptionValue("links", String.valueOf(NUMBER_OF_LINKS)));
+                int latency = Integer.parseInt(cmd.getOptionValue("latency", String.valueOf(LATENCY)));
+
+                if (numOfPages <= 0 || numOfThreads <= 0) {
+                    printMessage("invalid option(s)");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                new FetchBenchmark(numOfPages, numOfThreads, numOfLinks, latency).start();
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            } catch (IOException e) {
+                printMessage("failed to start the stub server: " + e.getMessage());
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
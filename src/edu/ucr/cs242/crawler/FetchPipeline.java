@@ -0,0 +1,368 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDateTime;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The asynchronous crawling pipeline, which separates fetching from parsing and persisting.
+ * Many requests are in flight on a non-blocking client, the responses are fed into a bounded queue,
+ * and a pool of parser threads drains the queue and hands the pages over to a single writer.
+ */
+public class FetchPipeline {
+    /**
+     * The interval of polling the queues when shutting down (milliseconds).
+     */
+    private static final int POLL_INTERVAL = 100;
+
+    private final VisitedSet visitedUrls;
+    private final int numOfPages;
+    private final int crawlDepth;
+    private final HostScheduler scheduler;
+    private final Frontier frontier;
+    private final String entryUrl;
+    private final PageExtractor extractor;
+    private final RobotPolicy robotPolicy;
+    private final int concurrency;
+    private final int numOfParsers;
+    private final PageValidators validators;
+
+    /**
+     * A fetched response waiting to be parsed.
+     */
+    private static class FetchedPage {
+        private final QueueItem item;
+        private final URI location;
+        private final String body;
+        private final HttpHeaders headers;
+
+        public FetchedPage(QueueItem item, URI location, String body, HttpHeaders headers) {
+            this.item = item;
+            this.location = location;
+            this.body = body;
+            this.headers = headers;
+        }
+    }
+
+    private final BlockingQueue<FetchedPage> fetchedQueue;
+    private final Semaphore inFlight;
+    private final AtomicInteger crawlCount = new AtomicInteger(0);
+    private final AtomicInteger fetchCount = new AtomicInteger(0);
+    private final AtomicInteger notModifiedCount = new AtomicInteger(0);
+    private volatile boolean fetchFinished = false;
+
+    private final HttpFetcher fetcher;
+    private final WriterThread writer;
+    private final CrawlGate gate;
+    private final CrawlStats stats;
+    private final WarcWriter warc;
+    private final RedirectMap redirects;
+
+    /**
+     * Construct a crawling pipeline with given settings.
+     * @param visitedUrls   The set of visited urls, shared by all workers.
+     * @param numOfPages    The number of web pages to crawl.
+     * @param crawlDepth    The depth of web pages to crawl.
+     * @param scheduler     The politeness scheduler.
+     * @param frontier      The crawl frontier.
+     * @param entryUrl      The url of the entry page.
+     * @param fetcher       The HTTP client, shared by all workers.
+     * @param extractor     The extractor to parse the crawled pages.
+     * @param writer        The writer to persist the pages.
+     * @param gate          The gate closed when taking checkpoints.
+     * @param stats         The statistics of the crawl.
+     * @param warc          The archive of the responses, or null if not archiving.
+     * @param redirects     The redirects resolved so far, shared by all workers.
+     * @param robotPolicy   The policy the crawler should obey.
+     * @param concurrency   The maximum number of requests in flight.
+     * @param numOfParsers  The number of threads for parsing.
+     * @param validators    The validators of the stored pages to re-crawl, or null if not re-crawling.
+     */
+    public FetchPipeline(VisitedSet visitedUrls, int numOfPages, int crawlDepth,
+                         HostScheduler scheduler, Frontier frontier,
+                         String entryUrl, HttpFetcher fetcher, PageExtractor extractor, WriterThread writer, CrawlGate gate,
+                         CrawlStats stats, WarcWriter warc, RedirectMap redirects, RobotPolicy robotPolicy, int concurrency,
+                         int numOfParsers, PageValidators validators) {
+        this.visitedUrls = visitedUrls;
+        this.numOfPages = numOfPages;
+        this.crawlDepth = crawlDepth;
+        this.scheduler = scheduler;
+        this.frontier = frontier;
+        this.entryUrl = entryUrl;
+        this.extractor = extractor;
+        this.robotPolicy = robotPolicy;
+        this.concurrency = concurrency;
+        this.numOfParsers = numOfParsers;
+        this.validators = validators;
+
+        // Responses are held by the semaphore until they are queued, so the queue never holds more than that.
+        this.fetchedQueue = new ArrayBlockingQueue<>(concurrency);
+        this.inFlight = new Semaphore(concurrency);
+        this.fetcher = fetcher;
+        this.writer = writer;
+        this.gate = gate;
+        this.stats = stats;
+        this.warc = warc;
+        this.redirects = redirects;
+    }
+
+    /**
+     * Enqueue an url failed to crawl once more, unless it is the entry url, which is crawled again anyway.
+     */
+    private void retry(QueueItem nextUrl, long delay) {
+        if (!nextUrl.getUrl().equals(entryUrl)) frontier.retry(nextUrl, delay);
+    }
+
+    private void fetch(QueueItem nextUrl, String host) throws URISyntaxException {
+        HttpRequest.Builder builder = fetcher.newRequest(new URI(nextUrl.getUrl()));
+        if (validators != null) validators.getConditionalHeaders(nextUrl.getUrl()).forEach(builder::header);
+        HttpRequest request = builder.GET().build();
+
+        CrawlStats.TimedBodyHandler bodyHandler = stats.newBodyHandler(fetcher.newBodyHandler());
+        fetcher.sendAsync(request, bodyHandler).whenComplete((response, ex) -> {
+            boolean queued = false;
+            try {
+                bodyHandler.finish();
+                if (ex != null) {
+                    System.out.println("FetchPipeline throws an exception: " + ex.getMessage());
+                    scheduler.onFailure(host);
+                    retry(nextUrl, 0);
+                    return;
+                }
+
+                scheduler.onResponse(host, response.statusCode(), bodyHandler.getFirstByteLatency());
+                if (response.statusCode() == 304) {
+                    // Not modified since the last crawl, nothing to parse.
+                    notModifiedCount.incrementAndGet();
+                    crawlCount.incrementAndGet();
+                } else if (response.statusCode() != 200) {
+                    System.out.println("FetchPipeline reports HTTP " + response.statusCode() + ": " + response.uri());
+                    if (HostScheduler.isRetryable(response.statusCode())) {
+                        // Hold the host as asked, and the url at least as long.
+                        long retryAfter = HostScheduler.parseRetryAfter(
+                                response.headers().firstValue("Retry-After").orElse(null));
+                        scheduler.pause(host, retryAfter);
+                        retry(nextUrl, retryAfter);
+                    }
+                } else if (response.body() == null) {
+                    // Not a page, e.g. an image, left unread.
+                } else {
+                    fetchCount.incrementAndGet();
+                    fetchedQueue.put(new FetchedPage(nextUrl, response.uri(), response.body(), response.headers()));
+                    // The parser lets the url out of the gate.
+                    queued = true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                inFlight.release();
+                if (!queued) gate.exit();
+            }
+        });
+    }
+
+    /**
+     * Let a url out of the semaphore and the gate.
+     */
+    private void release() {
+        inFlight.release();
+        gate.exit();
+    }
+
+    private void parse(int parserId, FetchedPage fetched) {
+        URL actualUrl;
+        try {
+            // Since Special:Random returns 302, the actual url should be parsed after redirect.
+            actualUrl = fetched.location.toURL();
+        } catch (MalformedURLException e) {
+            System.out.println("ParseThread " + parserId + " reports a malformed URL: " + fetched.location);
+            return;
+        }
+
+        // The redirected url may a special page, filter them out first.
+        if (!extractor.isCrawlable(actualUrl))
+            return;
+
+        // When sharded, a page redirected into another shard is left to its owner.
+        if (!frontier.owns(PageExtractor.normalize(actualUrl))) {
+            frontier.offer(PageExtractor.normalize(actualUrl), fetched.item.getDepth(), fetched.item.getCash());
+            return;
+        }
+
+        // Remove the anchor part.
+        visitedUrls.add(PageExtractor.normalize(actualUrl));
+        if (warc != null) warc.writeResponse(actualUrl.toString(), 200, fetched.headers.map(), fetched.body);
+
+        long begin = System.nanoTime();
+        PageExtractor.Result result = extractor.extract(fetched.body, actualUrl);
+        stats.recordSince(CrawlStats.Stage.PARSE, begin);
+        if (result == null)
+            return;
+
+        // Put into writing queue
+        try {
+            // A redirect serves the page under another url, the page is stored under its own, unless it is already.
+            if (result.getRedirectedFrom() != null) {
+                redirects.add(PageExtractor.normalize(actualUrl), result.getUrl());
+                writer.putRedirect(result.getRedirectedFrom(), result.getPage().getTitle(),
+                        PageExtractor.normalize(actualUrl));
+                if (!visitedUrls.add(result.getUrl())) return;
+            }
+
+            // The budget may be exhausted by other parsers.
+            if (crawlCount.incrementAndGet() > numOfPages)
+                return;
+
+            writer.put(result.getPage().withValidators(result.getUrl(),
+                    fetched.headers.firstValue("ETag").orElse(null),
+                    fetched.headers.firstValue("Last-Modified").orElse(null)));
+        }
+        // Oops! Something wrong...
+        catch (InterruptedException e) { Thread.currentThread().interrupt(); return; }
+
+        // Hit the depth limit?
+        if (fetched.item.getDepth() >= crawlDepth)
+            return;
+
+        // The cash of the page is shared among all its links, the visited ones included (OPIC).
+        double share = fetched.item.getCash() / Math.max(1, result.getNextUrls().size());
+        // The known redirects are replaced by the urls they redirect to, thus never fetched.
+        result.getNextUrls().stream().map(redirects::resolve).filter(url -> !visitedUrls.contains(url))
+                .forEachOrdered(url -> frontier.offer(url, fetched.item.getDepth() + 1, share));
+    }
+
+    private Thread createParser(int parserId) {
+        return new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    FetchedPage fetched = fetchedQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (fetched != null) {
+                        try { parse(parserId, fetched); }
+                        finally { gate.exit(); }
+                    } else if (fetchFinished) {
+                        break;
+                    }
+                } catch (Exception e) {
+                    System.out.println("ParseThread " + parserId + " throws an exception.");
+                    e.printStackTrace();
+                }
+            }
+        }, "ParseThread-" + parserId);
+    }
+
+    private void reportProgress(boolean summary, LocalDateTime startAt) {
+        int crawled = Math.min(crawlCount.get(), numOfPages);
+        System.out.format("%sFetchPipeline fetched %d pages, crawled %d pages (%d not modified), %.2f%% completed. " +
+                        "In flight: %d, parse queue: %d, frontier: %d. Elapsed time: %s.%n",
+                summary ? "Summary: " : "", fetchCount.get(), crawled, notModifiedCount.get(),
+                crawled * 100.0f / numOfPages,
+                concurrency - inFlight.availablePermits(), fetchedQueue.size(), frontier.size(),
+                Utility.elapsedTime(startAt, LocalDateTime.now()));
+    }
+
+    /**
+     * Start the pipeline, and block until the pages are crawled.
+     */
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("FetchPipeline started at " + startAt.toLocalTime() + ". " +
+                "Pages to crawl: " + numOfPages + ", concurrency: " + concurrency + ", parsers: " + numOfParsers + ".");
+
+        Thread[] parsers = new Thread[numOfParsers];
+        for (int i = 0; i < numOfParsers; i++) {
+            parsers[i] = createParser(i);
+            parsers[i].start();
+        }
+
+        int reportedCount = 0;
+
+        try {
+            // Job finished? or something wrong with writer?
+            while (crawlCount.get() < numOfPages && !writer.isFailed()) {
+                inFlight.acquire();
+                // Wait while a checkpoint is being taken.
+                try { gate.enter(); }
+                catch (InterruptedException e) { inFlight.release(); throw e; }
+
+                // The frontier may be empty at the beginning, or due to the crawl depth limitation.
+                // If so, crawl the entry url again. (Entry url is never put into visitedUrls)
+                // When re-crawling, no more pages are stored, thus no need to crawl the entry url.
+                QueueItem nextUrl = frontier.poll();
+                if (nextUrl == null && validators != null) {
+                    release();
+                    // Wait for the urls to be retried, if any.
+                    if (frontier.retrySize() == 0) break;
+                    Thread.sleep(Frontier.RETRY_POLL_INTERVAL);
+                    continue;
+                }
+                if (nextUrl == null) nextUrl = new QueueItem(entryUrl, 0);
+
+                try {
+                    URL url = new URL(nextUrl.getUrl());
+                    // Check if url is restricted by some policies.
+                    long begin = System.nanoTime();
+                    boolean allowed = robotPolicy.testURL(url);
+                    stats.recordSince(CrawlStats.Stage.ROBOTS, begin);
+                    if (!allowed) {
+                        release();
+                        // Entry url? No need to run the crawler.
+                        if (nextUrl.getUrl().equals(entryUrl)) {
+                            System.out.println("FetchPipeline reported the entry url (" +
+                                    entryUrl + ") is disallowed. Exiting...");
+                            break;
+                        }
+                        continue;
+                    }
+
+                    // Mark as visited when dispatched, so in-flight urls are not requested twice.
+                    // A retried url was marked by its first attempt.
+                    // A redirect resolved since the url is enqueued is not fetched, if its page is visited.
+                    String resolved = redirects.resolve(nextUrl.getUrl());
+                    if (!nextUrl.getUrl().equals(entryUrl) && nextUrl.getAttempts() == 0 &&
+                            (!visitedUrls.add(nextUrl.getUrl()) ||
+                                    !resolved.equals(nextUrl.getUrl()) && visitedUrls.contains(resolved))) {
+                        release();
+                        continue;
+                    }
+
+                    // Be polite, wait for the next free slot of the host.
+                    begin = System.nanoTime();
+                    scheduler.acquire(url);
+                    stats.recordSince(CrawlStats.Stage.POLITENESS, begin);
+
+                    fetch(nextUrl, url.getHost());
+                } catch (MalformedURLException | URISyntaxException | IllegalArgumentException e) {
+                    release();
+                }
+
+                // Report crawling progress.
+                int crawled = crawlCount.get();
+                if (crawled - reportedCount >= Math.min(numOfPages, WikiCrawler.REPORT_COUNT)) {
+                    reportedCount = crawled;
+                    reportProgress(false, startAt);
+                }
+            }
+
+            // Wait all requests in flight to complete.
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } catch (InterruptedException e) {
+            // Actions are performed below.
+        }
+
+        fetchFinished = true;
+        Utility.waitThreads(parsers);
+
+        // The writer is shared, thus stopped by WikiCrawler.
+        reportProgress(true, startAt);
+    }
+}
@@ -0,0 +1,161 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The visited set storing 64-bit fingerprints of urls in open-addressing tables of primitive longs.
+ * The set is split into stripes by the highest bits of the fingerprint, each with its own table and lock,
+ * so concurrent threads rarely contend. Two distinct urls collide with a probability of about 2^-64.
+ */
+public class FingerprintVisitedSet implements VisitedSet {
+    /**
+     * The number of stripes, which should be a power of 2.
+     */
+    private static final int NUMBER_OF_STRIPES = 64;
+    private static final int STRIPE_SHIFT = Long.numberOfLeadingZeros(NUMBER_OF_STRIPES - 1);
+    /**
+     * The table is doubled when it is half full, which keeps the probe sequences short.
+     */
+    private static final double LOAD_FACTOR = 0.5;
+    /**
+     * The empty slot; a fingerprint of 0 is stored as 1 instead.
+     */
+    private static final long EMPTY = 0;
+
+    private static class Stripe {
+        private long[] table;
+        private int size = 0;
+
+        public Stripe(int capacity) {
+            this.table = new long[capacity];
+        }
+    }
+
+    private final Stripe[] stripes = new Stripe[NUMBER_OF_STRIPES];
+
+    /**
+     * Construct a fingerprint set.
+     * @param expectedSize The expected number of urls, to size the tables initially.
+     */
+    public FingerprintVisitedSet(int expectedSize) {
+        int perStripe = (int) Math.ceil(Math.max(expectedSize, 1) / (double) NUMBER_OF_STRIPES / LOAD_FACTOR);
+        int capacity = Math.max(16, Integer.highestOneBit(perStripe - 1) << 1);
+
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+    }
+
+    private static long fingerprintOf(String url) {
+        long fp = VisitedSet.fingerprint(url);
+        return fp == EMPTY ? 1 : fp;
+    }
+
+    private Stripe stripeOf(long fp) {
+        // The highest bits choose the stripe, while the lowest bits choose the slot.
+        return stripes[(int) (fp >>> STRIPE_SHIFT)];
+    }
+
+    /**
+     * Find the slot holding the fingerprint, or the empty slot to put it in.
+     */
+    private static int probe(long[] table, long fp) {
+        int mask = table.length - 1;
+        int slot = (int) fp & mask;
+
+        while (table[slot] != EMPTY && table[slot] != fp) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static void grow(Stripe stripe) {
+        long[] table = new long[stripe.table.length << 1];
+        for (long fp : stripe.table) {
+            if (fp != EMPTY) table[probe(table, fp)] = fp;
+        }
+        stripe.table = table;
+    }
+
+    @Override
+    public boolean add(String url) {
+        return add(fingerprintOf(url));
+    }
+
+    private boolean add(long fp) {
+        Stripe stripe = stripeOf(fp);
+
+        synchronized (stripe) {
+            int slot = probe(stripe.table, fp);
+            if (stripe.table[slot] == fp)
+                return false;
+
+            stripe.table[slot] = fp;
+            if (++stripe.size > stripe.table.length * LOAD_FACTOR) grow(stripe);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean contains(String url) {
+        long fp = fingerprintOf(url);
+        Stripe stripe = stripeOf(fp);
+
+        synchronized (stripe) {
+            return stripe.table[probe(stripe.table, fp)] == fp;
+        }
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) { size += stripe.size; }
+        }
+        return size;
+    }
+
+    @Override
+    public long memoryUsage() {
+        long bytes = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) { bytes += stripe.table.length * (long) Long.BYTES; }
+        }
+        return bytes;
+    }
+
+    @Override
+    public double falsePositiveRate() {
+        // An absent url is reported present only if its fingerprint equals one of the stored.
+        return size() / Math.pow(2, 64);
+    }
+
+    @Override
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeUTF("fingerprint");
+        out.writeLong(size());
+        // Only the fingerprints are written, each stripe is consistent by itself.
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                out.writeInt(stripe.size);
+                for (long fp : stripe.table) {
+                    if (fp != EMPTY) out.writeLong(fp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a set written by {@link #writeTo(DataOutputStream)}, after its type.
+     */
+    static FingerprintVisitedSet readFrom(DataInputStream in) throws IOException {
+        FingerprintVisitedSet set = new FingerprintVisitedSet((int) Math.min(Integer.MAX_VALUE, in.readLong()));
+        for (int i = 0; i < NUMBER_OF_STRIPES; i++) {
+            int size = in.readInt();
+            for (int j = 0; j < size; j++) set.add(in.readLong());
+        }
+        return set;
+    }
+}
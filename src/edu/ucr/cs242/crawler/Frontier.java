@@ -0,0 +1,497 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The crawl frontier shared by all crawling workers.
+ * Urls are deduplicated when enqueued. The head of the queue is kept in memory with a bounded capacity,
+ * while the tail is spilled into segment files on disk, so the memory usage stays flat however deep the crawl is.
+ * The order is FIFO: head first, then the segments in order of creation, then the tail not yet spilled.
+ * Urls failed to crawl are retried with exponential backoff, ahead of the queue once they are due.
+ * <p>
+ * Once prioritized, the urls are ranked by their estimated importance instead, computed online by OPIC
+ * (On-line Page Importance Computation): a crawled page shares its cash equally among its links, and an url
+ * waiting in the frontier accumulates the cash of all the pages linking to it. The url of the most cash,
+ * discounted by its depth, is crawled first. The ranked urls are kept in memory with the same capacity as the head;
+ * when there are too many, the less important half falls back into the FIFO queue, which is only polled once
+ * no ranked url is left.
+ */
+public class Frontier implements Closeable {
+    /**
+     * The default number of urls kept in memory for polling.
+     */
+    public static final int HEAD_CAPACITY = 100000;
+    /**
+     * The default number of urls per segment file.
+     */
+    public static final int SEGMENT_SIZE = 10000;
+    /**
+     * The maximum number of attempts to crawl an url, after which it is dropped.
+     */
+    public static final int MAX_ATTEMPTS = 5;
+    /**
+     * The delay before the first retry (milliseconds), doubled on each further attempt.
+     */
+    public static final long RETRY_DELAY = 2000;
+    /**
+     * The maximum delay before a retry (milliseconds).
+     */
+    public static final long MAX_RETRY_DELAY = 300000;
+    /**
+     * The time to wait for the urls to be retried when nothing else is left (milliseconds).
+     */
+    public static final long RETRY_POLL_INTERVAL = 100;
+    /**
+     * The cash of an url crawled without being linked to, such as the entry url.
+     */
+    public static final double SEED_CASH = 1.0;
+
+    private final Path spoolDir;
+    private final int headCapacity;
+    private final int segmentSize;
+
+    private final VisitedSet seenUrls;
+
+    private final Deque<QueueItem> head = new ArrayDeque<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private List<QueueItem> tail = new ArrayList<>();
+    private int segmentCount = 0;
+    private long spilledCount = 0;
+    private final PriorityQueue<Retry> retries = new PriorityQueue<>(Comparator.comparingLong(retry -> retry.dueAt));
+    private long retriedCount = 0;
+    private long droppedCount = 0;
+    private volatile ShardRouter router = null;
+
+    private volatile boolean prioritized = false;
+    private double depthDecay = 1.0;
+    // The ranked urls in order of arrival, and their rankings, re-ranked lazily each time an url gains cash.
+    private final Map<String, Candidate> candidates = new LinkedHashMap<>();
+    private final PriorityQueue<Ranking> rankings = new PriorityQueue<>();
+    private long candidateCount = 0;
+    private long demotedCount = 0;
+
+    /**
+     * A spilled segment file.
+     */
+    private static class Segment {
+        private final Path path;
+        private final int size;
+
+        public Segment(Path path, int size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * An url waiting to be retried, and when it is due.
+     */
+    private static class Retry {
+        private final QueueItem item;
+        private final long dueAt;
+
+        public Retry(QueueItem item, long dueAt) {
+            this.item = item;
+            this.dueAt = dueAt;
+        }
+    }
+
+    /**
+     * An url ranked by importance.
+     */
+    private static class Candidate {
+        private int depth;
+        private double cash;
+        private final long order;
+
+        public Candidate(int depth, double cash, long order) {
+            this.depth = depth;
+            this.cash = cash;
+            this.order = order;
+        }
+    }
+
+    /**
+     * The priority of a candidate when ranked, which is stale if the candidate has gained cash since.
+     * The most important first, then the earliest.
+     */
+    private static class Ranking implements Comparable<Ranking> {
+        private final String url;
+        private final double priority;
+        private final long order;
+
+        public Ranking(String url, double priority, long order) {
+            this.url = url;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Ranking other) {
+            int result = Double.compare(other.priority, priority);
+            return result != 0 ? result : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * Construct a frontier with given settings.
+     * @param seenUrls     The set of urls ever enqueued.
+     * @param spoolDir     The directory to spill segment files into.
+     * @param headCapacity The number of urls kept in memory for polling.
+     * @param segmentSize  The number of urls per segment file.
+     * @throws IOException
+     */
+    public Frontier(VisitedSet seenUrls, Path spoolDir, int headCapacity, int segmentSize) throws IOException {
+        this.seenUrls = seenUrls;
+        this.spoolDir = Files.createDirectories(spoolDir);
+        this.headCapacity = headCapacity;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Shard the frontier, so only the urls of this shard are enqueued, and the others are forwarded.
+     * @param router The router of this shard.
+     */
+    public void setRouter(ShardRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * Rank the urls by importance from now on, instead of crawling them in FIFO order.
+     * @param depthDecay The factor the importance of an url is discounted by per level of depth, in (0, 1];
+     *                   1 ranks by importance only, while a smaller one prefers the shallower urls.
+     */
+    public synchronized void prioritize(double depthDecay) {
+        this.prioritized = true;
+        this.depthDecay = depthDecay;
+        rerank();
+    }
+
+    /**
+     * @param url The url.
+     * @return Whether the url belongs to this frontier, which is always true unless sharded.
+     */
+    public boolean owns(String url) {
+        ShardRouter router = this.router;
+        return router == null || router.owns(url);
+    }
+
+    /**
+     * Enqueue a seed url, if it has never been enqueued.
+     * @param url   The url to crawl.
+     * @param depth The depth of the url.
+     * @return Whether the url is enqueued.
+     */
+    public boolean offer(String url, int depth) {
+        return offer(url, depth, SEED_CASH);
+    }
+
+    /**
+     * Enqueue an url, if it has never been enqueued. When sharded, an url of another shard is forwarded instead.
+     * When prioritized, an url still waiting gains the cash given, while an url crawled already is dropped.
+     * @param url   The url to crawl.
+     * @param depth The depth of the url.
+     * @param cash  The share of the cash of the page linking to the url.
+     * @return Whether the url is enqueued.
+     */
+    public boolean offer(String url, int depth, double cash) {
+        ShardRouter router = this.router;
+        if (router != null && !router.owns(url)) {
+            router.forward(url, depth, cash);
+            return false;
+        }
+
+        if (prioritized)
+            return offerCandidate(url, depth, cash);
+
+        if (!seenUrls.add(url))
+            return false;
+
+        enqueue(new QueueItem(url, depth, cash));
+        return true;
+    }
+
+    private synchronized boolean offerCandidate(String url, int depth, double cash) {
+        Candidate candidate = candidates.get(url);
+        if (candidate != null) {
+            // One more page links to it.
+            candidate.cash += cash;
+            candidate.depth = Math.min(candidate.depth, depth);
+            rank(url, candidate);
+            return false;
+        }
+
+        if (!seenUrls.add(url))
+            return false;
+
+        addCandidate(url, depth, cash);
+        return true;
+    }
+
+    private double priorityOf(Candidate candidate) {
+        return candidate.cash * Math.pow(depthDecay, candidate.depth);
+    }
+
+    private void rank(String url, Candidate candidate) {
+        rankings.add(new Ranking(url, priorityOf(candidate), candidate.order));
+        // Drop the stale rankings, once they outnumber the current ones.
+        if (rankings.size() > 2 * candidates.size() + segmentSize) rerank();
+    }
+
+    private void rerank() {
+        rankings.clear();
+        candidates.forEach((url, candidate) -> rankings.add(new Ranking(url, priorityOf(candidate), candidate.order)));
+    }
+
+    private void addCandidate(String url, int depth, double cash) {
+        Candidate candidate = new Candidate(depth, cash, candidateCount++);
+        candidates.put(url, candidate);
+        rank(url, candidate);
+        if (candidates.size() > headCapacity) demote();
+    }
+
+    /**
+     * Move the less important half of the ranked urls into the FIFO queue, the more important first.
+     */
+    private void demote() {
+        List<Map.Entry<String, Candidate>> ranked = new ArrayList<>(candidates.entrySet());
+        ranked.sort(Comparator.comparingDouble((Map.Entry<String, Candidate> entry) -> -priorityOf(entry.getValue()))
+                .thenComparingLong(entry -> entry.getValue().order));
+
+        for (Map.Entry<String, Candidate> entry : ranked.subList(headCapacity / 2, ranked.size())) {
+            Candidate candidate = entry.getValue();
+            enqueue(new QueueItem(entry.getKey(), candidate.depth, candidate.cash));
+            candidates.remove(entry.getKey());
+            ++demotedCount;
+        }
+        rerank();
+    }
+
+    /**
+     * Enqueue an url failed to crawl once more, after a delay growing exponentially with its attempts.
+     * It is enqueued regardless of the urls seen, since it is seen already.
+     * @param item     The url failed to crawl.
+     * @param minDelay The minimum delay before the retry (milliseconds), e.g. asked by Retry-After.
+     * @return Whether the url is enqueued, false if it has been attempted too many times.
+     */
+    public synchronized boolean retry(QueueItem item, long minDelay) {
+        int attempts = item.getAttempts() + 1;
+        if (attempts >= MAX_ATTEMPTS) {
+            ++droppedCount;
+            System.out.println("Frontier gives up " + item.getUrl() + " after " + attempts + " attempts.");
+            return false;
+        }
+
+        // Jittered, so the urls failed together are not retried together.
+        long delay = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << (attempts - 1));
+        delay = Math.max(minDelay, delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+        retries.add(new Retry(new QueueItem(item.getUrl(), item.getDepth(), item.getCash(), attempts),
+                System.currentTimeMillis() + delay));
+        ++retriedCount;
+        return true;
+    }
+
+    private synchronized void enqueue(QueueItem item) {
+        // Only go to the head if nothing is waiting behind it, to keep the order.
+        if (segments.isEmpty() && tail.isEmpty() && head.size() < headCapacity) {
+            head.add(item);
+        } else {
+            tail.add(item);
+            if (tail.size() >= segmentSize) spill();
+        }
+    }
+
+    private static void writeItem(DataOutputStream out, QueueItem item) throws IOException {
+        out.writeInt(item.getDepth());
+        out.writeDouble(item.getCash());
+        out.writeUTF(item.getUrl());
+    }
+
+    private static QueueItem readItem(DataInputStream in) throws IOException {
+        int depth = in.readInt();
+        double cash = in.readDouble();
+        return new QueueItem(in.readUTF(), depth, cash);
+    }
+
+    /**
+     * Write the waiting urls into a stream in order, for checkpointing. The frontier is not changed.
+     * @param out The stream to write into.
+     * @throws IOException
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeLong(size() - retries.size() - candidates.size());
+        for (QueueItem item : head) {
+            writeItem(out, item);
+        }
+        for (Segment segment : segments) {
+            // Copy the segment file as is, which has the same layout.
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(segment.path))) {
+                byte[] buffer = new byte[8192];
+                int length;
+                while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+            }
+        }
+        for (QueueItem item : tail) {
+            writeItem(out, item);
+        }
+
+        out.writeInt(candidates.size());
+        for (Map.Entry<String, Candidate> entry : candidates.entrySet()) {
+            writeItem(out, new QueueItem(entry.getKey(), entry.getValue().depth, entry.getValue().cash));
+        }
+
+        out.writeInt(retries.size());
+        for (Retry retry : retries) {
+            out.writeInt(retry.item.getAttempts());
+            writeItem(out, retry.item);
+        }
+    }
+
+    /**
+     * Read the urls written by {@link #writeTo(DataOutputStream)} into the frontier.
+     * The urls are not checked against the seen urls, which are restored along with them.
+     * The ranked urls are ranked again, and the urls waiting to be retried are due at once.
+     * @param in The stream to read from.
+     * @throws IOException
+     */
+    public synchronized void readFrom(DataInputStream in) throws IOException {
+        long count = in.readLong();
+        for (long i = 0; i < count; i++) {
+            enqueue(readItem(in));
+        }
+
+        int candidateCount = in.readInt();
+        for (int i = 0; i < candidateCount; i++) {
+            QueueItem item = readItem(in);
+            addCandidate(item.getUrl(), item.getDepth(), item.getCash());
+        }
+
+        int retryCount = in.readInt();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < retryCount; i++) {
+            int attempts = in.readInt();
+            QueueItem item = readItem(in);
+            retries.add(new Retry(new QueueItem(item.getUrl(), item.getDepth(), item.getCash(), attempts), now));
+        }
+    }
+
+    /**
+     * Dequeue the next url to crawl.
+     * @return The next url, or null if the frontier is empty.
+     */
+    public synchronized QueueItem poll() {
+        Retry retry = retries.peek();
+        if (retry != null && retry.dueAt <= System.currentTimeMillis())
+            return retries.poll().item;
+
+        Ranking ranking;
+        while ((ranking = rankings.poll()) != null) {
+            Candidate candidate = candidates.get(ranking.url);
+            // Stale, if crawled already, or ranked again since.
+            if (candidate == null || ranking.priority != priorityOf(candidate))
+                continue;
+
+            candidates.remove(ranking.url);
+            return new QueueItem(ranking.url, candidate.depth, candidate.cash);
+        }
+
+        if (head.isEmpty()) refill();
+        return head.poll();
+    }
+
+    /**
+     * @return The number of urls waiting in the frontier, including the ranked urls and the urls waiting to be retried.
+     */
+    public synchronized long size() {
+        return head.size() + tail.size() + segments.stream().mapToLong(s -> s.size).sum() + candidates.size() +
+                retries.size();
+    }
+
+    /**
+     * @return The number of urls ranked by importance.
+     */
+    public synchronized int rankedSize() {
+        return candidates.size();
+    }
+
+    /**
+     * @return The number of urls waiting to be retried.
+     */
+    public synchronized int retrySize() {
+        return retries.size();
+    }
+
+    /**
+     * @return The number of urls waiting on disk.
+     */
+    public synchronized long spilledSize() {
+        return segments.stream().mapToLong(s -> s.size).sum();
+    }
+
+    /**
+     * @return The number of distinct urls ever enqueued.
+     */
+    public long seenSize() {
+        return seenUrls.size();
+    }
+
+    private void spill() {
+        Path path = spoolDir.resolve(String.format("segment-%08d.dat", segmentCount++));
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            for (QueueItem item : tail) {
+                writeItem(out, item);
+            }
+            segments.add(new Segment(path, tail.size()));
+            spilledCount += tail.size();
+            tail = new ArrayList<>();
+        } catch (IOException e) {
+            // Keep the tail in memory, and try again next time.
+            System.out.println("Frontier throws an IOException when spilling: " + e.getMessage());
+        }
+    }
+
+    private void refill() {
+        Segment segment = segments.poll();
+        if (segment == null) {
+            // Nothing on disk, the tail is next.
+            head.addAll(tail);
+            tail = new ArrayList<>();
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment.path)))) {
+            for (int i = 0; i < segment.size; i++) {
+                head.add(readItem(in));
+            }
+        } catch (IOException e) {
+            System.out.println("Frontier throws an IOException when loading " + segment.path + ": " + e.getMessage());
+        }
+
+        try { Files.deleteIfExists(segment.path); }
+        catch (IOException e) { /* ignored */ }
+    }
+
+    /**
+     * Remove all the segment files.
+     */
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            try { Files.deleteIfExists(segment.path); }
+            catch (IOException e) { /* ignored */ }
+        }
+        segments.clear();
+
+        System.out.format("Summary: Frontier has seen %s; %d urls were spilled to disk; " +
+                        "%d retries were scheduled, %d urls were given up.%n",
+                VisitedSet.describe(seenUrls), spilledCount, retriedCount, droppedCount);
+        if (prioritized) {
+            System.out.format("Summary: Frontier ranked %d urls by importance (depth decay: %.2f); " +
+                    "%d of them fell back into the FIFO queue.%n", candidateCount, depthDecay, demotedCount);
+        }
+    }
+}
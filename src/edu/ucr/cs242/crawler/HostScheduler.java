@@ -0,0 +1,297 @@
+package edu.ucr.cs242.crawler;
+
+import java.net.URL;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The politeness scheduler shared by all fetchers, keyed by host.
+ * Each host has an earliest time for its next request; a fetcher reserves the next free slot of the host
+ * and waits until then, so the host is accessed at exactly the allowed rate, no matter how many fetchers there are.
+ * The rate of a host adapts to its responses, like the congestion control of TCP (AIMD): it grows additively while
+ * the host answers promptly, and is halved when the host throttles (429, 503), fails, or slows down noticeably.
+ * A host starts at the rate of the starting interval, and may go faster than that, up to the rate allowed by
+ * the minimum interval, or by the Crawl-delay of the host if longer.
+ */
+public class HostScheduler {
+    /**
+     * The growth of the rate of a host per second of healthy responses (requests per second).
+     */
+    public static final double RATE_INCREASE = 1.0;
+    /**
+     * The maximum interval of a host after backing off (milliseconds).
+     */
+    public static final long MAX_INTERVAL = 60000;
+    /**
+     * The interval of a host backing off from no interval at all (milliseconds).
+     */
+    public static final long MIN_BACKOFF_INTERVAL = 50;
+    /**
+     * The minimum time between two back-offs of a host (milliseconds), so a burst of errors halves the rate once.
+     */
+    public static final long BACKOFF_COOLDOWN = 1000;
+    /**
+     * The ratio to the usual latency of a host, above which the host is considered overloaded.
+     */
+    public static final double LATENCY_FACTOR = 2.0;
+    /**
+     * The latency a host may add above the usual latency without being considered overloaded (milliseconds).
+     */
+    public static final double LATENCY_SLACK = 20;
+    /**
+     * The maximum pause honoured from a Retry-After header (milliseconds).
+     */
+    public static final long MAX_RETRY_AFTER = 600000;
+
+    private final long startInterval;
+    private final long minInterval;
+    private final Map<String, Long> intervals = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> nextSlots = new ConcurrentHashMap<>();
+    private final Map<String, HostRate> rates = new ConcurrentHashMap<>();
+
+    private final AtomicLong throttledCount = new AtomicLong(0);
+    private final AtomicLong slowCount = new AtomicLong(0);
+    private final AtomicLong failedCount = new AtomicLong(0);
+    private final AtomicLong pausedCount = new AtomicLong(0);
+
+    /**
+     * The adaptive state of a host.
+     */
+    private static class HostRate {
+        // The interval granted by the controller, from the starting interval down to the minimum (milliseconds).
+        private double interval;
+        // The moving average of the latency, and the usual latency it is compared against (milliseconds).
+        private double latency = -1;
+        private double baseline = -1;
+        private long backedOffAt = 0;
+
+        private HostRate(double interval) {
+            this.interval = interval;
+        }
+    }
+
+    /**
+     * Why a host is backed off.
+     */
+    private enum Backoff { THROTTLED, SLOW, FAILED }
+
+    /**
+     * Construct a scheduler with given settings.
+     * @param startInterval The interval between two requests to the same host, until adapted (milliseconds).
+     * @param minInterval   The minimum interval between two requests to the same host (milliseconds).
+     */
+    public HostScheduler(long startInterval, long minInterval) {
+        this.startInterval = startInterval;
+        this.minInterval = minInterval;
+    }
+
+    /**
+     * Set the minimum interval of a host, which is never less than the default minimum interval.
+     * @param host     The host.
+     * @param interval The minimum interval between two requests to the host (milliseconds).
+     */
+    public void setInterval(String host, long interval) {
+        intervals.put(host, Math.max(minInterval, interval));
+    }
+
+    /**
+     * Get the minimum interval of a host, set by the default minimum interval or the Crawl-delay.
+     * @param host The host.
+     * @return The minimum interval between two requests to the host (milliseconds).
+     */
+    public long getMinInterval(String host) {
+        return intervals.getOrDefault(host, minInterval);
+    }
+
+    /**
+     * Get the interval a host starts at, before any response, which is never less than its minimum interval.
+     * @param host The host.
+     * @return The interval between two requests to the host (milliseconds).
+     */
+    public long getStartInterval(String host) {
+        return Math.max(startInterval, getMinInterval(host));
+    }
+
+    /**
+     * Get the interval of a host, as adapted to its responses.
+     * @param host The host.
+     * @return The interval between two requests to the host (milliseconds).
+     */
+    public long getInterval(String host) {
+        HostRate rate = rates.get(host);
+        if (rate == null)
+            return getStartInterval(host);
+        synchronized (rate) {
+            return Math.max(getMinInterval(host), Math.round(rate.interval));
+        }
+    }
+
+    /**
+     * Reserve the next free slot of a host, without waiting.
+     * @param host The host.
+     * @return The time to wait before the request can be sent (milliseconds).
+     */
+    public long reserve(String host) {
+        long interval = getInterval(host);
+        AtomicLong nextSlot = nextSlots.computeIfAbsent(host, h -> new AtomicLong(0));
+
+        while (true) {
+            long now = System.currentTimeMillis();
+            long next = nextSlot.get();
+            long slot = Math.max(now, next);
+
+            if (nextSlot.compareAndSet(next, slot + interval))
+                return slot - now;
+        }
+    }
+
+    /**
+     * Block until a request to the url is allowed.
+     * @param url The url to request.
+     * @throws InterruptedException
+     */
+    public void acquire(URL url) throws InterruptedException {
+        long delay = reserve(url.getHost());
+        if (delay > 0) Thread.sleep(delay);
+    }
+
+    /**
+     * @param statusCode The status code of a response.
+     * @return Whether the request is worth retrying later: the host is throttling, overloaded or failing.
+     */
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 ||
+                statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Parse a Retry-After header, either in seconds or an HTTP date.
+     * @param value The value of the header, or null.
+     * @return The time to wait (milliseconds), or 0 if missing or invalid.
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty())
+            return 0;
+
+        long delay;
+        try {
+            delay = Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            try {
+                delay = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                        .toInstant().toEpochMilli() - System.currentTimeMillis();
+            } catch (DateTimeParseException _e) {
+                return 0;
+            }
+        }
+        return Math.max(0, Math.min(delay, MAX_RETRY_AFTER));
+    }
+
+    private HostRate rateOf(String host) {
+        return rates.computeIfAbsent(host, h -> new HostRate(getStartInterval(h)));
+    }
+
+    /**
+     * Halve the rate of a host, unless it has just been backed off.
+     */
+    private void backOff(String host, HostRate rate, Backoff reason) {
+        long now = System.currentTimeMillis();
+        synchronized (rate) {
+            if (now - rate.backedOffAt < BACKOFF_COOLDOWN)
+                return;
+            rate.backedOffAt = now;
+            rate.interval = Math.min(MAX_INTERVAL,
+                    Math.max(MIN_BACKOFF_INTERVAL, Math.max(getMinInterval(host), rate.interval) * 2));
+        }
+
+        (reason == Backoff.THROTTLED ? throttledCount : reason == Backoff.SLOW ? slowCount : failedCount)
+                .incrementAndGet();
+        System.out.println("HostScheduler backs off " + host + " (" + reason.name().toLowerCase() + "), " +
+                "interval: " + getInterval(host) + " ms.");
+    }
+
+    /**
+     * Adapt the rate of a host to a response.
+     * @param host       The host.
+     * @param statusCode The status code of the response.
+     * @param latency    The time until the headers arrived (nanoseconds).
+     */
+    public void onResponse(String host, int statusCode, long latency) {
+        HostRate rate = rateOf(host);
+        if (statusCode == 429 || statusCode == 503) {
+            backOff(host, rate, Backoff.THROTTLED);
+            return;
+        }
+        if (statusCode >= 500) {
+            backOff(host, rate, Backoff.FAILED);
+            return;
+        }
+
+        boolean slow;
+        synchronized (rate) {
+            double millis = latency / 1e6;
+            rate.latency = rate.latency < 0 ? millis : rate.latency * 0.8 + millis * 0.2;
+            // The usual latency follows drops at once, and rises only slowly.
+            if (rate.baseline < 0 || rate.latency < rate.baseline) rate.baseline = rate.latency;
+            else rate.baseline += (rate.latency - rate.baseline) * 0.01;
+
+            slow = rate.latency > rate.baseline * LATENCY_FACTOR + LATENCY_SLACK;
+            if (slow) {
+                // Backed off once per doubling of the latency, however long the host stays slow.
+                rate.baseline = rate.latency / LATENCY_FACTOR;
+            } else {
+                // Additive increase: by RATE_INCREASE per second, as a second holds about `rate` responses,
+                // past the starting rate, up to the rate of the minimum interval.
+                double hostMinInterval = getMinInterval(host);
+                if (rate.interval > hostMinInterval) {
+                    double requestRate = 1000 / rate.interval;
+                    requestRate += RATE_INCREASE / requestRate;
+                    rate.interval = Math.max(hostMinInterval, 1000 / requestRate);
+                    // Down to the minimum interval, once below a millisecond.
+                    if (rate.interval < 1) rate.interval = hostMinInterval;
+                }
+            }
+        }
+        if (slow) backOff(host, rate, Backoff.SLOW);
+    }
+
+    /**
+     * Back off a host failing to respond, e.g. timed out or refusing connections.
+     * @param host The host.
+     */
+    public void onFailure(String host) {
+        backOff(host, rateOf(host), Backoff.FAILED);
+    }
+
+    /**
+     * Hold all requests to a host for a while, as asked by its Retry-After header.
+     * @param host  The host.
+     * @param delay The time to wait (milliseconds).
+     */
+    public void pause(String host, long delay) {
+        if (delay <= 0)
+            return;
+
+        long until = System.currentTimeMillis() + delay;
+        nextSlots.computeIfAbsent(host, h -> new AtomicLong(0)).accumulateAndGet(until, Math::max);
+        pausedCount.incrementAndGet();
+    }
+
+    /**
+     * Print the summary of the back-offs.
+     */
+    public void reportSummary() {
+        long slowedCount = rates.keySet().stream()
+                .filter(host -> getInterval(host) > getStartInterval(host)).count();
+        long spedUpCount = rates.keySet().stream()
+                .filter(host -> getInterval(host) < getStartInterval(host)).count();
+        System.out.format("Summary: HostScheduler backed off %d times (throttled: %d, slow: %d, failed: %d), " +
+                        "paused %d times by Retry-After; of %d hosts, %d are faster and %d slower than they started.%n",
+                throttledCount.get() + slowCount.get() + failedCount.get(), throttledCount.get(), slowCount.get(),
+                failedCount.get(), pausedCount.get(), rates.size(), spedUpCount, slowedCount);
+    }
+}
@@ -0,0 +1,311 @@
+package edu.ucr.cs242.crawler;
+
+import javax.net.ssl.*;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The HTTP client shared by all crawling workers and the robots.txt policy, so all of them reuse the same
+ * keep-alive connections. HTTP/2 is preferred, which multiplexes all requests to a host over one connection,
+ * and HTTP/1.1 is used where the server does not offer it. The idle connections kept alive are bounded by
+ * {@link #CONNECTION_POOL_SIZE}. The responses are asked for in gzip or deflate, and decoded here;
+ * the bodies of types other than text are discarded unread.
+ * The bytes on the wire, the bytes decoded, and the TLS handshakes are counted, to tell what reusing saves.
+ */
+public class HttpFetcher implements Closeable {
+    /**
+     * The timeout of connecting, and of a single request (seconds).
+     */
+    public static final int REQUEST_TIMEOUT = 30;
+    /**
+     * The maximum number of idle connections kept alive, for HTTP/1.1.
+     */
+    public static final int CONNECTION_POOL_SIZE = 64;
+    /**
+     * The time an idle connection is kept alive (seconds).
+     */
+    public static final int KEEP_ALIVE_TIMEOUT = 60;
+    /**
+     * The content codings accepted, in order of preference. Brotli has no decoder in the JDK.
+     */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    private static final Pattern CHARSET_PATTERN = Pattern.compile("charset=\"?([^\";\\s]+)", Pattern.CASE_INSENSITIVE);
+
+    static {
+        // Read once, when the first client is built, thus they must be set before.
+        if (System.getProperty("jdk.httpclient.connectionPoolSize") == null)
+            System.setProperty("jdk.httpclient.connectionPoolSize", String.valueOf(CONNECTION_POOL_SIZE));
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null)
+            System.setProperty("jdk.httpclient.keepalive.timeout", String.valueOf(KEEP_ALIVE_TIMEOUT));
+    }
+
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong http2Count = new AtomicLong(0);
+    private final AtomicLong encodedCount = new AtomicLong(0);
+    private final AtomicLong wireBytes = new AtomicLong(0);
+    private final AtomicLong decodedBytes = new AtomicLong(0);
+    private final AtomicLong handshakeCount = new AtomicLong(0);
+
+    /**
+     * The default TLS context, which counts the TLS engines created, one per new connection.
+     */
+    private class CountingContextSpi extends SSLContextSpi {
+        private final SSLContext delegate;
+
+        private CountingContextSpi(SSLContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            delegate.init(km, tm, sr);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            handshakeCount.incrementAndGet();
+            return delegate.createSSLEngine();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            handshakeCount.incrementAndGet();
+            return delegate.createSSLEngine(host, port);
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+
+    /**
+     * The TLS context delegating to another one.
+     */
+    private static class DelegatingContext extends SSLContext {
+        private DelegatingContext(SSLContextSpi spi, SSLContext delegate) {
+            super(spi, delegate.getProvider(), delegate.getProtocol());
+        }
+    }
+
+    /**
+     * Construct a fetcher, with a client of its own.
+     */
+    public HttpFetcher() {
+        this.executor = Executors.newCachedThreadPool();
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(REQUEST_TIMEOUT))
+                .executor(executor);
+        try {
+            SSLContext context = SSLContext.getDefault();
+            builder.sslContext(new DelegatingContext(new CountingContextSpi(context), context));
+        } catch (NoSuchAlgorithmException e) {
+            // The handshakes are not counted then.
+        }
+        this.client = builder.build();
+    }
+
+    /**
+     * Start building a request, with the timeout and the headers of the crawler.
+     * @param uri The uri to request.
+     * @return The request builder.
+     */
+    public HttpRequest.Builder newRequest(URI uri) {
+        return HttpRequest.newBuilder(uri)
+                .timeout(Duration.ofSeconds(REQUEST_TIMEOUT))
+                .header("User-Agent", RobotPolicy.USER_AGENT)
+                .header("Accept-Encoding", ACCEPT_ENCODING);
+    }
+
+    /**
+     * @return A handler decoding the body into a string, or null if it is not text.
+     */
+    public HttpResponse.BodyHandler<String> newBodyHandler() {
+        return responseInfo -> {
+            requestCount.incrementAndGet();
+            if (responseInfo.version() == HttpClient.Version.HTTP_2) http2Count.incrementAndGet();
+
+            String contentType = responseInfo.headers().firstValue("Content-Type").orElse("text/html");
+            if (!isText(contentType))
+                return HttpResponse.BodySubscribers.replacing(null);
+
+            String encoding = responseInfo.headers().firstValue("Content-Encoding").orElse("identity");
+            Charset charset = charsetOf(contentType);
+            return HttpResponse.BodySubscribers.mapping(HttpResponse.BodySubscribers.ofByteArray(),
+                    bytes -> decode(bytes, encoding, charset));
+        };
+    }
+
+    private static boolean isText(String contentType) {
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("xml") || type.contains("json");
+    }
+
+    private static Charset charsetOf(String contentType) {
+        Matcher matcher = CHARSET_PATTERN.matcher(contentType);
+        try {
+            if (matcher.find()) return Charset.forName(matcher.group(1));
+        } catch (IllegalArgumentException e) {
+            // Unknown charset, fall back to the default.
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    private String decode(byte[] bytes, String encoding, Charset charset) {
+        wireBytes.addAndGet(bytes.length);
+        byte[] decoded = bytes;
+        if (!encoding.equalsIgnoreCase("identity")) {
+            try {
+                decoded = inflate(bytes, encoding.trim().toLowerCase());
+                encodedCount.incrementAndGet();
+            } catch (IOException e) {
+                throw new java.io.UncheckedIOException(e);
+            }
+        }
+        decodedBytes.addAndGet(decoded.length);
+        return new String(decoded, charset);
+    }
+
+    private static byte[] inflate(byte[] bytes, String encoding) throws IOException {
+        InputStream stream;
+        switch (encoding) {
+            case "gzip":
+            case "x-gzip":
+                stream = new GZIPInputStream(new ByteArrayInputStream(bytes));
+                break;
+            case "deflate":
+                // Should be zlib-wrapped, though some servers send raw deflate.
+                boolean zlib = bytes.length >= 2 && (bytes[0] & 0x0f) == 8 && ((bytes[0] & 0xff) << 8 | (bytes[1] & 0xff)) % 31 == 0;
+                stream = new InflaterInputStream(new ByteArrayInputStream(bytes), new Inflater(!zlib));
+                break;
+            default:
+                throw new IOException("Unsupported Content-Encoding: " + encoding);
+        }
+
+        try (InputStream in = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = in.read(buffer)) != -1) out.write(buffer, 0, length);
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Send a request, blocking until the response is read.
+     * @param request The request, built by {@link #newRequest(URI)}.
+     * @param handler The body handler, by {@link #newBodyHandler()}, or wrapping it.
+     * @return The response.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public HttpResponse<String> send(HttpRequest request, HttpResponse.BodyHandler<String> handler)
+            throws IOException, InterruptedException {
+        return client.send(request, handler);
+    }
+
+    /**
+     * Send a request without blocking.
+     * @param request The request, built by {@link #newRequest(URI)}.
+     * @param handler The body handler, by {@link #newBodyHandler()}, or wrapping it.
+     * @return The future of the response.
+     */
+    public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request,
+                                                             HttpResponse.BodyHandler<String> handler) {
+        return client.sendAsync(request, handler);
+    }
+
+    /**
+     * @return The number of responses received.
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of response bodies read, as received on the wire (bytes).
+     */
+    public long getWireBytes() {
+        return wireBytes.get();
+    }
+
+    /**
+     * @return The number of TLS handshakes, i.e. the new TLS connections.
+     */
+    public long getHandshakeCount() {
+        return handshakeCount.get();
+    }
+
+    /**
+     * Stop the threads of the client. The connections are closed once idle for long.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Print the summary of the requests.
+     */
+    public void reportSummary() {
+        long requests = requestCount.get();
+        System.out.format("Summary: HttpFetcher received %d responses (%d over HTTP/2, %d encoded); " +
+                        "%.2f MB on the wire for %.2f MB decoded (%.1f%%); %d TLS handshakes (%.3f per response).%n",
+                requests, http2Count.get(), encodedCount.get(), wireBytes.get() / 1048576.0,
+                decodedBytes.get() / 1048576.0, decodedBytes.get() == 0 ? 100 : wireBytes.get() * 100.0 / decodedBytes.get(),
+                handshakeCount.get(), requests == 0 ? 0 : handshakeCount.get() / (double) requests);
+    }
+}
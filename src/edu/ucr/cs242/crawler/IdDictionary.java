@@ -0,0 +1,99 @@
+package edu.ucr.cs242.crawler;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A dictionary persisted in a table of `(id, name)`, assigning an integer id to every string ever seen.
+ * The `titles` dictionary covers every title, whether a stored page or only the target of a link. The id of a page
+ * is the id of its title, thus a link written before its target is crawled already points to the right page,
+ * and no link is rewritten later. The `categories` dictionary covers the category names, shared by many pages.
+ * The ids recently looked up are cached, as a few strings (countries, years, common categories) are used
+ * by most pages. A dictionary is bound to a connection in a transaction, thus used by a single thread, and is
+ * dropped when the transaction is rolled back, along with the ids it cached.
+ */
+public class IdDictionary implements AutoCloseable {
+    /**
+     * The number of strings cached.
+     */
+    public static final int CACHE_SIZE = 100000;
+
+    private final PreparedStatement query;
+    private final PreparedStatement insert;
+    private final Map<String, Integer> cache = new LinkedHashMap<String, Integer>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Construct a dictionary over a table of a database.
+     * @param dbConnection The connection, whose transaction the new strings are added in.
+     * @param table        The table, with an integer primary key `id`.
+     * @param column       The unique column of the strings.
+     * @throws SQLException
+     */
+    private IdDictionary(Connection dbConnection, String table, String column) throws SQLException {
+        this.query = dbConnection.prepareStatement("SELECT id FROM " + table + " WHERE " + column + " = ?");
+        this.insert = dbConnection.prepareStatement("INSERT INTO " + table + " (" + column + ") VALUES (?)");
+    }
+
+    /**
+     * Construct the dictionary of titles, in the `titles` table.
+     * @param dbConnection The connection, whose transaction the new titles are added in.
+     * @return The dictionary.
+     * @throws SQLException
+     */
+    public static IdDictionary titles(Connection dbConnection) throws SQLException {
+        return new IdDictionary(dbConnection, "titles", "title");
+    }
+
+    /**
+     * Construct the dictionary of category names, in the `categories` table.
+     * @param dbConnection The connection, whose transaction the new categories are added in.
+     * @return The dictionary.
+     * @throws SQLException
+     */
+    public static IdDictionary categories(Connection dbConnection) throws SQLException {
+        return new IdDictionary(dbConnection, "categories", "name");
+    }
+
+    /**
+     * Look up the id of a string, adding the string if not seen before.
+     * @param name The string.
+     * @return The id of the string.
+     * @throws SQLException
+     */
+    public int idOf(String name) throws SQLException {
+        Integer id = cache.get(name);
+        if (id != null)
+            return id;
+
+        id = find(name);
+        if (id == null) {
+            insert.setString(1, name);
+            insert.executeUpdate();
+            id = find(name);
+        }
+        cache.put(name, id);
+        return id;
+    }
+
+    private Integer find(String name) throws SQLException {
+        query.setString(1, name);
+        try (ResultSet result = query.executeQuery()) {
+            return result.next() ? result.getInt(1) : null;
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try { query.close(); }
+        finally { insert.close(); }
+    }
+}
@@ -0,0 +1,127 @@
+package edu.ucr.cs242.crawler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies, in the layout of HdrHistogram: the values are bucketed by their power of two,
+ * and each power of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so any value is kept
+ * within a relative error of 1/{@link #SUB_BUCKET_COUNT}, using a fixed array of counters.
+ * Recording is lock-free, a few atomic increments, so it can be done on every request by every worker.
+ * Percentiles read while recording go on are approximate, which is fine for monitoring.
+ */
+public class LatencyHistogram {
+    /**
+     * The number of linear sub-buckets per power of two, which bounds the relative error.
+     */
+    public static final int SUB_BUCKET_COUNT = 64;
+    /**
+     * The highest trackable value (nanoseconds), about 2.4 hours. Higher values are counted as this.
+     */
+    public static final long HIGHEST_VALUE = (1L << 43) - 1;
+
+    private static final int SUB_BUCKET_BITS = Integer.numberOfTrailingZeros(SUB_BUCKET_COUNT);
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(HIGHEST_VALUE) + 1);
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong(0);
+
+    /**
+     * Values below 2 * {@link #SUB_BUCKET_COUNT} are counted exactly. A higher value is shifted right,
+     * until its highest bit is at {@link #SUB_BUCKET_COUNT}, and the shift decides the group of sub-buckets.
+     */
+    private static int indexOf(long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        if (shift <= 0)
+            return (int) value;
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The middle of the values counted in the bucket.
+     */
+    private static long valueOf(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT)
+            return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        long lowest = (long) (index - (shift << SUB_BUCKET_BITS)) << shift;
+        return lowest + (1L << shift >>> 1);
+    }
+
+    /**
+     * Record a latency.
+     * @param nanos The latency (nanoseconds). Negative values are counted as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), HIGHEST_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.increment();
+        totalValue.add(value);
+
+        long max;
+        while (value > (max = maxValue.get()) && !maxValue.compareAndSet(max, value)) { }
+    }
+
+    /**
+     * Record the time elapsed since the beginning.
+     * @param begin The beginning, from {@link System#nanoTime()}.
+     */
+    public void recordSince(long begin) {
+        record(System.nanoTime() - begin);
+    }
+
+    /**
+     * @return The number of latencies recorded.
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * @return The average latency (milliseconds).
+     */
+    public double getMean() {
+        long count = totalCount.sum();
+        return count == 0 ? 0 : totalValue.sum() / 1e6 / count;
+    }
+
+    /**
+     * @return The maximum latency (milliseconds).
+     */
+    public double getMax() {
+        return maxValue.get() / 1e6;
+    }
+
+    /**
+     * Get a percentile of the latencies.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The latency at the percentile (milliseconds), or 0 if none is recorded.
+     */
+    public double getPercentile(double percentile) {
+        // Counted from the buckets, which may be a little ahead of the total count.
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) count += counts.get(i);
+        if (count == 0)
+            return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank)
+                return Math.min(valueOf(i), maxValue.get()) / 1e6;
+        }
+        return getMax();
+    }
+
+    /**
+     * @return The count, the mean, the 50th, 90th, 99th percentiles and the maximum, in milliseconds.
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d, mean %.2f ms, p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, max %.2f ms",
+                getCount(), getMean(), getPercentile(50), getPercentile(90), getPercentile(99), getMax());
+    }
+}
@@ -0,0 +1,164 @@
+package edu.ucr.cs242.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * A blocking FIFO queue bounded by the memory its elements hold, rather than by their count.
+ * Each element is weighed once when it is offered; producers are blocked while the total weight is at the capacity.
+ * An element heavier than the whole capacity is still admitted when the queue is empty, otherwise it never would be.
+ * @param <E> The type of elements.
+ */
+public class MemoryBoundedQueue<E> {
+    private final long capacity;
+    private final ToLongFunction<E> weigher;
+    private final Queue<E> elements = new ArrayDeque<>();
+    private final Queue<Long> weights = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    private volatile long usedBytes = 0;
+    private volatile long maxUsedBytes = 0;
+    private volatile int size = 0;
+
+    /**
+     * Construct a queue with given settings.
+     * @param capacity The maximum total weight of the elements (bytes).
+     * @param weigher  The estimated memory held by an element (bytes).
+     */
+    public MemoryBoundedQueue(long capacity, ToLongFunction<E> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    private void enqueue(E element, long weight) {
+        elements.add(element);
+        weights.add(weight);
+        usedBytes += weight;
+        maxUsedBytes = Math.max(maxUsedBytes, usedBytes);
+        ++size;
+        notEmpty.signal();
+    }
+
+    private E dequeue() {
+        E element = elements.poll();
+        usedBytes -= weights.poll();
+        --size;
+        // Several small producers may fit into what a large element leaves.
+        notFull.signalAll();
+        return element;
+    }
+
+    /**
+     * Insert an element, waiting for room up to the timeout.
+     * @param element The element.
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return Whether the element is inserted, false if the queue is still full after the timeout.
+     * @throws InterruptedException
+     */
+    public boolean offer(E element, long timeout, TimeUnit unit) throws InterruptedException {
+        long weight = weigher.applyAsLong(element);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size > 0 && usedBytes + weight > capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(element, weight);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take the head of the queue, waiting for an element up to the timeout.
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return The head, or null if the queue is still empty after the timeout.
+     * @throws InterruptedException
+     */
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move the available elements into a collection, without blocking.
+     * @param collection  The collection to add the elements into.
+     * @param maxElements The maximum number of elements to move.
+     * @return The number of elements moved.
+     */
+    public int drainTo(Collection<? super E> collection, int maxElements) {
+        lock.lock();
+        try {
+            int count = 0;
+            while (count < maxElements && size > 0) {
+                collection.add(dequeue());
+                ++count;
+            }
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove all the elements, and release the blocked producers.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            elements.clear();
+            weights.clear();
+            usedBytes = 0;
+            size = 0;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The total weight of the elements in the queue (bytes).
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return The maximum total weight ever held by the queue (bytes).
+     */
+    public long getMaxUsedBytes() {
+        return maxUsedBytes;
+    }
+}
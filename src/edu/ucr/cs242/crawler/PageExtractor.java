@@ -0,0 +1,287 @@
+package edu.ucr.cs242.crawler;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Extract the page data and the outgoing urls from a parsed Wikipedia document.
+ * All the patterns are compiled once per crawler, and the anchors are walked once for both
+ * the outgoing titles and the urls to crawl next. The extractor holds no per-page state, thus can be shared among threads.
+ */
+public class PageExtractor {
+    /**
+     * Something like "This page was last edited on 18 January 2018, at 21:30."
+     */
+    private static final Pattern LAST_MODIFY_PATTERN = Pattern.compile("edited on ([^,]*), at ([^.]*)");
+    /**
+     * It is in a format of 2 January 2018, at 21:30.
+     */
+    private static final DateTimeFormatter LAST_MODIFY_FORMATTER =
+            DateTimeFormatter.ofPattern("d MMMM yyyy HH:mm", Locale.US);
+    /**
+     * The characters Wikipedia leaves unescaped in the path of an article, besides letters and digits.
+     */
+    private static final String UNESCAPED_CHARS = "-_.~;@$!*(),/:";
+
+    private final Pattern crawlHostPattern;
+    private final Pattern crawlPathPattern;
+
+    /**
+     * The extraction result of a single page.
+     */
+    public static class Result {
+        private final WikiPage page;
+        private final List<String> nextUrls;
+        private final String url;
+        private final String redirectedFrom;
+
+        public WikiPage getPage() {
+            return page;
+        }
+
+        public List<String> getNextUrls() {
+            return nextUrls;
+        }
+
+        /**
+         * @return The url of the page under its own title, which differs from the url fetched for a redirect.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return The title of the redirect the page is fetched through, or null if fetched under its own title.
+         */
+        public String getRedirectedFrom() {
+            return redirectedFrom;
+        }
+
+        public Result(WikiPage page, List<String> nextUrls, String url, String redirectedFrom) {
+            this.page = page;
+            this.nextUrls = nextUrls;
+            this.url = url;
+            this.redirectedFrom = redirectedFrom;
+        }
+    }
+
+    /**
+     * Construct an extractor with given settings.
+     * @param crawlHostRegex The url to be crawled should be within this host.
+     * @param crawlPathRegex The path of the url should start with this prefix.
+     */
+    public PageExtractor(String crawlHostRegex, String crawlPathRegex) {
+        this.crawlHostPattern = Pattern.compile(crawlHostRegex);
+        this.crawlPathPattern = Pattern.compile(crawlPathRegex);
+    }
+
+    /**
+     * Test if the url is within the crawling host and path.
+     * @param url The url to test.
+     * @return Whether the url should be crawled.
+     */
+    public boolean isCrawlable(URL url) {
+        return crawlHostPattern.matcher(url.getHost()).matches() && crawlPathPattern.matcher(url.getPath()).matches();
+    }
+
+    /**
+     * Reconstruct the url, with the anchor part removed.
+     * @param url The url to normalize.
+     * @return The normalized url.
+     */
+    public static String normalize(URL url) {
+        // Authority keeps the port, if explicitly specified.
+        return url.getProtocol() + "://" + url.getAuthority() + url.getFile();
+    }
+
+    /**
+     * Escape a title as in the links of Wikipedia, i.e. spaces as underscores and UTF-8 bytes percent-encoded.
+     * @param title The title to escape.
+     * @return The escaped title, to follow the path prefix of an article.
+     */
+    public static String encodeTitle(String title) {
+        StringBuilder path = new StringBuilder();
+        for (byte b : title.replace(' ', '_').getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if (c < 0x80 && (Character.isLetterOrDigit(c) || UNESCAPED_CHARS.indexOf(c) >= 0)) path.append(c);
+            else path.append('%').append(String.format("%02X", b & 0xff));
+        }
+        return path.toString();
+    }
+
+    /**
+     * Extract the page from the raw HTML.
+     * @param html      The HTML of the page.
+     * @param actualUrl The url of the page (after redirect).
+     * @return The extraction result, or null if the page should not be stored.
+     */
+    public Result extract(String html, URL actualUrl) {
+        return extract(Jsoup.parse(html, actualUrl.toString()), actualUrl);
+    }
+
+    /**
+     * Extract the page from the document. The document is modified during extraction.
+     * @param doc       The parsed document.
+     * @param actualUrl The url of the document (after redirect).
+     * @return The extraction result, or null if the page should not be stored.
+     */
+    public Result extract(Document doc, URL actualUrl) {
+        Element elTitle = doc.getElementById("firstHeading"); // key
+        Element elContent = doc.selectFirst("#mw-content-text .mw-parser-output"); // value 1
+        Element elCategory = doc.getElementById("mw-normal-catlinks"); // value 2
+        Element elLastMod = doc.getElementById("footer-info-lastmod");
+
+        if (elTitle == null || elContent == null || elCategory == null)
+            return null;
+
+        String title = elTitle.text().trim();
+
+        // Remove all reference <sup>s.
+        elContent.select("sup[class='reference']").remove();
+        // Remove the `edit` links.
+        elContent.select("span[class='mw-editsection']").remove();
+        // Remove unused tags (table & div).
+        Arrays.asList("table", "div").forEach(tag -> elContent.select(tag).remove());
+        // Remove empty headings with no paragraphs below it.
+        Arrays.asList("h1", "h2", "h3", "h4", "h5", "h6").forEach(
+                tag -> elContent.select(tag + "+" + tag).stream()
+                        .map(Element::previousElementSibling)
+                        .forEach(Element::remove));
+        // The final content can be now generated.
+        String content = elContent.children().stream()
+                // We don't need empty elements (that is with no text).
+                .filter(Element::hasText)
+                // Map to its un-encoded text & trim
+                .map(Element::wholeText).map(String::trim)
+                // Collect back to a full string
+                .collect(Collectors.joining("\n"));
+
+        // For categories, we want the text in `#mw-normal-catlinks ul > li`
+        List<String> categories = elCategory.select("ul > li").stream()
+                .map(Element::text)
+                .map(String::trim)
+                .collect(Collectors.toList());
+
+        // We won't store empty page.
+        if (content.isEmpty() || categories.isEmpty())
+            return null;
+
+        List<String> hrefs = new ArrayList<>();
+        for (Element a : elContent.getElementsByTag("a")) {
+            if (a.hasAttr("href")) hrefs.add(a.attr("href"));
+        }
+
+        return buildResult(title, content, categories,
+                parseLastModify(elLastMod == null ? null : elLastMod.html()), hrefs, actualUrl);
+    }
+
+    /**
+     * Build the extraction result from the extracted fields and the raw links in the content.
+     * @param title      The title of the page.
+     * @param content    The content of the page.
+     * @param categories The categories of the page.
+     * @param lastModify The last modification time of the page.
+     * @param hrefs      The href of all links in the content, in document order.
+     * @param actualUrl  The url of the page (after redirect), to resolve relative links.
+     * @return The extraction result. A Wikipedia redirect is served under the url of the redirect (no HTTP redirect),
+     *         thus it is told by the title in the url differing from the title of the page.
+     */
+    protected Result buildResult(String title, String content, List<String> categories,
+                                 LocalDateTime lastModify, List<String> hrefs, URL actualUrl) {
+        // Walk all links once, for both outgoing titles and next urls.
+        // Both keep the order of first appearance, with duplicates removed.
+        Set<String> outLinks = new LinkedHashSet<>();
+        Set<String> nextUrls = new LinkedHashSet<>();
+
+        for (String href : hrefs) {
+            URL url;
+            try { url = new URL(actualUrl, href); }
+            catch (MalformedURLException e) { continue; }
+
+            // We only want the link inside a given host and the path meets some requirement.
+            if (!isCrawlable(url))
+                continue;
+
+            // Reconstruct the URL, remove the anchor part.
+            nextUrls.add(normalize(url));
+
+            String linkTitle = decodeTitle(url.getPath());
+            if (linkTitle != null) outLinks.add(linkTitle);
+        }
+
+        String url = normalize(actualUrl);
+        String redirectedFrom = null;
+        String[] urlTitle = splitTitle(actualUrl.getPath());
+        if (urlTitle != null) {
+            String source = WikitextConverter.normalizeTitle(urlTitle[1]);
+            if (!source.isEmpty() && !source.equals(WikitextConverter.normalizeTitle(title))) {
+                redirectedFrom = source;
+                url = actualUrl.getProtocol() + "://" + actualUrl.getAuthority() + urlTitle[0] + encodeTitle(title);
+            }
+        }
+
+        return new Result(new WikiPage(title, content, categories, lastModify, new ArrayList<>(outLinks)),
+                new ArrayList<>(nextUrls), url, redirectedFrom);
+    }
+
+    /**
+     * Parse the last modification timestamp in the footer.
+     * @param lastModHtml The inner HTML of the footer element, may be null.
+     * @return The last modification time, or current date time if not found.
+     */
+    protected static LocalDateTime parseLastModify(String lastModHtml) {
+        if (lastModHtml != null) {
+            Matcher matcher = LAST_MODIFY_PATTERN.matcher(lastModHtml);
+            if (matcher.find()) {
+                try { return LocalDateTime.parse(matcher.group(1) + " " + matcher.group(2), LAST_MODIFY_FORMATTER); }
+                catch (DateTimeParseException e) { /* fall through */ }
+            }
+        }
+        return LocalDateTime.now();
+    }
+
+    /**
+     * Fetch the title from the path of an url.
+     * @param path The path, which matches crawlPathRegex.
+     * @return The title, or null if not found.
+     */
+    private String decodeTitle(String path) {
+        String[] parts = splitTitle(path);
+        return parts == null ? null : parts[1];
+    }
+
+    /**
+     * Split the path of an url into the prefix and the title.
+     * @param path The path, which matches crawlPathRegex.
+     * @return The decoded prefix before the title, and the title, or null if not found.
+     */
+    private String[] splitTitle(String path) {
+        // Decode URL to UTF-8 first, which is a no-op without escapes.
+        if (path.indexOf('%') >= 0 || path.indexOf('+') >= 0) {
+            try { path = URLDecoder.decode(path, "UTF-8"); }
+            catch (UnsupportedEncodingException | IllegalArgumentException e) { return null; }
+        }
+
+        // crawlPathRegex has built-in group, to fetch the title.
+        Matcher matcher = crawlPathPattern.matcher(path);
+        if (!matcher.find() || matcher.groupCount() != 1 || matcher.group(1) == null)
+            return null;
+
+        // We save titles, thus replace all _ in the link to space.
+        return new String[] { path.substring(0, matcher.start(1)), matcher.group(1).replace('_', ' ') };
+    }
+}
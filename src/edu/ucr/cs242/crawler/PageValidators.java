@@ -0,0 +1,66 @@
+package edu.ucr.cs242.crawler;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * The validators (ETag and Last-Modified) of the stored pages, keyed by url, for conditional requests on re-crawl.
+ * The validators are loaded once before crawling, and never modified afterwards, thus can be shared among threads.
+ */
+public class PageValidators {
+    /**
+     * The SQL query statement.
+     */
+    public static final String SQL_QUERY = "SELECT url, etag, lastModified FROM pages WHERE url IS NOT NULL";
+
+    private final Map<String, String[]> validators = new LinkedHashMap<>();
+
+    /**
+     * Load the validators of all stored pages with a known url.
+     * @param jdbcUrl The JDBC connection string.
+     * @return The validators.
+     * @throws SQLException
+     */
+    public static PageValidators load(String jdbcUrl) throws SQLException {
+        PageValidators result = new PageValidators();
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
+             Statement query = dbConnection.createStatement();
+             ResultSet resultSet = query.executeQuery(SQL_QUERY)) {
+            while (resultSet.next()) {
+                result.validators.put(resultSet.getString("url"),
+                        new String[] { resultSet.getString("etag"), resultSet.getString("lastModified") });
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The urls of all stored pages.
+     */
+    public Set<String> getUrls() {
+        return Collections.unmodifiableSet(validators.keySet());
+    }
+
+    /**
+     * @return The number of stored pages.
+     */
+    public int size() {
+        return validators.size();
+    }
+
+    /**
+     * Get the headers of a conditional request to the url.
+     * @param url The url to request.
+     * @return The `If-None-Match` and `If-Modified-Since` headers, or an empty map if the url is unknown.
+     */
+    public Map<String, String> getConditionalHeaders(String url) {
+        String[] entry = validators.get(url);
+        if (entry == null)
+            return Collections.emptyMap();
+
+        Map<String, String> headers = new HashMap<>();
+        if (entry[0] != null) headers.put("If-None-Match", entry[0]);
+        if (entry[1] != null) headers.put("If-Modified-Since", entry[1]);
+        return headers;
+    }
+}
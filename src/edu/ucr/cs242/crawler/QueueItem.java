@@ -0,0 +1,43 @@
+package edu.ucr.cs242.crawler;
+
+/**
+ * An url waiting to be crawled, along with its depth from the entry page, the importance it has accumulated
+ * from the pages linking to it (its OPIC cash, see {@link Frontier}), and the number of failed attempts to crawl it.
+ */
+class QueueItem {
+    private final String url;
+    private final int depth;
+    private final double cash;
+    private final int attempts;
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public double getCash() {
+        return cash;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public QueueItem(String url, int depth) {
+        this(url, depth, Frontier.SEED_CASH);
+    }
+
+    public QueueItem(String url, int depth, double cash) {
+        this(url, depth, cash, 0);
+    }
+
+    public QueueItem(String url, int depth, double cash, int attempts) {
+        this.url = url;
+        this.depth = depth;
+        this.cash = cash;
+        this.attempts = attempts;
+    }
+}
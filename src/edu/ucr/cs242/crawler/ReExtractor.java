@@ -0,0 +1,398 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replay the WARC archives written by the crawler through the extractor, and fill a fresh pages table,
+ * without touching the network. The archives are decompressed by a few reader threads, one file each at a time,
+ * and the responses are extracted by a parser thread per core, which hand the pages over to a single writer.
+ */
+public class ReExtractor {
+    /**
+     * The number of pages extracted between two progress reports.
+     */
+    public static final int REPORT_COUNT = 1000;
+    /**
+     * The number of parser threads per reader thread, as decompressing is much cheaper than parsing.
+     */
+    public static final int PARSERS_PER_READER = 4;
+    /**
+     * The interval of polling the queue when shutting down (milliseconds).
+     */
+    private static final int POLL_INTERVAL = 100;
+
+    private final List<Path> archives;
+    private final String jdbcUrl;
+    private final PageExtractor extractor;
+    private final int numOfThreads;
+    private final boolean compress;
+    private final DuplicateDetector.Action duplicateAction;
+
+    private final BlockingQueue<WarcReader.Record> recordQueue;
+    private final Queue<Path> pendingArchives;
+    private final AtomicInteger responseCount = new AtomicInteger(0);
+    private final AtomicInteger extractedCount = new AtomicInteger(0);
+    private final AtomicLong archiveSize = new AtomicLong(0);
+    private volatile boolean readFinished = false;
+
+    /**
+     * Construct a re-extractor with given settings.
+     * @param archives     The WARC files to replay.
+     * @param jdbcUrl      The JDBC url of the database to fill.
+     * @param extractor    The extractor to parse the archived pages.
+     * @param numOfThreads The number of threads for parsing.
+     * @param compress     Whether to compress the content with a trained dictionary.
+     * @param duplicateAction What to do with a near-duplicate page, or null not to detect near-duplicates.
+     */
+    public ReExtractor(List<Path> archives, String jdbcUrl, PageExtractor extractor, int numOfThreads,
+                       boolean compress, DuplicateDetector.Action duplicateAction) {
+        this.archives = archives;
+        this.jdbcUrl = jdbcUrl;
+        this.extractor = extractor;
+        this.numOfThreads = numOfThreads;
+        this.compress = compress;
+        this.duplicateAction = duplicateAction;
+        this.recordQueue = new ArrayBlockingQueue<>(numOfThreads * 64);
+        this.pendingArchives = new ConcurrentLinkedQueue<>(archives);
+    }
+
+    private void read(Path archive, WriterThread writer) throws IOException, InterruptedException {
+        int count = 0;
+        try (WarcReader reader = new WarcReader(archive)) {
+            WarcReader.Record record;
+            while ((record = reader.next()) != null) {
+                if (!"response".equals(record.getType()))
+                    continue;
+                // Nobody takes the records any more, if the writer has failed.
+                while (!recordQueue.offer(record, POLL_INTERVAL, TimeUnit.MILLISECONDS)) {
+                    if (writer.isFailed()) return;
+                }
+                ++count;
+            }
+        } catch (EOFException e) {
+            // The last record of an archive may be cut, if the crawler was killed.
+            System.out.println("ReExtractor reports " + archive.getFileName() + " is truncated after " + count +
+                    " responses.");
+        }
+        archiveSize.addAndGet(Files.size(archive));
+    }
+
+    private Thread createReader(int readerId, WriterThread writer) {
+        return new Thread(() -> {
+            Path archive;
+            while ((archive = pendingArchives.poll()) != null) {
+                try {
+                    read(archive, writer);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (IOException e) {
+                    System.out.println("ReadThread " + readerId + " cannot read " + archive + ": " + e.getMessage());
+                }
+            }
+        }, "ReadThread-" + readerId);
+    }
+
+    private void parse(WriterThread writer, WarcReader.Record record) throws InterruptedException {
+        WarcReader.Response response = record.parseResponse();
+        if (response == null || response.getStatusCode() != 200 || record.getTargetUri() == null)
+            return;
+        responseCount.incrementAndGet();
+
+        URL actualUrl;
+        try {
+            actualUrl = new URL(record.getTargetUri());
+        } catch (MalformedURLException e) {
+            return;
+        }
+
+        // The rules may have changed since the crawl.
+        if (!extractor.isCrawlable(actualUrl))
+            return;
+
+        PageExtractor.Result result = extractor.extract(response.getBody(), actualUrl);
+        if (result == null)
+            return;
+
+        // The page of a redirect is stored under its own url, the redirect is recorded besides.
+        if (result.getRedirectedFrom() != null) {
+            writer.putRedirect(result.getRedirectedFrom(), result.getPage().getTitle(),
+                    PageExtractor.normalize(actualUrl));
+        }
+        writer.put(result.getPage().withValidators(result.getUrl(),
+                response.getHeader("ETag"), response.getHeader("Last-Modified")));
+        if (extractedCount.incrementAndGet() % REPORT_COUNT == 0) {
+            System.out.println("ReExtractor has extracted " + extractedCount.get() + " pages.");
+        }
+    }
+
+    private Thread createParser(int parserId, WriterThread writer) {
+        return new Thread(() -> {
+            while (!writer.isFailed()) {
+                try {
+                    WarcReader.Record record = recordQueue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (record != null) {
+                        parse(writer, record);
+                    } else if (readFinished) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Exception e) {
+                    System.out.println("ParseThread " + parserId + " throws an exception.");
+                    e.printStackTrace();
+                }
+            }
+        }, "ParseThread-" + parserId);
+    }
+
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        int numOfReaders = Math.min(archives.size(), Math.max(1, numOfThreads / PARSERS_PER_READER));
+        System.out.println("ReExtractor started at " + startAt.toLocalTime() + ". Archives: " + archives.size() +
+                ", readers: " + numOfReaders + ", parsers: " + numOfThreads + ".");
+
+        // The database is empty, thus nothing to load into the detector.
+        DuplicateDetector duplicates = duplicateAction == null ? null : new DuplicateDetector(duplicateAction);
+        WriterThread writer;
+        try {
+            writer = new WriterThread(jdbcUrl, compress, new CrawlStats(), WriterThread.QUEUE_MEMORY, duplicates);
+        } catch (SQLException e) {
+            System.out.println("Failed to create the writer.");
+            e.printStackTrace();
+            return;
+        }
+        writer.start();
+
+        Thread[] readers = new Thread[numOfReaders];
+        for (int i = 0; i < numOfReaders; i++) {
+            readers[i] = createReader(i, writer);
+            readers[i].start();
+        }
+        Thread[] parsers = new Thread[numOfThreads];
+        for (int i = 0; i < numOfThreads; i++) {
+            parsers[i] = createParser(i, writer);
+            parsers[i].start();
+        }
+
+        Utility.waitThreads(readers);
+        readFinished = true;
+        Utility.waitThreads(parsers);
+
+        writer.finish();
+        Utility.waitThread(writer);
+
+        double seconds = Math.max(Duration.between(startAt, LocalDateTime.now()).toMillis(), 1) / 1000.0;
+        System.out.format("Summary: ReExtractor extracted %d pages from %d responses in %d archives (%.2f MB), " +
+                        "%.0f pages/s. Elapsed time: %s.%n",
+                extractedCount.get(), responseCount.get(), archives.size(), archiveSize.get() / 1048576.0,
+                extractedCount.get() / seconds, Utility.elapsedTime(startAt, LocalDateTime.now()));
+        if (duplicates != null) duplicates.reportSummary();
+    }
+
+    /**
+     * List the archives, either given as files, or found in given directories.
+     */
+    private static List<Path> listArchives(List<String> paths) throws IOException {
+        List<Path> archives = new ArrayList<>();
+        for (String name : paths) {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> files = Files.list(path)) {
+                    archives.addAll(files.filter(file -> file.toString().endsWith(WarcWriter.EXTENSION) ||
+                            file.toString().endsWith(".warc")).sorted().collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(path)) {
+                archives.add(path);
+            } else {
+                throw new IOException("No such file or directory: " + name);
+            }
+        }
+        return archives;
+    }
+
+    /**
+     * Check the database has no pages, so the re-extracted pages are not mixed with others.
+     */
+    private static boolean isEmptyDatabase(String jdbcUrl) throws SQLException {
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
+             Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT COUNT(*) FROM pages")) {
+            result.next();
+            return result.getInt(1) == 0;
+        }
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("reextract: " + message);
+    }
+
+    private static void printUsage() {
+        System.out.println("usage: reextract [options] <warc-file-or-dir...> <jdbc-url>");
+        System.out.println("use -h for a list of possible options");
+        System.exit(1);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("reextract [options] <warc-file-or-dir...> <jdbc-url>", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException {
+        // Default values, the same as the crawler.
+        final int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+        final String CRAWL_HOST_REGEX = "^en.wikipedia.org$";
+        final String CRAWL_PATH_REGEX = "^/wiki/([^:]*)$";
+        final String NEAR_DUPLICATES = "off";
+
+        Options options = new Options();
+        options.addOption(Option.builder("t")
+                        .longOpt("threads")
+                        .argName("NUM OF THREADS")
+                        .desc("the number of threads for parsing (default: " + NUMBER_OF_THREADS + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("H")
+                        .longOpt("host-regex")
+                        .argName("HOST REGEX")
+                        .desc("the url to be extracted should be within this host (default: " + CRAWL_HOST_REGEX + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("P")
+                        .longOpt("path-regex")
+                        .argName("PATH REGEX")
+                        .desc("the path of the url should start with this prefix (default: " + CRAWL_PATH_REGEX + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("s", "streaming", false,
+                "extract pages in a single streaming pass over the HTML, without building the document");
+
+        options.addOption("z", "compress", false,
+                "compress the content with a dictionary, trained from the first pages written");
+
+        options.addOption(Option.builder("x")
+                        .longOpt("near-duplicates")
+                        .argName("ACTION")
+                        .desc("what to do with a page whose content nearly duplicates an extracted page: " +
+                                "`mark`, `skip` or `off` (default: " + NEAR_DUPLICATES + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("l")
+                        .longOpt("log-output")
+                        .argName("FILE NAME")
+                        .desc("the file to write logs into (default: STDOUT)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            if (argList.size() < 2) {
+                printMessage("WARC files or JDBC url is not specified");
+                printUsage();
+            }
+
+            String logOutput = cmd.getOptionValue("log-output");
+            if (!Utility.openOutputLog(logOutput)) {
+                printMessage("invalid log file path");
+                printUsage();
+            }
+
+            String jdbcUrl = argList.get(argList.size() - 1);
+            if (!WikiCrawler.initializeDatabase(jdbcUrl)) {
+                printMessage("invalid JDBC url");
+                printUsage();
+            }
+
+            try {
+                if (!isEmptyDatabase(jdbcUrl)) {
+                    printMessage("the pages table is not empty, re-extract into a new database");
+                    System.exit(1);
+                }
+            } catch (SQLException e) {
+                printMessage("failed to read the database: " + e.getMessage());
+                System.exit(1);
+            }
+
+            List<Path> archives = null;
+            try {
+                archives = listArchives(argList.subList(0, argList.size() - 1));
+            } catch (IOException e) {
+                printMessage(e.getMessage());
+                printUsage();
+            }
+            if (archives.isEmpty()) {
+                printMessage("no WARC files found");
+                System.exit(1);
+            }
+
+            try {
+                int numOfThreads = Integer.parseInt(cmd.getOptionValue("threads", String.valueOf(NUMBER_OF_THREADS)));
+                if (numOfThreads <= 0) {
+                    throw new NumberFormatException();
+                }
+
+                String crawlHostRegex = cmd.getOptionValue("host-regex", CRAWL_HOST_REGEX);
+                String crawlPathRegex = cmd.getOptionValue("path-regex", CRAWL_PATH_REGEX);
+                PageExtractor extractor = cmd.hasOption("streaming") ?
+                        new StreamingExtractor(crawlHostRegex, crawlPathRegex) :
+                        new PageExtractor(crawlHostRegex, crawlPathRegex);
+
+                String nearDuplicates = cmd.getOptionValue("near-duplicates", NEAR_DUPLICATES);
+                DuplicateDetector.Action duplicateAction = DuplicateDetector.parseAction(nearDuplicates);
+                if (duplicateAction == null && !nearDuplicates.equals("off")) {
+                    printMessage("invalid near-duplicate action");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                new ReExtractor(archives, jdbcUrl, extractor, numOfThreads, cmd.hasOption("compress"),
+                        duplicateAction).start();
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
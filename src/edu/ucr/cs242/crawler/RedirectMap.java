@@ -0,0 +1,84 @@
+package edu.ucr.cs242.crawler;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The redirects resolved so far, shared by all crawling workers, from the url of a redirect (e.g. `/wiki/USA`)
+ * to the url of the page it serves (`/wiki/United_States`).
+ * A Wikipedia redirect is not an HTTP redirect, the page is served under the url of the redirect as well,
+ * thus without this map every alias linked to would be fetched once more, and the same page extracted again.
+ * The links are resolved before being enqueued, so a known alias is never fetched.
+ * The redirects are persisted into the `redirects` table by {@link WriterThread#putRedirect}, and loaded back
+ * when the crawl starts, so those found by the crawls before are known too.
+ */
+public class RedirectMap {
+    /**
+     * The SQL query statement of the stored redirects, with the url of the page each one redirects to.
+     */
+    public static final String SQL_QUERY =
+            "SELECT r.url AS source, p.url AS target FROM redirects r JOIN pages p ON p.title = r.target " +
+            "WHERE r.url IS NOT NULL AND p.url IS NOT NULL";
+
+    private final Map<String, String> targets = new ConcurrentHashMap<>();
+
+    private final AtomicLong addedCount = new AtomicLong(0);
+    private final AtomicLong resolvedCount = new AtomicLong(0);
+
+    /**
+     * Construct a map with the stored redirects, so the aliases resolved before are not fetched again.
+     * @param jdbcUrl The JDBC connection string.
+     * @return The map.
+     * @throws SQLException
+     */
+    public static RedirectMap load(String jdbcUrl) throws SQLException {
+        RedirectMap map = new RedirectMap();
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
+             Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery(SQL_QUERY)) {
+            while (result.next()) {
+                map.targets.put(result.getString("source"), result.getString("target"));
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Record a redirect.
+     * @param source The url of the redirect, normalized.
+     * @param target The url of the page it redirects to.
+     */
+    public void add(String source, String target) {
+        if (!source.equals(target) && targets.put(source, target) == null) addedCount.incrementAndGet();
+    }
+
+    /**
+     * Resolve an url through the known redirects.
+     * @param url The url, normalized.
+     * @return The url of the page it redirects to, or the url itself if not a known redirect.
+     */
+    public String resolve(String url) {
+        String target = targets.get(url);
+        if (target == null)
+            return url;
+        resolvedCount.incrementAndGet();
+        return target;
+    }
+
+    /**
+     * @return The number of known redirects.
+     */
+    public int size() {
+        return targets.size();
+    }
+
+    /**
+     * Print the summary of the redirects.
+     */
+    public void reportSummary() {
+        System.out.format("Summary: RedirectMap holds %d redirects (%d found by this crawl); " +
+                "%d links resolved without fetching the redirect.%n", targets.size(), addedCount.get(), resolvedCount.get());
+    }
+}
@@ -1,109 +1,135 @@
 package edu.ucr.cs242.crawler;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLDecoder;
-import java.util.LinkedHashMap;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * The robots.txt policy of all hosts, for a given user agent. The rules of a host are fetched lazily,
+ * the first time one of its urls is tested, and cached for a while. Each host is fetched only once at a time:
+ * the threads testing a host being fetched wait for that fetch, while other hosts are fetched concurrently.
+ * The Crawl-delay of a host is handed over to the scheduler, once its rules are fetched.
+ */
 public class RobotPolicy {
     /**
-     * Robots.txt matching pattern.
+     * The user agent the crawler identifies as.
      */
-    public static final String PATTERN = "User-agent: ([^#]*)|Allow: ([^#]*)|Disallow: ([^#]*)";
-    private static final Pattern pattern = Pattern.compile(PATTERN, Pattern.CASE_INSENSITIVE);
+    public static final String USER_AGENT = "cs242-crawler";
+    /**
+     * The time to keep the rules of a host (milliseconds).
+     */
+    public static final long CACHE_TTL = 24 * 60 * 60 * 1000;
+    /**
+     * The time to keep allowing everything on a host whose robots.txt cannot be fetched (milliseconds).
+     */
+    public static final long ERROR_TTL = 60 * 1000;
+    /**
+     * The timeout of fetching robots.txt (milliseconds).
+     */
+    public static final int FETCH_TIMEOUT = 30 * 1000;
+
+    private static class Entry {
+        private final CompletableFuture<RobotRules> rules = new CompletableFuture<>();
+        private volatile long expireAt = Long.MAX_VALUE;
+    }
 
-    private String userAgent;
-    // LinkedHashMap keep the insertion order
-    private Map<String, Boolean> accessControlMap = new LinkedHashMap<>();
-    private URL robotURL;
+    private final String userAgent;
+    private final HttpFetcher fetcher;
+    private final long ttl;
+    private final HostScheduler scheduler;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
 
-    public RobotPolicy(String userAgent) {
+    /**
+     * Construct a policy with given settings.
+     * @param userAgent The user agent of the crawler.
+     * @param fetcher   The HTTP client, shared with the crawler so the connections to a host are reused.
+     * @param ttl       The time to keep the rules of a host (milliseconds).
+     * @param scheduler The scheduler to set the Crawl-delay of hosts into, or null to ignore Crawl-delay.
+     */
+    public RobotPolicy(String userAgent, HttpFetcher fetcher, long ttl, HostScheduler scheduler) {
         this.userAgent = userAgent;
+        this.fetcher = fetcher;
+        this.ttl = ttl;
+        this.scheduler = scheduler;
     }
 
-    public boolean parse(URL url) {
-        HttpURLConnection connection = null;
+    private void fetch(URL url, Entry entry) {
+        RobotRules rules = RobotRules.ALLOW_ALL;
+        long expireIn = ttl;
+
         try {
-            robotURL = new URL(url, "/robots.txt");
-            connection = (HttpURLConnection) robotURL.openConnection();
-            connection.setRequestMethod("GET");
-            connection.connect();
+            URL robotURL = new URL(url, "/robots.txt");
+            HttpRequest request = fetcher.newRequest(robotURL.toURI())
+                    .timeout(Duration.ofMillis(FETCH_TIMEOUT))
+                    .setHeader("User-Agent", userAgent)
+                    .GET().build();
+            HttpResponse<String> response = fetcher.send(request, fetcher.newBodyHandler());
 
             // Not 200? Assume no robots.txt enforced.
-            if (connection.getResponseCode() != 200)
-                return true;
+            if (response.statusCode() == 200 && response.body() != null) {
+                rules = RobotRules.parse(response.body(), userAgent);
+            }
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            System.out.println("RobotPolicy cannot fetch robots.txt of " + url.getHost() + ": " + e.getMessage());
+            expireIn = Math.min(ttl, ERROR_TTL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            expireIn = 0;
+        }
+
+        // Crawl-delay in robots.txt takes precedence, if it is longer than ours.
+        if (scheduler != null && rules.getCrawlDelay() > 0) {
+            scheduler.setInterval(url.getHost(), rules.getCrawlDelay());
+        }
+        entry.expireAt = System.currentTimeMillis() + expireIn;
+        entry.rules.complete(rules);
+    }
 
-            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-            String line;
-            boolean uaMatched = false;
+    /**
+     * Get the rules of the host of the url, fetching them if not cached or expired.
+     * @param url The url.
+     * @return The rules.
+     */
+    public RobotRules getRules(URL url) {
+        // Robots.txt applies to a protocol, host and port.
+        String key = url.getProtocol() + "://" + url.getAuthority();
 
-            while ((line = reader.readLine()) != null) {
-                Matcher matcher = pattern.matcher(line.trim());
-                if (matcher.find()) {
-                    // either group 1, 2, 3 is not null.
-                    if (matcher.group(1) != null) {
-                        String regex = createRegexFromWildcard(matcher.group(1).trim());
-                        uaMatched = userAgent.matches(regex);
-                    } else if (uaMatched && matcher.group(2) != null) {
-                        String path = URLDecoder.decode(matcher.group(2), "UTF-8").trim();
-                        accessControlMap.put(path, true);
-                    } else if (uaMatched && matcher.group(3) != null) {
-                        String path = URLDecoder.decode(matcher.group(3), "UTF-8").trim();
-                        accessControlMap.put(path, false);
+        while (true) {
+            Entry entry = cache.get(key);
+            if (entry != null && entry.expireAt > System.currentTimeMillis())
+                return entry.rules.join();
+
+            // Only the thread replacing the entry fetches, the others wait for it.
+            Entry fresh = new Entry();
+            boolean owner = entry == null ? cache.putIfAbsent(key, fresh) == null : cache.replace(key, entry, fresh);
+            if (owner) {
+                try { fetch(url, fresh); }
+                finally {
+                    // Never leave the waiting threads blocked, even if fetching fails unexpectedly.
+                    if (!fresh.rules.isDone()) {
+                        fresh.expireAt = 0;
+                        fresh.rules.complete(RobotRules.ALLOW_ALL);
                     }
                 }
+                return fresh.rules.join();
             }
-            return true;
-        } catch (IOException e) {
-            return false;
-        } finally {
-            if (connection != null)
-                connection.disconnect();
         }
     }
 
     public boolean testURL(URL url) {
-        // No robotURL, assume every url is fine.
-        if (robotURL == null)
-            return true;
-
-        // If host matches, check our policy list.
-        if (url.getHost().equals(robotURL.getHost())) {
-            return accessControlMap.entrySet().stream()
-                    .filter(p -> url.getFile().startsWith(p.getKey()))
-                    .map(Map.Entry::getValue)
-                    .findFirst().orElse(true);
-        }
-
-        // Not the same host, assume allowed.
-        return true;
+        return getRules(url).isAllowed(url.getFile().isEmpty() ? "/" : url.getFile());
     }
 
-    private String createRegexFromWildcard(String wildcard) {
-        // String.chars() returns an IntStream
-        return wildcard.chars().mapToObj(_c -> {
-            // map char to string
-            char ch = (char) _c;
-
-            switch (ch) {
-                case '*': return ".*";
-                case '?': return ".";
-
-                case '(': case ')': case '[': case ']': case '$':
-                case '^': case '.': case '{': case '}': case '|':
-                case '\\':
-                    return "\\" + ch;
-
-                default:
-                    return String.valueOf(ch);
-            }
-        }).collect(Collectors.joining("", "^", "$"));
+    /**
+     * @return The number of hosts cached.
+     */
+    public int size() {
+        return cache.size();
     }
 }
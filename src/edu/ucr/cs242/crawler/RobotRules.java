@@ -0,0 +1,224 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The compiled robots.txt rules of a single host, for a given user agent.
+ * The Allow and Disallow paths are kept in a prefix trie, where `*` is a node matching any sequence of characters,
+ * and `$` marks a rule anchored at the end of the path. Among all matching rules, the longest one decides,
+ * and Allow wins a tie. A path is thus checked in one walk through the trie, no matter how many rules there are.
+ */
+public class RobotRules {
+    /**
+     * The rules allowing everything, for hosts without robots.txt.
+     */
+    public static final RobotRules ALLOW_ALL = new RobotRules();
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private final boolean wildcard;
+        private Node star;
+        // The rule ending at this node, as a prefix, or anchored at the end by `$`. Null if no such rule.
+        private Boolean prefixRule;
+        private Boolean anchoredRule;
+        // The length of the rules ending at this node.
+        private int depth;
+
+        private Node(boolean wildcard, int depth) {
+            this.wildcard = wildcard;
+            this.depth = depth;
+        }
+    }
+
+    private final Node root = new Node(false, 0);
+    private long crawlDelay = 0;
+    private int numOfRules = 0;
+
+    /**
+     * Parse the content of robots.txt. The group of the user agent is used if there is one, or the group of `*`.
+     * @param content   The content of robots.txt.
+     * @param userAgent The user agent of the crawler.
+     * @return The compiled rules.
+     */
+    public static RobotRules parse(String content, String userAgent) {
+        // Rules of our own group, and of the `*` group, as (path, allow) pairs.
+        List<Object[]> ownRules = new ArrayList<>(), defaultRules = new ArrayList<>();
+        long ownDelay = -1, defaultDelay = -1;
+        boolean ownGroup = false, defaultGroup = false, inUserAgents = false;
+
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment != -1) line = line.substring(0, comment);
+                int colon = line.indexOf(':');
+                if (colon == -1) continue;
+
+                String key = line.substring(0, colon).trim().toLowerCase();
+                String value = line.substring(colon + 1).trim();
+
+                if (key.equals("user-agent")) {
+                    // Consecutive User-agent lines share the group that follows.
+                    if (!inUserAgents) {
+                        ownGroup = defaultGroup = false;
+                        inUserAgents = true;
+                    }
+                    if (value.equals("*")) defaultGroup = true;
+                    else if (matchesUserAgent(value, userAgent)) ownGroup = true;
+                    continue;
+                }
+                inUserAgents = false;
+
+                if (key.equals("allow") || key.equals("disallow")) {
+                    // An empty Disallow allows everything, which is the default.
+                    if (value.isEmpty()) continue;
+                    Object[] rule = { decodePath(value), key.equals("allow") };
+                    if (ownGroup) ownRules.add(rule);
+                    if (defaultGroup) defaultRules.add(rule);
+                } else if (key.equals("crawl-delay")) {
+                    // Crawl-delay is in seconds, and may be fractional.
+                    try {
+                        long delay = (long) (Double.parseDouble(value) * 1000);
+                        if (ownGroup) ownDelay = delay;
+                        if (defaultGroup) defaultDelay = delay;
+                    } catch (NumberFormatException e) { /* ignored */ }
+                }
+            }
+        } catch (IOException e) {
+            // Never happens when reading a string.
+        }
+
+        // The group of our user agent overrides the `*` group entirely.
+        boolean useOwn = !ownRules.isEmpty() || ownDelay >= 0;
+        RobotRules rules = new RobotRules();
+        for (Object[] rule : useOwn ? ownRules : defaultRules)
+            rules.addRule((String) rule[0], (Boolean) rule[1]);
+        rules.crawlDelay = Math.max(0, useOwn ? ownDelay : defaultDelay);
+        return rules;
+    }
+
+    private static boolean matchesUserAgent(String value, String userAgent) {
+        // Either the product token, or a wildcard pattern of it.
+        String token = value.toLowerCase();
+        String agent = userAgent.toLowerCase();
+        if (token.indexOf('*') == -1)
+            return agent.equals(token) || agent.startsWith(token + "/");
+        return agent.matches(token.replaceAll("[^*]+", "\\\\Q$0\\\\E").replace("*", ".*"));
+    }
+
+    /**
+     * Decode the percent-encoded characters, so that encoded and plain paths match each other.
+     * Unlike form data, `+` is kept as is.
+     * @param path The path.
+     * @return The decoded path, or the path itself if it is malformed.
+     */
+    public static String decodePath(String path) {
+        if (path.indexOf('%') == -1)
+            return path;
+        try {
+            return URLDecoder.decode(path.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return path;
+        }
+    }
+
+    private void addRule(String path, boolean allow) {
+        boolean anchored = path.endsWith("$");
+        if (anchored) path = path.substring(0, path.length() - 1);
+
+        Node node = root;
+        for (int i = 0; i < path.length(); i++) {
+            char ch = path.charAt(i);
+            int depth = node.depth + 1;
+            if (ch == '*') {
+                // Consecutive `*` are the same as one.
+                if (node.wildcard) continue;
+                if (node.star == null) node.star = new Node(true, depth);
+                node = node.star;
+            } else {
+                node = node.children.computeIfAbsent(ch, c -> new Node(false, depth));
+            }
+        }
+
+        // Allow wins a tie between rules of the same path.
+        if (anchored) node.anchoredRule = node.anchoredRule == null ? allow : node.anchoredRule || allow;
+        else node.prefixRule = node.prefixRule == null ? allow : node.prefixRule || allow;
+        ++numOfRules;
+    }
+
+    private static void addState(List<Node> states, Node node) {
+        if (!states.contains(node)) states.add(node);
+        // `*` may match an empty sequence.
+        if (node.star != null && !states.contains(node.star)) states.add(node.star);
+    }
+
+    /**
+     * Check if a path is allowed.
+     * @param path The path and the query of the url, as requested.
+     * @return Whether the path is allowed.
+     */
+    public boolean isAllowed(String path) {
+        if (numOfRules == 0)
+            return true;
+
+        path = decodePath(path);
+        int bestDepth = -1;
+        boolean bestAllow = true;
+
+        List<Node> states = new ArrayList<>(), nextStates = new ArrayList<>();
+        addState(states, root);
+
+        for (int i = 0; ; i++) {
+            for (Node state : states) {
+                Boolean rule = state.prefixRule;
+                if (i == path.length() && state.anchoredRule != null)
+                    rule = rule == null ? state.anchoredRule : rule || state.anchoredRule;
+                if (rule != null && (state.depth > bestDepth || state.depth == bestDepth && rule)) {
+                    bestDepth = state.depth;
+                    bestAllow = rule;
+                }
+            }
+            if (i == path.length())
+                break;
+
+            char ch = path.charAt(i);
+            nextStates.clear();
+            for (Node state : states) {
+                Node child = state.children.get(ch);
+                if (child != null) addState(nextStates, child);
+                // `*` consumes any character.
+                if (state.wildcard) addState(nextStates, state);
+            }
+            if (nextStates.isEmpty())
+                break;
+
+            List<Node> swap = states;
+            states = nextStates;
+            nextStates = swap;
+        }
+
+        return bestAllow;
+    }
+
+    /**
+     * @return The Crawl-delay directive (milliseconds), or 0 if not specified.
+     */
+    public long getCrawlDelay() {
+        return crawlDelay;
+    }
+
+    /**
+     * @return The number of Allow and Disallow rules.
+     */
+    public int size() {
+        return numOfRules;
+    }
+}
@@ -0,0 +1,292 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Migrate a database from an older schema into the current one (see {@link WikiCrawler#SQL_CREATE_TABLES}).
+ * From the version 1 schema, where the pages are keyed by title and the categories and the outgoing links are
+ * joined by `|`, the old table is renamed aside, the pages are copied in their old order, so the ids follow the order
+ * of crawling, and the joined strings are split into rows once and for all. From the version 2 schema, where
+ * `page_categories` holds the category names, the names are moved into the `categories` dictionary. From the version 3
+ * schema, where `duplicateOf` holds the title of the original, the title is replaced by its id in `titles`.
+ * The migration runs in a single transaction, thus a failed one leaves the database as it was.
+ * The database is vacuumed afterwards, unless asked not to.
+ */
+public class SchemaMigrator {
+    /**
+     * The number of pages between two progress reports.
+     */
+    public static final int REPORT_COUNT = 10000;
+    /**
+     * The columns copied as they are, if the old table has them. Those added late may be missing.
+     */
+    private static final List<String> COPIED_COLUMNS = Arrays.asList(
+            "content", "lastModify", "url", "etag", "lastModified", "dirty", "simhash");
+
+    private final Connection dbConnection;
+    private final boolean vacuum;
+
+    /**
+     * Construct a migrator with given settings.
+     * @param dbConnection The active database connection.
+     * @param vacuum       Whether to vacuum the database after migration.
+     */
+    public SchemaMigrator(Connection dbConnection, boolean vacuum) {
+        this.dbConnection = dbConnection;
+        this.vacuum = vacuum;
+    }
+
+    private static List<String> split(String joined) {
+        if (joined == null || joined.isEmpty())
+            return Collections.emptyList();
+        return Arrays.stream(joined.split(Pattern.quote("|"))).collect(Collectors.toList());
+    }
+
+    /**
+     * Copy the pages of the version 1 schema, then split their categories and outgoing links into rows.
+     * @return The number of pages, links and categories migrated.
+     */
+    private long[] migrateFromVersion1() throws SQLException {
+        Set<String> oldColumns = new HashSet<>();
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("ALTER TABLE pages RENAME TO pages_v1");
+            try (ResultSet result = statement.executeQuery("PRAGMA table_info(pages_v1)")) {
+                while (result.next()) oldColumns.add(result.getString("name"));
+            }
+            for (String sql : WikiCrawler.SQL_CREATE_TABLES) statement.execute(sql);
+
+            // The ids follow the order of crawling.
+            statement.execute("INSERT OR IGNORE INTO titles (title) SELECT title FROM pages_v1 ORDER BY rowid");
+            List<String> columns = COPIED_COLUMNS.stream().filter(oldColumns::contains).collect(Collectors.toList());
+            List<String> values = columns.stream().map(column -> "p." + column).collect(Collectors.toList());
+            if (oldColumns.contains("duplicateOf")) {
+                statement.execute("INSERT OR IGNORE INTO titles (title) " +
+                        "SELECT duplicateOf FROM pages_v1 WHERE duplicateOf IS NOT NULL ORDER BY rowid");
+                columns.add("duplicateOf");
+                values.add("(SELECT id FROM titles WHERE title = p.duplicateOf)");
+            }
+            statement.execute("INSERT INTO pages (id, title, " + String.join(", ", columns) + ") " +
+                    "SELECT t.id, p.title, " + String.join(", ", values) + " " +
+                    "FROM pages_v1 p JOIN titles t ON t.title = p.title ORDER BY p.rowid");
+        }
+
+        long pageCount = 0, linkCount = 0, categoryCount = 0;
+        try (Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT t.id, p.categories, p.outLinks " +
+                     "FROM pages_v1 p JOIN titles t ON t.title = p.title ORDER BY p.rowid");
+             IdDictionary titles = IdDictionary.titles(dbConnection);
+             IdDictionary categoryNames = IdDictionary.categories(dbConnection);
+             PreparedStatement insertLink = dbConnection.prepareStatement(WriterThread.SQL_INSERT_LINK);
+             PreparedStatement insertCategory = dbConnection.prepareStatement(WriterThread.SQL_INSERT_CATEGORY);
+             PreparedStatement updateDigest = dbConnection.prepareStatement(
+                     "UPDATE pages SET digest = ? WHERE id = ?")) {
+            while (result.next()) {
+                int id = result.getInt(1);
+                List<String> categories = split(result.getString(2));
+                List<String> outLinks = oldColumns.contains("outLinks") ? split(result.getString(3)) :
+                        Collections.emptyList();
+
+                for (String category : categories) {
+                    insertCategory.setInt(1, id);
+                    insertCategory.setInt(2, categoryNames.idOf(category));
+                    insertCategory.addBatch();
+                }
+                for (String outLink : outLinks) {
+                    insertLink.setInt(1, id);
+                    insertLink.setInt(2, titles.idOf(outLink));
+                    insertLink.addBatch();
+                }
+                updateDigest.setLong(1, WriterThread.digestOf(categories, outLinks));
+                updateDigest.setInt(2, id);
+                updateDigest.addBatch();
+
+                if (++pageCount % REPORT_COUNT == 0) {
+                    categoryCount += Arrays.stream(insertCategory.executeBatch()).sum();
+                    linkCount += Arrays.stream(insertLink.executeBatch()).sum();
+                    updateDigest.executeBatch();
+                    System.out.println("SchemaMigrator has migrated " + pageCount + " pages.");
+                }
+            }
+            categoryCount += Arrays.stream(insertCategory.executeBatch()).sum();
+            linkCount += Arrays.stream(insertLink.executeBatch()).sum();
+            updateDigest.executeBatch();
+        }
+
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("DROP TABLE pages_v1");
+        }
+        return new long[] { pageCount, linkCount, categoryCount };
+    }
+
+    /**
+     * Move the category names of the version 2 schema into the dictionary, in order of first use.
+     */
+    private void migrateFromVersion2() throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("ALTER TABLE page_categories RENAME TO page_categories_v2");
+            for (String sql : WikiCrawler.SQL_CREATE_TABLES) statement.execute(sql);
+
+            statement.execute("INSERT INTO categories (name) " +
+                    "SELECT category FROM page_categories_v2 GROUP BY category ORDER BY MIN(page_id)");
+            statement.execute("INSERT INTO page_categories (page_id, category_id) " +
+                    "SELECT p.page_id, c.id FROM page_categories_v2 p JOIN categories c ON c.name = p.category");
+            statement.execute("DROP TABLE page_categories_v2");
+        }
+    }
+
+    /**
+     * Replace the title of the original kept by a near-duplicate in the version 3 schema with the id of the title,
+     * adding the title to the dictionary if missing. The column changes its type, thus the table is copied.
+     */
+    private void migrateFromVersion3() throws SQLException {
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("ALTER TABLE pages RENAME TO pages_v3");
+            for (String sql : WikiCrawler.SQL_CREATE_TABLES) statement.execute(sql);
+
+            statement.execute("INSERT OR IGNORE INTO titles (title) " +
+                    "SELECT duplicateOf FROM pages_v3 WHERE duplicateOf IS NOT NULL ORDER BY id");
+            statement.execute("INSERT INTO pages (id, title, duplicateOf, " + String.join(", ", COPIED_COLUMNS) +
+                    ", digest) SELECT p.id, p.title, t.id, " + COPIED_COLUMNS.stream().map(column -> "p." + column)
+                            .collect(Collectors.joining(", ")) + ", p.digest " +
+                    "FROM pages_v3 p LEFT JOIN titles t ON t.title = p.duplicateOf ORDER BY p.id");
+            statement.execute("DROP TABLE pages_v3");
+        }
+    }
+
+    private long count(Statement statement, String table) throws SQLException {
+        try (ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM " + table)) {
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    private long[] migrate(int version) throws SQLException {
+        long[] counts;
+        if (version == 1) {
+            counts = migrateFromVersion1();
+        } else {
+            if (version == 2)
+                migrateFromVersion2();
+            migrateFromVersion3();
+            try (Statement statement = dbConnection.createStatement()) {
+                counts = new long[] { count(statement, "pages"), count(statement, "links"),
+                        count(statement, "page_categories") };
+            }
+        }
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("PRAGMA user_version = " + WikiCrawler.SCHEMA_VERSION);
+        }
+        return counts;
+    }
+
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("SchemaMigrator started at " + startAt.toLocalTime() + ".");
+
+        try {
+            int version = WikiCrawler.schemaVersion(dbConnection);
+            if (version == 0 || version == WikiCrawler.SCHEMA_VERSION) {
+                System.out.println("SchemaMigrator found the database in the version " + version +
+                        " schema. Nothing to do.");
+                return;
+            }
+
+            long[] counts;
+            dbConnection.setAutoCommit(false);
+            try {
+                counts = migrate(version);
+                dbConnection.commit();
+            } catch (SQLException e) {
+                dbConnection.rollback();
+                throw e;
+            } finally {
+                dbConnection.setAutoCommit(true);
+            }
+
+            // Give the pages of the old table back to the file system.
+            if (vacuum) {
+                try (Statement statement = dbConnection.createStatement()) {
+                    statement.execute("VACUUM");
+                }
+            }
+
+            System.out.format("Summary: SchemaMigrator migrated %d pages, with %d links and %d categories, " +
+                            "from the version %d schema into the version %d schema. Elapsed time: %s.%n",
+                    counts[0], counts[1], counts[2], version, WikiCrawler.SCHEMA_VERSION, Utility.elapsedTime(startAt, LocalDateTime.now()));
+        } catch (SQLException e) {
+            System.out.println("SchemaMigrator throws an SQLException, the database is left as it was.");
+            e.printStackTrace();
+        }
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("migrate: " + message);
+    }
+
+    private static void printUsage() {
+        System.out.println("usage: migrate [options] <jdbc-url>");
+        System.out.println("use -h for a list of possible options");
+        System.exit(1);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("migrate [options] <jdbc-url>", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws SQLException, ClassNotFoundException {
+        Options options = new Options();
+        options.addOption("n", "no-vacuum", false, "do not vacuum the database after migration");
+
+        options.addOption(Option.builder("l")
+                        .longOpt("log-output")
+                        .argName("FILE NAME")
+                        .desc("the file to write logs into (default: STDOUT)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            if (argList.isEmpty()) {
+                printMessage("JDBC url is not specified");
+                printUsage();
+            }
+
+            String logOutput = cmd.getOptionValue("log-output");
+            if (!Utility.openOutputLog(logOutput)) {
+                printMessage("invalid log file path");
+                printUsage();
+            }
+
+            Optional<Connection> dbConnection = Utility.getConnection(argList.get(0));
+            if (!dbConnection.isPresent()) {
+                printMessage("invalid JDBC url");
+                printUsage();
+            } else {
+                new SchemaMigrator(dbConnection.get(), !cmd.hasOption("no-vacuum")).start();
+                dbConnection.get().close();
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.IOException;
+
+/**
+ * The thread exchanging urls with the other shards periodically: the urls of other shards are written out,
+ * and the urls of this shard written by others are read into the frontier.
+ */
+public class ShardExchangeThread extends Thread {
+    /**
+     * The interval between two exchanges (milliseconds).
+     */
+    public static final long EXCHANGE_INTERVAL = 1000;
+
+    private final ShardRouter router;
+    private final Frontier frontier;
+    private volatile boolean finishing = false;
+
+    /**
+     * Construct an exchange thread with given settings.
+     * @param router   The router of this shard.
+     * @param frontier The frontier to read the urls into.
+     */
+    public ShardExchangeThread(ShardRouter router, Frontier frontier) {
+        super("ShardExchangeThread");
+        this.router = router;
+        this.frontier = frontier;
+    }
+
+    /**
+     * Exchange the urls once.
+     */
+    public void exchange() {
+        try {
+            router.flush();
+            router.receive(frontier);
+        } catch (IOException e) {
+            System.out.println("ShardExchangeThread throws an IOException: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stop exchanging periodically.
+     */
+    public void finish() {
+        finishing = true;
+        interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (!finishing) {
+            try {
+                Thread.sleep(EXCHANGE_INTERVAL);
+            } catch (InterruptedException e) {
+                // Finishing, or interrupted by someone else.
+                continue;
+            }
+            exchange();
+        }
+    }
+}
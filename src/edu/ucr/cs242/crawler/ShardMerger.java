@@ -0,0 +1,290 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.ContentCodec;
+import edu.ucr.cs242.Utility;
+import org.apache.commons.cli.*;
+
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Merge the databases written by the shards of a crawl into one, for the indexer and the exporter.
+ * The dictionaries of compressed pages are copied along, as a page finds its dictionary by checksum,
+ * whichever database it comes from. A title stored by more than one shard is kept from the first shard only,
+ * and so is a redirect. The shards are to be in the current schema, each with its own ids, which are remapped
+ * through the titles of the merged database.
+ */
+public class ShardMerger {
+    /**
+     * The number of records to be batch-processed per SQL transaction.
+     */
+    public static final int BATCH_COUNT = 500;
+
+    private final List<String> shardUrls;
+    private final String jdbcUrl;
+
+    /**
+     * Construct a merger with given settings.
+     * @param shardUrls The JDBC urls of the shards.
+     * @param jdbcUrl   The JDBC url of the merged database.
+     */
+    public ShardMerger(List<String> shardUrls, String jdbcUrl) {
+        this.shardUrls = shardUrls;
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    private static Set<String> columnsOf(Connection dbConnection, String table) throws SQLException {
+        Set<String> columns = new LinkedHashSet<>();
+        try (Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (result.next()) columns.add(result.getString("name"));
+        }
+        return columns;
+    }
+
+    /**
+     * Copy the dictionaries the merged database does not have yet.
+     * @return The number of dictionaries copied.
+     */
+    private int mergeDictionaries(Connection shardConnection, Connection dbConnection) throws SQLException {
+        if (columnsOf(shardConnection, "dictionaries").isEmpty())
+            return 0;
+
+        Set<Long> checksums = new HashSet<>();
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute(ContentCodec.SQL_CREATE);
+            try (ResultSet result = statement.executeQuery("SELECT checksum FROM dictionaries")) {
+                while (result.next()) checksums.add(result.getLong("checksum"));
+            }
+        }
+
+        int count = 0;
+        try (Statement query = shardConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT checksum, dictionary FROM dictionaries ORDER BY id");
+             PreparedStatement insert = dbConnection.prepareStatement(
+                     "INSERT INTO dictionaries (checksum, dictionary) VALUES (?, ?)")) {
+            while (result.next()) {
+                if (!checksums.add(result.getLong("checksum"))) continue;
+                insert.setLong(1, result.getLong("checksum"));
+                insert.setBytes(2, result.getBytes("dictionary"));
+                insert.executeUpdate();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copy the redirects the merged database does not have yet.
+     * @return The number of redirects copied.
+     */
+    private int mergeRedirects(Connection shardConnection, Connection dbConnection) throws SQLException {
+        if (columnsOf(shardConnection, "redirects").isEmpty())
+            return 0;
+
+        int count = 0;
+        dbConnection.setAutoCommit(false);
+        try (Statement query = shardConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT source, target, url FROM redirects");
+             PreparedStatement insert = dbConnection.prepareStatement(
+                     "INSERT OR IGNORE INTO redirects (source, target, url) VALUES (?, ?, ?)")) {
+            while (result.next()) {
+                for (int i = 1; i <= 3; i++) insert.setString(i, result.getString(i));
+                count += insert.executeUpdate();
+            }
+            dbConnection.commit();
+        } catch (SQLException e) {
+            dbConnection.rollback();
+            throw e;
+        } finally {
+            dbConnection.setAutoCommit(true);
+        }
+        return count;
+    }
+
+    /**
+     * Copy the pages of a shard, with the columns both databases have, along with their links and categories.
+     * The ids of a shard are its own, thus every page, and the target of every link, is given the id of its title
+     * in the merged database, and every category the id of its name. A near-duplicate refers to the id of the title
+     * of its original in the merged database as well.
+     * @return The number of pages read, and the number of pages copied.
+     */
+    private int[] mergePages(Connection shardConnection, Connection dbConnection) throws SQLException {
+        Set<String> columns = columnsOf(dbConnection, "pages");
+        columns.retainAll(columnsOf(shardConnection, "pages"));
+        columns.remove("id");
+        columns.remove("duplicateOf");
+        String columnList = String.join(", ", columns);
+        final String SQL_INSERT = "INSERT OR IGNORE INTO pages (id, duplicateOf, " + columnList + ") VALUES (?, ?, " +
+                columns.stream().map(column -> "?").collect(Collectors.joining(", ")) + ")";
+
+        int readCount = 0, copiedCount = 0;
+        dbConnection.setAutoCommit(false);
+        try (Statement query = shardConnection.createStatement();
+             ResultSet result = query.executeQuery("SELECT id, " + columnList + ", " +
+                     "(SELECT title FROM titles WHERE id = pages.duplicateOf) AS duplicateOfTitle FROM pages ORDER BY id");
+             PreparedStatement queryLinks = shardConnection.prepareStatement(
+                     "SELECT t.title FROM links l JOIN titles t ON t.id = l.dst_id WHERE l.src_id = ?");
+             PreparedStatement queryCategories = shardConnection.prepareStatement(
+                     "SELECT c.name FROM page_categories p JOIN categories c ON c.id = p.category_id " +
+                     "WHERE p.page_id = ?");
+             IdDictionary titles = IdDictionary.titles(dbConnection);
+             IdDictionary categoryNames = IdDictionary.categories(dbConnection);
+             PreparedStatement insert = dbConnection.prepareStatement(SQL_INSERT);
+             PreparedStatement insertLink = dbConnection.prepareStatement(WriterThread.SQL_INSERT_LINK);
+             PreparedStatement insertCategory = dbConnection.prepareStatement(WriterThread.SQL_INSERT_CATEGORY)) {
+            while (result.next()) {
+                int shardId = result.getInt("id");
+                int id = titles.idOf(result.getString("title"));
+                String duplicateOf = result.getString("duplicateOfTitle");
+                insert.setInt(1, id);
+                insert.setObject(2, duplicateOf == null ? null : titles.idOf(duplicateOf));
+                for (int i = 1; i <= columns.size(); i++) insert.setObject(i + 2, result.getObject(i + 1));
+
+                // A title stored by a shard before keeps its page, links and categories.
+                if (insert.executeUpdate() > 0) {
+                    ++copiedCount;
+                    queryLinks.setInt(1, shardId);
+                    try (ResultSet links = queryLinks.executeQuery()) {
+                        while (links.next()) {
+                            insertLink.setInt(1, id);
+                            insertLink.setInt(2, titles.idOf(links.getString(1)));
+                            insertLink.addBatch();
+                        }
+                    }
+                    queryCategories.setInt(1, shardId);
+                    try (ResultSet categories = queryCategories.executeQuery()) {
+                        while (categories.next()) {
+                            insertCategory.setInt(1, id);
+                            insertCategory.setInt(2, categoryNames.idOf(categories.getString(1)));
+                            insertCategory.addBatch();
+                        }
+                    }
+                }
+
+                if (++readCount % BATCH_COUNT == 0) {
+                    insertLink.executeBatch();
+                    insertCategory.executeBatch();
+                    dbConnection.commit();
+                }
+            }
+            insertLink.executeBatch();
+            insertCategory.executeBatch();
+            dbConnection.commit();
+        } catch (SQLException e) {
+            dbConnection.rollback();
+            throw e;
+        } finally {
+            dbConnection.setAutoCommit(true);
+        }
+        return new int[] { readCount, copiedCount };
+    }
+
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("ShardMerger started at " + startAt.toLocalTime() + ". Shards: " + shardUrls.size() + ".");
+
+        int totalCount = 0, duplicateCount = 0;
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl)) {
+            for (String shardUrl : shardUrls) {
+                try (Connection shardConnection = DriverManager.getConnection(shardUrl)) {
+                    int dictionaryCount = mergeDictionaries(shardConnection, dbConnection);
+                    int[] counts = mergePages(shardConnection, dbConnection);
+                    int redirectCount = mergeRedirects(shardConnection, dbConnection);
+                    totalCount += counts[1];
+                    duplicateCount += counts[0] - counts[1];
+                    System.out.format("ShardMerger merged %d of %d pages, %d dictionaries, and %d redirects, from %s. " +
+                                    "Elapsed time: %s.%n", counts[1], counts[0], dictionaryCount, redirectCount, shardUrl,
+                            Utility.elapsedTime(startAt, LocalDateTime.now()));
+                }
+            }
+
+            System.out.format("Summary: ShardMerger merged %d pages from %d shards (%d duplicate titles skipped). " +
+                            "Elapsed time: %s.%n", totalCount, shardUrls.size(), duplicateCount,
+                    Utility.elapsedTime(startAt, LocalDateTime.now()));
+        } catch (SQLException e) {
+            System.out.println("ShardMerger throws an SQLException.");
+            e.printStackTrace();
+        }
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("merge: " + message);
+    }
+
+    private static void printUsage() {
+        System.out.println("usage: merge [options] <shard-jdbc-url...> <jdbc-url>");
+        System.out.println("use -h for a list of possible options");
+        System.exit(1);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("merge [options] <shard-jdbc-url...> <jdbc-url>", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) throws ClassNotFoundException {
+        Options options = new Options();
+        options.addOption(Option.builder("l")
+                        .longOpt("log-output")
+                        .argName("FILE NAME")
+                        .desc("the file to write logs into (default: STDOUT)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            List<String> argList = cmd.getArgList();
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            if (argList.size() < 2) {
+                printMessage("shard JDBC urls or JDBC url is not specified");
+                printUsage();
+            }
+
+            String logOutput = cmd.getOptionValue("log-output");
+            if (!Utility.openOutputLog(logOutput)) {
+                printMessage("invalid log file path");
+                printUsage();
+            }
+
+            String jdbcUrl = argList.get(argList.size() - 1);
+            if (!WikiCrawler.initializeDatabase(jdbcUrl)) {
+                printMessage("invalid JDBC url");
+                printUsage();
+            }
+
+            List<String> shardUrls = argList.subList(0, argList.size() - 1);
+            for (String shardUrl : shardUrls) {
+                // -1 for an invalid url.
+                int version = Utility.getConnection(shardUrl).map(connection -> {
+                    try (Connection c = connection) { return WikiCrawler.schemaVersion(c); }
+                    catch (SQLException e) { return -1; }
+                }).orElse(-1);
+                if (version < 0) {
+                    printMessage("invalid shard JDBC url: " + shardUrl);
+                    printUsage();
+                } else if (version != WikiCrawler.SCHEMA_VERSION) {
+                    printMessage("shard in the version " + version + " schema, run `migrate` on it first: " + shardUrl);
+                    printUsage();
+                }
+            }
+
+            new ShardMerger(shardUrls, jdbcUrl).start();
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
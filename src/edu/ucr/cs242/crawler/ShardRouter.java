@@ -0,0 +1,173 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The router of urls between the shards of a crawl. Each crawler process owns the urls whose fingerprint
+ * maps to its shard, and forwards the others to their owners through spool files in a shared directory:
+ * the links for shard `j` are written into `shard-j/`, under a temporary name first, then renamed,
+ * so the owner only ever sees complete files. The owner reads its files into the frontier, and deletes them.
+ * The processes may run on one machine, or on several machines sharing the spool directory.
+ */
+public class ShardRouter {
+    /**
+     * The extension of the complete spool files.
+     */
+    public static final String EXTENSION = ".links";
+
+    private final int shard;
+    private final int numOfShards;
+    private final Path spoolDir;
+    // The urls forwarded already, so the same link found on many pages is only sent once.
+    private final VisitedSet forwardedUrls;
+    private final List<List<QueueItem>> outboxes = new ArrayList<>();
+    // Tells apart the files of a restarted process from those it wrote before.
+    private final long startedAt = System.currentTimeMillis();
+
+    private int fileCount = 0;
+    private long sentCount = 0;
+    private long receivedCount = 0;
+
+    /**
+     * Construct a router with given settings. The spool directories are created if missing.
+     * @param shard        The shard of this process, from 0.
+     * @param numOfShards  The number of shards.
+     * @param spoolDir     The spool directory shared by all shards.
+     * @param expectedSize The expected number of urls forwarded.
+     * @throws IOException
+     */
+    public ShardRouter(int shard, int numOfShards, Path spoolDir, int expectedSize) throws IOException {
+        this.shard = shard;
+        this.numOfShards = numOfShards;
+        this.spoolDir = spoolDir;
+        this.forwardedUrls = new FingerprintVisitedSet(expectedSize);
+        for (int i = 0; i < numOfShards; i++) {
+            Files.createDirectories(inboxOf(i));
+            outboxes.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Get the shard owning an url. The fingerprint is stable across processes and machines.
+     * @param url         The url.
+     * @param numOfShards The number of shards.
+     * @return The shard, from 0.
+     */
+    public static int shardOf(String url, int numOfShards) {
+        return (int) Long.remainderUnsigned(VisitedSet.fingerprint(url), numOfShards);
+    }
+
+    private Path inboxOf(int shard) {
+        return spoolDir.resolve("shard-" + shard);
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public int getNumOfShards() {
+        return numOfShards;
+    }
+
+    /**
+     * @param url The url.
+     * @return Whether the url belongs to this shard.
+     */
+    public boolean owns(String url) {
+        return shardOf(url, numOfShards) == shard;
+    }
+
+    /**
+     * Forward an url to its owner. It is buffered until the next {@link #flush()}.
+     * @param url   The url of another shard.
+     * @param depth The depth of the url.
+     * @param cash  The share of the cash of the page linking to the url, when first found.
+     */
+    public void forward(String url, int depth, double cash) {
+        if (!forwardedUrls.add(url))
+            return;
+
+        List<QueueItem> outbox = outboxes.get(shardOf(url, numOfShards));
+        synchronized (outbox) {
+            outbox.add(new QueueItem(url, depth, cash));
+        }
+    }
+
+    /**
+     * Write the buffered urls into a spool file per shard.
+     * @return The number of urls written.
+     * @throws IOException
+     */
+    public synchronized int flush() throws IOException {
+        int count = 0;
+        for (int i = 0; i < numOfShards; i++) {
+            List<QueueItem> outbox = outboxes.get(i), items;
+            synchronized (outbox) {
+                if (outbox.isEmpty()) continue;
+                items = new ArrayList<>(outbox);
+                outbox.clear();
+            }
+
+            String name = String.format("from-%d-%d-%06d", shard, startedAt, fileCount++);
+            Path temporary = inboxOf(i).resolve(name + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                for (QueueItem item : items) {
+                    writer.write(item.getDepth() + "\t" + item.getCash() + "\t" + item.getUrl());
+                    writer.newLine();
+                }
+            }
+            Files.move(temporary, inboxOf(i).resolve(name + EXTENSION), StandardCopyOption.ATOMIC_MOVE);
+            count += items.size();
+        }
+        sentCount += count;
+        return count;
+    }
+
+    /**
+     * Read the spool files of this shard into the frontier, and delete them.
+     * @param frontier The frontier, which drops the urls enqueued before.
+     * @return The number of urls read.
+     * @throws IOException
+     */
+    public synchronized int receive(Frontier frontier) throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(inboxOf(shard))) {
+            files = list.filter(file -> file.toString().endsWith(EXTENSION)).sorted().collect(Collectors.toList());
+        }
+
+        int count = 0;
+        for (Path file : files) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Depth, cash and url, separated by tabs.
+                    String[] fields = line.split("\t", 3);
+                    if (fields.length < 3) continue;
+                    try {
+                        frontier.offer(fields[2], Integer.parseInt(fields[0]), Double.parseDouble(fields[1]));
+                        ++count;
+                    } catch (NumberFormatException e) { /* ignored */ }
+                }
+            }
+            Files.delete(file);
+        }
+        receivedCount += count;
+        return count;
+    }
+
+    /**
+     * Print the summary of the urls exchanged.
+     */
+    public synchronized void reportSummary() {
+        System.out.format("Summary: ShardRouter of shard %d/%d sent %d urls to other shards in %d files, " +
+                "and received %d urls.%n", shard, numOfShards, sentCount, fileCount, receivedCount);
+    }
+}
@@ -0,0 +1,95 @@
+package edu.ucr.cs242.crawler;
+
+/**
+ * The 64-bit SimHash fingerprint of a text, over the shingles of {@link #SHINGLE_SIZE} consecutive words.
+ * Each shingle is hashed, and every bit of the fingerprint is the majority vote of that bit over all shingles,
+ * so near-identical texts get fingerprints differing in a few bits only, as counted by {@link #distance(long, long)}.
+ * The words are compared case-insensitively, and anything other than letters and digits separates them.
+ */
+public final class SimHash {
+    /**
+     * The number of consecutive words in a shingle.
+     */
+    public static final int SHINGLE_SIZE = 3;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private SimHash() {
+    }
+
+    /**
+     * MurmurHash3's finalizer, so every bit of a shingle hash is equally likely set.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Hash the last words in the window, the oldest first.
+     */
+    private static long shingle(long[] window, int wordCount) {
+        long hash = 0;
+        for (int i = Math.max(0, wordCount - SHINGLE_SIZE); i < wordCount; i++) {
+            hash = hash * 31 + window[i % SHINGLE_SIZE];
+        }
+        return mix(hash);
+    }
+
+    private static void vote(int[] weights, long hash) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += (hash >>> bit & 1) == 0 ? -1 : 1;
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a text. A text shorter than a shingle is taken as a single shingle.
+     * @param text The text.
+     * @return The fingerprint, or 0 if the text has no words.
+     */
+    public static long of(String text) {
+        int[] weights = new int[64];
+        // The hashes of the last words, as a ring.
+        long[] window = new long[SHINGLE_SIZE];
+        int wordCount = 0;
+        long word = FNV_OFFSET;
+        boolean inWord = false;
+
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word ^= Character.toLowerCase(c);
+                word *= FNV_PRIME;
+                inWord = true;
+            } else if (inWord) {
+                window[wordCount++ % SHINGLE_SIZE] = word;
+                if (wordCount >= SHINGLE_SIZE) vote(weights, shingle(window, wordCount));
+                word = FNV_OFFSET;
+                inWord = false;
+            }
+        }
+
+        if (wordCount == 0)
+            return 0;
+        if (wordCount < SHINGLE_SIZE)
+            vote(weights, shingle(window, wordCount));
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) fingerprint |= 1L << bit;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return The Hamming distance between two fingerprints, i.e. the number of bits they differ in.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
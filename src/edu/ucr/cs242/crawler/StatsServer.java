@@ -0,0 +1,69 @@
+package edu.ucr.cs242.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A local HTTP server answering `GET /stats` with the live statistics of the crawl in JSON.
+ * It listens on the loopback address only, and serves one request at a time.
+ */
+public class StatsServer {
+    private final CrawlStats stats;
+    private final int port;
+    private HttpServer httpServer;
+
+    /**
+     * Construct a server with given settings.
+     * @param stats The statistics to serve.
+     * @param port  The port to listen on.
+     */
+    public StatsServer(CrawlStats stats, int port) {
+        this.stats = stats;
+        this.port = port;
+    }
+
+    private void handle(HttpExchange httpExchange) throws IOException {
+        byte[] bytes;
+        int httpStatusCode;
+        if (!httpExchange.getRequestMethod().equals("GET")) {
+            httpStatusCode = 405;
+            bytes = new byte[0];
+        } else {
+            httpStatusCode = 200;
+            bytes = stats.toJSON().toString(2).getBytes(StandardCharsets.UTF_8);
+        }
+
+        httpExchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        httpExchange.sendResponseHeaders(httpStatusCode, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream os = httpExchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    /**
+     * Start the server.
+     * @throws IOException If the port cannot be listened on.
+     */
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        httpServer.createContext("/stats", this::handle);
+        httpServer.start();
+        System.out.println("StatsServer is serving at http://localhost:" + port + "/stats.");
+    }
+
+    /**
+     * Stop the server, if started.
+     */
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package edu.ucr.cs242.crawler;
+
+import org.jsoup.helper.StringUtil;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.Tag;
+
+import java.net.URL;
+import java.util.*;
+
+/**
+ * Extract the page in a single streaming pass over the raw HTML, without building the document tree.
+ * The tokens are fed to a stack of open elements that follows the tree building rules of jsoup closely enough
+ * for Wikipedia pages, so the output is identical to the DOM extractor. Only the regions of interest are kept:
+ * the title, the content (with unwanted subtrees skipped as they stream by), the categories, and the footer.
+ * The pass stops once the footer is closed, so the scripts at the end of the page are never tokenized.
+ */
+public class StreamingExtractor extends PageExtractor {
+    /**
+     * The start of these tags closes an open p.
+     */
+    private static final Set<String> CLOSES_P = new HashSet<>(Arrays.asList(
+            "address", "article", "aside", "blockquote", "center", "details", "dialog", "dir", "div", "dl",
+            "fieldset", "figcaption", "figure", "footer", "header", "hgroup", "main", "menu", "nav", "ol", "p",
+            "section", "summary", "ul", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "listing", "form", "table",
+            "hr", "xmp", "plaintext"));
+    /**
+     * The search for an open p stops at these tags.
+     */
+    private static final Set<String> BUTTON_SCOPE = new HashSet<>(Arrays.asList(
+            "applet", "caption", "html", "marquee", "object", "table", "td", "th", "button", "template"));
+    /**
+     * The search for an open li, dd or dt stops at these tags.
+     */
+    private static final Set<String> LIST_SCOPE = new HashSet<>(Arrays.asList(
+            "ul", "ol", "dl", "menu", "dir", "table", "td", "th", "blockquote", "body", "html"));
+    private static final Set<String> HEADINGS = new HashSet<>(Arrays.asList(
+            "h1", "h2", "h3", "h4", "h5", "h6"));
+    private static final Set<String> SINGLETONS = new HashSet<>(Arrays.asList(
+            "html", "head", "body"));
+    /**
+     * The text of these tags is not decoded, and the text of script and style is not text at all.
+     */
+    private static final Set<String> RAW_TEXT_TAGS = new HashSet<>(Arrays.asList(
+            "script", "style", "xmp", "iframe", "noembed", "noframes"));
+    private static final Set<String> DATA_TAGS = new HashSet<>(Arrays.asList(
+            "script", "style"));
+    private static final Set<String> RCDATA_TAGS = new HashSet<>(Arrays.asList(
+            "textarea", "title"));
+
+    /**
+     * Construct an extractor with given settings.
+     * @param crawlHostRegex The url to be crawled should be within this host.
+     * @param crawlPathRegex The path of the url should start with this prefix.
+     */
+    public StreamingExtractor(String crawlHostRegex, String crawlPathRegex) {
+        super(crawlHostRegex, crawlPathRegex);
+    }
+
+    @Override
+    public Result extract(String html, URL actualUrl) {
+        Pass pass = new Pass(html);
+        pass.run();
+
+        if (pass.titleText == null || pass.content == null || pass.catlinks == null)
+            return null;
+
+        String title = pass.titleText.toString().trim();
+        String content = pass.contentOf();
+        List<String> categories = new ArrayList<>(pass.categories.size());
+        for (StringBuilder category : pass.categories) {
+            categories.add(category.toString().trim());
+        }
+
+        // We won't store empty page.
+        if (content.isEmpty() || categories.isEmpty())
+            return null;
+
+        return buildResult(title, content, categories, parseLastModify(pass.lastModHtml), pass.links, actualUrl);
+    }
+
+    /**
+     * An open element.
+     */
+    private static class Frame {
+        private final String tag;
+        /**
+         * The position in the content text and links where this element begins, if kept in the content.
+         */
+        private int textStart, linkStart;
+        private boolean kept = false;
+        private boolean contentText = false;
+        /**
+         * The normalized text of the title or a category.
+         */
+        private StringBuilder text;
+        /**
+         * The last kept child element, for removing a heading followed by the same heading.
+         */
+        private String lastChildTag;
+        private int lastChildTextStart, lastChildTextEnd, lastChildLinkStart, lastChildLinkEnd;
+
+        public Frame(String tag) {
+            this.tag = tag;
+        }
+    }
+
+    /**
+     * The state of a single pass over a page.
+     */
+    private static class Pass {
+        private final String html;
+        private final int length;
+        private int pos = 0;
+        /**
+         * The beginning of the current tag, where the implicitly closed elements end.
+         */
+        private int tagStart = 0;
+        private final List<Frame> stack = new ArrayList<>();
+
+        // The title (#firstHeading).
+        private Frame title;
+        private boolean inTitle = false;
+        private StringBuilder titleText;
+        // The content (#mw-content-text .mw-parser-output).
+        private int contentTextDepth = 0;
+        private Frame content;
+        private boolean inContent = false;
+        private Frame skipped;
+        private final StringBuilder contentText = new StringBuilder();
+        private final List<String> links = new ArrayList<>();
+        /**
+         * The text ranges of the kept children of the content, as {start, end}.
+         */
+        private final List<int[]> children = new ArrayList<>();
+        // The categories (#mw-normal-catlinks ul > li).
+        private Frame catlinks;
+        private boolean inCatlinks = false;
+        private final List<StringBuilder> categories = new ArrayList<>();
+        // The footer (#footer-info-lastmod).
+        private Frame lastMod;
+        private int lastModStart;
+        private String lastModHtml;
+        /**
+         * The normalized texts being collected, from the outermost.
+         */
+        private final List<StringBuilder> openTexts = new ArrayList<>();
+
+        public Pass(String html) {
+            this.html = html;
+            this.length = html.length();
+        }
+
+        public String contentOf() {
+            StringJoiner joiner = new StringJoiner("\n");
+            for (int[] child : children) {
+                // We don't need empty elements (that is with no text).
+                if (!isBlank(contentText, child[0], child[1]))
+                    joiner.add(contentText.substring(child[0], child[1]).trim());
+            }
+            return joiner.toString();
+        }
+
+        private static boolean isBlank(CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (!StringUtil.isWhitespace(text.charAt(i)))
+                    return false;
+            }
+            return true;
+        }
+
+        private boolean isFinished() {
+            return lastModHtml != null && title != null && !inTitle &&
+                    content != null && !inContent && catlinks != null && !inCatlinks;
+        }
+
+        public void run() {
+            while (pos < length && !isFinished()) {
+                int lt = html.indexOf('<', pos);
+                if (lt < 0) {
+                    text(html.substring(pos), true);
+                    pos = length;
+                    break;
+                }
+                if (lt > pos) text(html.substring(pos, lt), true);
+                pos = lt;
+                markup();
+            }
+            // All elements left open are closed at the end of the document.
+            popTo(0, pos);
+        }
+
+        private void markup() {
+            int start = tagStart = pos;
+            if (html.startsWith("<!--", start)) {
+                int end = html.indexOf("-->", start + 4);
+                pos = end < 0 ? length : end + 3;
+            } else if (html.startsWith("<!", start) || html.startsWith("<?", start)) {
+                int end = html.indexOf('>', start);
+                pos = end < 0 ? length : end + 1;
+            } else if (html.startsWith("</", start)) {
+                if (start + 2 < length && Character.isLetter(html.charAt(start + 2))) {
+                    int nameEnd = scanName(start + 2);
+                    String name = html.substring(start + 2, nameEnd).toLowerCase(Locale.ROOT);
+                    int end = html.indexOf('>', nameEnd);
+                    pos = end < 0 ? length : end + 1;
+                    endTag(name, start);
+                } else {
+                    // Not a tag, skipped as a bogus comment.
+                    int end = html.indexOf('>', start);
+                    pos = end < 0 ? length : end + 1;
+                }
+            } else if (start + 1 < length && Character.isLetter(html.charAt(start + 1))) {
+                startTag();
+            } else {
+                // A single < is just text.
+                text("<", false);
+                pos = start + 1;
+            }
+        }
+
+        private int scanName(int i) {
+            while (i < length) {
+                char c = html.charAt(i);
+                if (isSpace(c) || c == '/' || c == '>') break;
+                ++i;
+            }
+            return i;
+        }
+
+        private static boolean isSpace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\f' || c == '\r';
+        }
+
+        private void startTag() {
+            int nameEnd = scanName(pos + 1);
+            String name = html.substring(pos + 1, nameEnd).toLowerCase(Locale.ROOT);
+            String id = null, cls = null, href = null;
+            boolean selfClosing = false;
+
+            int i = nameEnd;
+            while (true) {
+                while (i < length && isSpace(html.charAt(i))) ++i;
+                if (i >= length) break;
+
+                char c = html.charAt(i);
+                if (c == '>') { ++i; break; }
+                if (c == '/') {
+                    if (i + 1 < length && html.charAt(i + 1) == '>') { selfClosing = true; i += 2; break; }
+                    ++i;
+                    continue;
+                }
+
+                int attrStart = i;
+                while (i < length) {
+                    c = html.charAt(i);
+                    if (isSpace(c) || c == '/' || c == '=' || c == '>') break;
+                    ++i;
+                }
+                String attr = html.substring(attrStart, i);
+                String value = "";
+
+                while (i < length && isSpace(html.charAt(i))) ++i;
+                if (i < length && html.charAt(i) == '=') {
+                    ++i;
+                    while (i < length && isSpace(html.charAt(i))) ++i;
+                    if (i < length && (html.charAt(i) == '"' || html.charAt(i) == '\'')) {
+                        int close = html.indexOf(html.charAt(i), i + 1);
+                        if (close < 0) close = length;
+                        value = html.substring(i + 1, close);
+                        i = Math.min(length, close + 1);
+                    } else {
+                        int valueStart = i;
+                        while (i < length && !isSpace(html.charAt(i)) && html.charAt(i) != '>') ++i;
+                        value = html.substring(valueStart, i);
+                    }
+                }
+
+                // Only a few attributes matter, the last one wins as in jsoup.
+                if (attr.equalsIgnoreCase("id")) id = decode(value, true);
+                else if (attr.equalsIgnoreCase("class")) cls = decode(value, true);
+                else if (attr.equalsIgnoreCase("href")) href = decode(value, true);
+            }
+            pos = i;
+
+            if (SINGLETONS.contains(name) && find(name, stack.size(), null) >= 0)
+                return;
+
+            push(name, id, cls, href);
+            // As in jsoup, a self-closing tag is always empty, even if it is not a void element.
+            if (selfClosing || Tag.valueOf(name).isEmpty()) {
+                pop(pos);
+            } else if (RAW_TEXT_TAGS.contains(name) || RCDATA_TAGS.contains(name)) {
+                // Everything up to the end tag is text.
+                int end = findEndTag(name, pos);
+                if (!DATA_TAGS.contains(name))
+                    text(html.substring(pos, end), RCDATA_TAGS.contains(name));
+                pos = end;
+            } else if (name.equals("plaintext")) {
+                text(html.substring(pos), false);
+                pos = length;
+            }
+        }
+
+        private int findEndTag(String name, int from) {
+            int i = from;
+            while ((i = html.indexOf("</", i)) >= 0) {
+                int nameEnd = i + 2 + name.length();
+                if (html.regionMatches(true, i + 2, name, 0, name.length()) &&
+                        (nameEnd >= length || isSpace(html.charAt(nameEnd)) ||
+                                html.charAt(nameEnd) == '/' || html.charAt(nameEnd) == '>'))
+                    return i;
+                i += 2;
+            }
+            return length;
+        }
+
+        private void endTag(String name, int start) {
+            // The end of body and html does not close them, anything after is still in the body.
+            if (name.equals("body") || name.equals("html"))
+                return;
+
+            if (name.equals("br")) {
+                push("br", null, null, null);
+                pop(start);
+            } else if (name.equals("p") && find("p", stack.size(), BUTTON_SCOPE) < 0) {
+                // A stray </p> makes an empty p.
+                push("p", null, null, null);
+                pop(start);
+            } else {
+                int index = find(name, stack.size(), null);
+                if (index >= 0) popTo(index, start);
+            }
+        }
+
+        /**
+         * Find the innermost open element with the tag.
+         * @return The index in the stack, or -1 if not found before reaching a tag in the scope.
+         */
+        private int find(String name, int from, Set<String> scope) {
+            for (int i = from - 1; i >= 0; i--) {
+                String tag = stack.get(i).tag;
+                if (tag.equals(name)) return i;
+                if (scope != null && scope.contains(tag)) return -1;
+            }
+            return -1;
+        }
+
+        private void closeImplied(String name) {
+            if (CLOSES_P.contains(name)) {
+                int p = find("p", stack.size(), BUTTON_SCOPE);
+                if (p >= 0) popTo(p, tagStart);
+            }
+
+            if (HEADINGS.contains(name) && !stack.isEmpty() && HEADINGS.contains(stack.get(stack.size() - 1).tag)) {
+                pop(tagStart);
+            } else if (name.equals("li")) {
+                int li = find("li", stack.size(), LIST_SCOPE);
+                if (li >= 0) popTo(li, tagStart);
+            } else if (name.equals("dd") || name.equals("dt")) {
+                for (int i = stack.size() - 1; i >= 0; i--) {
+                    String tag = stack.get(i).tag;
+                    if (tag.equals("dd") || tag.equals("dt")) { popTo(i, tagStart); break; }
+                    if (LIST_SCOPE.contains(tag)) break;
+                }
+            }
+        }
+
+        private Frame push(String name, String id, String cls, String href) {
+            closeImplied(name);
+
+            Frame parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+            Frame frame = new Frame(name);
+
+            // Element.text() separates the text of block elements and br by a space.
+            if (!openTexts.isEmpty() && (name.equals("br") || Tag.valueOf(name).isBlock())) {
+                for (StringBuilder text : openTexts) {
+                    if (text.length() > 0 && text.charAt(text.length() - 1) != ' ') text.append(' ');
+                }
+            }
+
+            if (title == null && "firstHeading".equals(id)) {
+                title = frame;
+                inTitle = true;
+                titleText = frame.text = new StringBuilder();
+                openTexts.add(frame.text);
+            }
+
+            if (content == null && contentTextDepth > 0 && hasClass(cls, "mw-parser-output")) {
+                content = frame;
+                inContent = true;
+            } else if (inContent && skipped == null) {
+                if (isSkipped(name, cls)) {
+                    skipped = frame;
+                } else {
+                    // Remove empty headings with no paragraphs below it.
+                    if (HEADINGS.contains(name) && name.equals(parent.lastChildTag)) {
+                        contentText.delete(parent.lastChildTextStart, parent.lastChildTextEnd);
+                        links.subList(parent.lastChildLinkStart, parent.lastChildLinkEnd).clear();
+                        if (parent == content) children.remove(children.size() - 1);
+                        parent.lastChildTag = null;
+                    }
+
+                    frame.kept = true;
+                    frame.textStart = contentText.length();
+                    frame.linkStart = links.size();
+                    if (name.equals("a") && href != null) links.add(href);
+                }
+            }
+            if ("mw-content-text".equals(id)) {
+                frame.contentText = true;
+                ++contentTextDepth;
+            }
+
+            if (catlinks == null && "mw-normal-catlinks".equals(id)) {
+                catlinks = frame;
+                inCatlinks = true;
+            } else if (inCatlinks && name.equals("li") && parent != catlinks && parent.tag.equals("ul")) {
+                frame.text = new StringBuilder();
+                categories.add(frame.text);
+                openTexts.add(frame.text);
+            }
+
+            if (lastMod == null && "footer-info-lastmod".equals(id)) {
+                lastMod = frame;
+                lastModStart = pos;
+            }
+
+            stack.add(frame);
+            return frame;
+        }
+
+        private static boolean isSkipped(String name, String cls) {
+            switch (name) {
+                // Remove unused tags (table & div).
+                case "table":
+                case "div":
+                    return true;
+                // Remove all reference <sup>s.
+                case "sup":
+                    return cls != null && cls.trim().equalsIgnoreCase("reference");
+                // Remove the `edit` links.
+                case "span":
+                    return cls != null && cls.trim().equalsIgnoreCase("mw-editsection");
+                default:
+                    return false;
+            }
+        }
+
+        private static boolean hasClass(String cls, String name) {
+            if (cls == null) return false;
+            for (String token : cls.split("[ \t\n\f\r]+")) {
+                if (token.equalsIgnoreCase(name)) return true;
+            }
+            return false;
+        }
+
+        private void popTo(int index, int end) {
+            while (stack.size() > index) pop(end);
+        }
+
+        private void pop(int end) {
+            Frame frame = stack.remove(stack.size() - 1);
+            Frame parent = stack.isEmpty() ? null : stack.get(stack.size() - 1);
+
+            if (frame.text != null) openTexts.remove(openTexts.size() - 1);
+            if (frame == title) inTitle = false;
+            if (frame == content) inContent = false;
+            if (frame == catlinks) inCatlinks = false;
+            if (frame == skipped) skipped = null;
+            if (frame == lastMod) lastModHtml = html.substring(lastModStart, Math.max(lastModStart, end));
+
+            if (frame.kept) {
+                parent.lastChildTag = frame.tag;
+                parent.lastChildTextStart = frame.textStart;
+                parent.lastChildTextEnd = contentText.length();
+                parent.lastChildLinkStart = frame.linkStart;
+                parent.lastChildLinkEnd = links.size();
+                if (parent == content) children.add(new int[] { frame.textStart, contentText.length() });
+            }
+            if (frame.contentText) --contentTextDepth;
+        }
+
+        private static String decode(String text, boolean inAttribute) {
+            return text.indexOf('&') < 0 ? text : Parser.unescapeEntities(text, inAttribute);
+        }
+
+        private void text(String raw, boolean decode) {
+            if (raw.isEmpty() || (!inContent && openTexts.isEmpty()))
+                return;
+
+            String text = decode ? decode(raw, false) : raw;
+            if (inContent && skipped == null) contentText.append(text);
+            for (StringBuilder normalized : openTexts) {
+                StringUtil.appendNormalisedWhitespace(normalized, text,
+                        normalized.length() > 0 && normalized.charAt(normalized.length() - 1) == ' ');
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package edu.ucr.cs242.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local stub of Wikipedia, serving generated pages in the same layout as the real site,
+ * so that the crawler can be load-tested offline.
+ * Pages carry ETag and Last-Modified, and conditional requests are answered with 304.
+ * Each edition changes a tenth of the pages, to simulate the edits between two crawls.
+ * Responses are gzipped when the client accepts it, as the real site does. The connections and the bytes
+ * sent are counted, to tell what the client reuses and what compression saves.
+ */
+public class StubWikiServer {
+    private static final String WIKI_PREFIX = "/wiki/";
+    private static final String RANDOM_PAGE = "Special:Random";
+    /**
+     * The Last-Modified of the first revision of all pages.
+     */
+    private static final ZonedDateTime LAST_MODIFIED_BASE = ZonedDateTime.of(2018, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private final int port;
+    private final int numOfPages;
+    private final int numOfLinks;
+    private final int latency;
+    private final int edition;
+    private final AtomicLong requestCount = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    // The remote address of a connection, i.e. the port of the client, is unique while it is open.
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private HttpServer httpServer;
+    private ExecutorService executor;
+
+    class PageHandler implements HttpHandler {
+        private void writeResponse(HttpExchange httpExchange, int httpStatusCode, String contentType, String body)
+                throws IOException {
+            byte bytes[] = body.getBytes("utf-8");
+            httpExchange.getResponseHeaders().set("Content-Type", contentType);
+            String acceptEncoding = httpExchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (bytes.length > 0 && acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(bytes);
+                }
+                bytes = compressed.toByteArray();
+                httpExchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            httpExchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+            bytesSent.addAndGet(bytes.length);
+            httpExchange.sendResponseHeaders(httpStatusCode, bytes.length == 0 ? -1 : bytes.length);
+            OutputStream os = httpExchange.getResponseBody();
+            os.write(bytes);
+            os.close();
+        }
+
+        @Override
+        public void handle(HttpExchange httpExchange) throws IOException {
+            requestCount.incrementAndGet();
+            connections.add(httpExchange.getRemoteAddress());
+            String path = httpExchange.getRequestURI().getPath();
+
+            // Simulate the network latency.
+            if (latency > 0) {
+                try { Thread.sleep(latency); }
+                catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+            }
+
+            if (path.equals("/robots.txt")) {
+                writeResponse(httpExchange, 200, "text/plain; charset=utf-8",
+                        "User-agent: *\nDisallow: /w/\n");
+            } else if (path.equals(WIKI_PREFIX + RANDOM_PAGE)) {
+                int pageId = ThreadLocalRandom.current().nextInt(numOfPages);
+                httpExchange.getResponseHeaders().set("Location", WIKI_PREFIX + "Page_" + pageId);
+                writeResponse(httpExchange, 302, "text/html; charset=utf-8", "");
+            } else if (path.startsWith(WIKI_PREFIX + "Page_")) {
+                try {
+                    int pageId = Integer.parseInt(path.substring((WIKI_PREFIX + "Page_").length()));
+                    if (pageId >= 0 && pageId < numOfPages) {
+                        int revision = revisionOf(pageId);
+                        String etag = "\"" + pageId + "-" + revision + "\"";
+                        ZonedDateTime lastModified = LAST_MODIFIED_BASE.plusDays(revision);
+
+                        httpExchange.getResponseHeaders().set("ETag", etag);
+                        httpExchange.getResponseHeaders().set("Last-Modified",
+                                DateTimeFormatter.RFC_1123_DATE_TIME.format(lastModified));
+                        if (isNotModified(httpExchange, etag, lastModified)) {
+                            writeResponse(httpExchange, 304, "text/html; charset=utf-8", "");
+                        } else {
+                            writeResponse(httpExchange, 200, "text/html; charset=utf-8", renderPage(pageId));
+                        }
+                        return;
+                    }
+                } catch (NumberFormatException e) {
+                    // Fall through to 404.
+                }
+                writeResponse(httpExchange, 404, "text/html; charset=utf-8", "<html><body>Not Found</body></html>");
+            } else {
+                writeResponse(httpExchange, 404, "text/html; charset=utf-8", "<html><body>Not Found</body></html>");
+            }
+        }
+    }
+
+    private static boolean isNotModified(HttpExchange httpExchange, String etag, ZonedDateTime lastModified) {
+        // If-None-Match takes precedence over If-Modified-Since.
+        String ifNoneMatch = httpExchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null)
+            return ifNoneMatch.equals(etag);
+
+        String ifModifiedSince = httpExchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try { return !lastModified.isAfter(ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)); }
+            catch (DateTimeParseException e) { return false; }
+        }
+        return false;
+    }
+
+    /**
+     * Construct a stub server with given settings.
+     * @param port       The port to listen on.
+     * @param numOfPages The number of distinct pages served.
+     * @param numOfLinks The number of outgoing links per page.
+     * @param latency    The delay before each response (milliseconds).
+     * @param edition    The edition of the pages, each edition changes a tenth of the pages.
+     */
+    public StubWikiServer(int port, int numOfPages, int numOfLinks, int latency, int edition) {
+        this.port = port;
+        this.numOfPages = numOfPages;
+        this.numOfLinks = numOfLinks;
+        this.latency = latency;
+        this.edition = edition;
+    }
+
+    /**
+     * @return The revision of a page in the current edition, which increases every ten editions.
+     */
+    private int revisionOf(int pageId) {
+        return (edition + pageId % 10) / 10;
+    }
+
+    /**
+     * Render a page. The same page id always results in the same page.
+     * @param pageId The page id.
+     * @return The HTML of the page.
+     */
+    String renderPage(int pageId) {
+        Random random = new Random(pageId);
+        StringBuilder html = new StringBuilder(16384);
+
+        html.append("<!DOCTYPE html><html><head><title>Page ").append(pageId).append(" - Wikipedia</title></head><body>");
+        html.append("<h1 id=\"firstHeading\" class=\"firstHeading\">Page ").append(pageId).append("</h1>");
+        html.append("<div id=\"mw-content-text\"><div class=\"mw-parser-output\">");
+        html.append("<table class=\"infobox\"><tr><td>Infobox of page ").append(pageId).append("</td></tr></table>");
+
+        for (int i = 0; i < numOfLinks; i++) {
+            if (i % 5 == 0) {
+                if (i > 0) html.append("</p>");
+                if (i % 20 == 0) {
+                    html.append("<h2><span class=\"mw-headline\">Section ").append(i / 20).append("</span>")
+                            .append("<span class=\"mw-editsection\">[edit]</span></h2>");
+                }
+                html.append("<p>");
+            }
+
+            int target = random.nextInt(numOfPages);
+            html.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit, sed do eiusmod tempor ")
+                    .append("<a href=\"/wiki/Page_").append(target).append("\" title=\"Page ").append(target)
+                    .append("\">page ").append(target).append("</a>")
+                    .append(" incididunt ut labore et dolore magna aliqua.")
+                    .append("<sup class=\"reference\"><a href=\"#cite_note-").append(i).append("\">[")
+                    .append(i + 1).append("]</a></sup> ");
+        }
+        html.append("</p><p>Revision ").append(revisionOf(pageId)).append(" of page ").append(pageId).append(".</p>");
+        html.append("<div class=\"navbox\">Navigation box</div></div></div>");
+
+        html.append("<div id=\"catlinks\"><div id=\"mw-normal-catlinks\"><ul>");
+        html.append("<li><a href=\"/wiki/Category:Group_").append(pageId % 100).append("\">Group ")
+                .append(pageId % 100).append("</a></li>");
+        html.append("<li><a href=\"/wiki/Category:Stub_pages\">Stub pages</a></li>");
+        html.append("</ul></div></div>");
+
+        html.append("<ul id=\"footer-info\"><li id=\"footer-info-lastmod\"> This page was last edited on ")
+                .append(1 + pageId % 28).append(" January 2018, at 21:30.</li></ul>");
+        html.append("</body></html>");
+        return html.toString();
+    }
+
+    /**
+     * Start serving, silently.
+     * @throws IOException
+     */
+    public void listen() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+        httpServer.createContext("/", new PageHandler());
+        // Requests are delayed by sleeping, thus every request needs its own thread.
+        executor = Executors.newCachedThreadPool();
+        httpServer.setExecutor(executor);
+        httpServer.start();
+    }
+
+    /**
+     * Stop serving, closing all connections.
+     */
+    public void stop() {
+        httpServer.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * @return The port listening on, which is chosen by the system if 0 is given.
+     */
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return The number of connections accepted.
+     */
+    public long getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return The number of bytes of the response bodies sent, as on the wire.
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public void start() {
+        try {
+            listen();
+
+            System.out.println("StubWikiServer started (listening on " + port + "). " +
+                    "Pages: " + numOfPages + ", links per page: " + numOfLinks + ", latency: " + latency + " ms.");
+            System.out.println("Entry url: http://localhost:" + port + WIKI_PREFIX + RANDOM_PAGE);
+            System.out.println("Press Ctrl+C to terminate.");
+        } catch (IOException e) {
+            System.out.println("StubWikiServer throws an IOException: " + e.getMessage());
+        }
+
+        // Handle Ctrl+C
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Stopping server...");
+            httpServer.stop(0);
+            System.out.format("Summary: StubWikiServer served %d requests over %d connections, %.2f MB sent.%n",
+                    requestCount.get(), connections.size(), bytesSent.get() / 1048576.0);
+        }));
+    }
+
+    private static void printMessage(String message) {
+        System.out.println("stubserver: " + message);
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("stubserver [options]", options);
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+        final int PORT = 10484;
+        final int NUMBER_OF_PAGES = 1000000;
+        final int NUMBER_OF_LINKS = 100;
+        final int LATENCY = 200;
+        final int EDITION = 0;
+
+        Options options = new Options();
+        options.addOption(Option.builder("p")
+                .longOpt("port")
+                .argName("PORT")
+                .desc("the port to listen on (default: " + PORT + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("c")
+                .longOpt("pages")
+                .argName("NUM OF PAGES")
+                .desc("the number of distinct pages served (default: " + NUMBER_OF_PAGES + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("k")
+                .longOpt("links")
+                .argName("NUM OF LINKS")
+                .desc("the number of outgoing links per page (default: " + NUMBER_OF_LINKS + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("L")
+                .longOpt("latency")
+                .argName("LATENCY")
+                .desc("the delay (milliseconds) before each response (default: " + LATENCY + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption(Option.builder("e")
+                .longOpt("edition")
+                .argName("EDITION")
+                .desc("the edition of the pages, each edition changes a tenth of the pages (default: " + EDITION + ")")
+                .numberOfArgs(1)
+                .build());
+
+        options.addOption("h", "help", false, "print a synopsis of standard options");
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+
+            if (cmd.hasOption("h")) {
+                printHelp(options);
+                System.exit(0);
+            }
+
+            try {
+                int port = Integer.parseInt(cmd.getOptionValue("port", String.valueOf(PORT)));
+                int numOfPages = Integer.parseInt(cmd.getOptionValue("pages", String.valueOf(NUMBER_OF_PAGES)));
+                int numOfLinks = Integer.parseInt(cmd.getOptionValue("links", String.valueOf(NUMBER_OF_LINKS)));
+                int latency = Integer.parseInt(cmd.getOptionValue("latency", String.valueOf(LATENCY)));
+                int edition = Integer.parseInt(cmd.getOptionValue("edition", String.valueOf(EDITION)));
+
+                new StubWikiServer(port, numOfPages, numOfLinks, latency, edition).start();
+            } catch (NumberFormatException e) {
+                printMessage("invalid option(s)");
+                printHelp(options);
+                System.exit(1);
+            }
+        } catch (ParseException e) {
+            // Lower the first letter, which as default is an upper letter.
+            printMessage(e.getMessage().substring(0, 1).toLowerCase() + e.getMessage().substring(1));
+            printHelp(options);
+            System.exit(1);
+        }
+    }
+}
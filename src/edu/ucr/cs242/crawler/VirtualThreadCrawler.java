@@ -0,0 +1,334 @@
+package edu.ucr.cs242.crawler;
+
+import edu.ucr.cs242.Utility;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDateTime;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The crawler running one virtual thread per url in flight.
+ * Each task waits for its politeness slot, fetches, parses and enqueues the next urls in plain blocking code,
+ * while the number of tasks alive is bounded by a semaphore. The pages are handed over to a single writer,
+ * so no task ever waits for the database. On a JVM without virtual threads, a cached pool of platform threads is used.
+ */
+public class VirtualThreadCrawler {
+    private final VisitedSet visitedUrls;
+    private final int numOfPages;
+    private final int crawlDepth;
+    private final HostScheduler scheduler;
+    private final Frontier frontier;
+    private final String entryUrl;
+    private final PageExtractor extractor;
+    private final RobotPolicy robotPolicy;
+    private final int concurrency;
+    private final PageValidators validators;
+
+    private final Semaphore inFlight;
+    private final AtomicInteger crawlCount = new AtomicInteger(0);
+    private final AtomicInteger fetchCount = new AtomicInteger(0);
+    private final AtomicInteger notModifiedCount = new AtomicInteger(0);
+
+    private final ExecutorService taskExecutor;
+    private final boolean virtual;
+    private final HttpFetcher fetcher;
+    private final WriterThread writer;
+    private final CrawlGate gate;
+    private final CrawlStats stats;
+    private final WarcWriter warc;
+    private final RedirectMap redirects;
+
+    /**
+     * Construct a crawler with given settings.
+     * @param visitedUrls   The set of visited urls, shared by all tasks.
+     * @param numOfPages    The number of web pages to crawl.
+     * @param crawlDepth    The depth of web pages to crawl.
+     * @param scheduler     The politeness scheduler.
+     * @param frontier      The crawl frontier.
+     * @param entryUrl      The url of the entry page.
+     * @param fetcher       The HTTP client, shared by all tasks.
+     * @param extractor     The extractor to parse the crawled pages.
+     * @param writer        The writer to persist the pages.
+     * @param gate          The gate closed when taking checkpoints.
+     * @param stats         The statistics of the crawl.
+     * @param warc          The archive of the responses, or null if not archiving.
+     * @param redirects     The redirects resolved so far, shared by all tasks.
+     * @param robotPolicy   The policy the crawler should obey.
+     * @param concurrency   The maximum number of urls in flight.
+     * @param validators    The validators of the stored pages to re-crawl, or null if not re-crawling.
+     */
+    public VirtualThreadCrawler(VisitedSet visitedUrls, int numOfPages, int crawlDepth,
+                                HostScheduler scheduler, Frontier frontier,
+                                String entryUrl, HttpFetcher fetcher, PageExtractor extractor, WriterThread writer, CrawlGate gate,
+                                CrawlStats stats, WarcWriter warc, RedirectMap redirects, RobotPolicy robotPolicy,
+                                int concurrency, PageValidators validators) {
+        this.visitedUrls = visitedUrls;
+        this.numOfPages = numOfPages;
+        this.crawlDepth = crawlDepth;
+        this.scheduler = scheduler;
+        this.frontier = frontier;
+        this.entryUrl = entryUrl;
+        this.extractor = extractor;
+        this.robotPolicy = robotPolicy;
+        this.concurrency = concurrency;
+        this.validators = validators;
+
+        ExecutorService executor = newVirtualThreadExecutor();
+        this.virtual = executor != null;
+        this.taskExecutor = virtual ? executor : Executors.newCachedThreadPool();
+        this.inFlight = new Semaphore(concurrency);
+        this.fetcher = fetcher;
+        this.writer = writer;
+        this.gate = gate;
+        this.stats = stats;
+        this.warc = warc;
+        this.redirects = redirects;
+    }
+
+    /**
+     * Create an executor starting a virtual thread per task.
+     * It is looked up by reflection, as virtual threads are only available since Java 21.
+     * @return The executor, or null if virtual threads are not available.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Enqueue an url failed to crawl once more, unless it is the entry url, which is crawled again anyway.
+     */
+    private void retry(QueueItem nextUrl, long delay) {
+        if (!nextUrl.getUrl().equals(entryUrl)) frontier.retry(nextUrl, delay);
+    }
+
+    private void crawl(QueueItem nextUrl, URL url) throws URISyntaxException, IOException, InterruptedException {
+        // Be polite, wait for the next free slot of the host. Only this task is blocked.
+        long begin = System.nanoTime();
+        scheduler.acquire(url);
+        stats.recordSince(CrawlStats.Stage.POLITENESS, begin);
+        // The budget may be exhausted while waiting.
+        if (crawlCount.get() >= numOfPages)
+            return;
+
+        HttpRequest.Builder builder = fetcher.newRequest(new URI(nextUrl.getUrl()));
+        if (validators != null) validators.getConditionalHeaders(nextUrl.getUrl()).forEach(builder::header);
+        HttpRequest request = builder.GET().build();
+
+        CrawlStats.TimedBodyHandler bodyHandler = stats.newBodyHandler(fetcher.newBodyHandler());
+        HttpResponse<String> response;
+        try {
+            response = fetcher.send(request, bodyHandler);
+        } catch (IOException e) {
+            scheduler.onFailure(url.getHost());
+            retry(nextUrl, 0);
+            throw e;
+        }
+        bodyHandler.finish();
+        scheduler.onResponse(url.getHost(), response.statusCode(), bodyHandler.getFirstByteLatency());
+        // Not modified since the last crawl, nothing to parse.
+        if (response.statusCode() == 304) {
+            notModifiedCount.incrementAndGet();
+            crawlCount.incrementAndGet();
+            return;
+        }
+        if (response.statusCode() != 200) {
+            System.out.println("VirtualThreadCrawler reports HTTP " + response.statusCode() + ": " + response.uri());
+            if (HostScheduler.isRetryable(response.statusCode())) {
+                // Hold the host as asked, and the url at least as long.
+                long retryAfter = HostScheduler.parseRetryAfter(
+                        response.headers().firstValue("Retry-After").orElse(null));
+                scheduler.pause(url.getHost(), retryAfter);
+                retry(nextUrl, retryAfter);
+            }
+            return;
+        }
+        // Not a page, e.g. an image, left unread.
+        if (response.body() == null)
+            return;
+        fetchCount.incrementAndGet();
+
+        // Since Special:Random returns 302, the actual url should be parsed after redirect.
+        URL actualUrl = response.uri().toURL();
+
+        // The redirected url may a special page, filter them out first.
+        if (!extractor.isCrawlable(actualUrl))
+            return;
+
+        // When sharded, a page redirected into another shard is left to its owner.
+        if (!frontier.owns(PageExtractor.normalize(actualUrl))) {
+            frontier.offer(PageExtractor.normalize(actualUrl), nextUrl.getDepth(), nextUrl.getCash());
+            return;
+        }
+
+        // Remove the anchor part.
+        visitedUrls.add(PageExtractor.normalize(actualUrl));
+        if (warc != null) warc.writeResponse(actualUrl.toString(), 200, response.headers().map(), response.body());
+
+        begin = System.nanoTime();
+        PageExtractor.Result result = extractor.extract(response.body(), actualUrl);
+        stats.recordSince(CrawlStats.Stage.PARSE, begin);
+        if (result == null)
+            return;
+
+        // A redirect serves the page under another url, the page is stored under its own, unless it is already.
+        if (result.getRedirectedFrom() != null) {
+            redirects.add(PageExtractor.normalize(actualUrl), result.getUrl());
+            writer.putRedirect(result.getRedirectedFrom(), result.getPage().getTitle(),
+                    PageExtractor.normalize(actualUrl));
+            if (!visitedUrls.add(result.getUrl())) return;
+        }
+
+        // The budget may be exhausted by other tasks.
+        if (crawlCount.incrementAndGet() > numOfPages)
+            return;
+
+        // Put into writing queue
+        writer.put(result.getPage().withValidators(result.getUrl(),
+                response.headers().firstValue("ETag").orElse(null),
+                response.headers().firstValue("Last-Modified").orElse(null)));
+
+        // Hit the depth limit?
+        if (nextUrl.getDepth() >= crawlDepth)
+            return;
+
+        // The cash of the page is shared among all its links, the visited ones included (OPIC).
+        double share = nextUrl.getCash() / Math.max(1, result.getNextUrls().size());
+        // The known redirects are replaced by the urls they redirect to, thus never fetched.
+        result.getNextUrls().stream().map(redirects::resolve).filter(next -> !visitedUrls.contains(next))
+                .forEachOrdered(next -> frontier.offer(next, nextUrl.getDepth() + 1, share));
+    }
+
+    /**
+     * Let a url out of the semaphore and the gate.
+     */
+    private void release() {
+        inFlight.release();
+        gate.exit();
+    }
+
+    private Runnable createTask(QueueItem nextUrl, URL url) {
+        return () -> {
+            try {
+                crawl(nextUrl, url);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                System.out.println("VirtualThreadCrawler reports a malformed URL: " + nextUrl.getUrl());
+            } catch (IOException e) {
+                System.out.println("VirtualThreadCrawler throws an IOException: " + e.getMessage());
+            } catch (Exception e) {
+                System.out.println("VirtualThreadCrawler throws an exception.");
+                e.printStackTrace();
+            } finally {
+                release();
+            }
+        };
+    }
+
+    private void reportProgress(boolean summary, LocalDateTime startAt) {
+        int crawled = Math.min(crawlCount.get(), numOfPages);
+        System.out.format("%sVirtualThreadCrawler fetched %d pages, crawled %d pages (%d not modified), " +
+                        "%.2f%% completed. In flight: %d, write queue: %d, frontier: %d. Elapsed time: %s.%n",
+                summary ? "Summary: " : "", fetchCount.get(), crawled, notModifiedCount.get(),
+                crawled * 100.0f / numOfPages,
+                concurrency - inFlight.availablePermits(), writer.getQueueDepth(), frontier.size(),
+                Utility.elapsedTime(startAt, LocalDateTime.now()));
+    }
+
+    /**
+     * Start the crawler, and block until the pages are crawled.
+     */
+    public void start() {
+        LocalDateTime startAt = LocalDateTime.now();
+        System.out.println("VirtualThreadCrawler started at " + startAt.toLocalTime() + ". " +
+                "Pages to crawl: " + numOfPages + ", concurrency: " + concurrency + ", threads: " +
+                (virtual ? "virtual" : "platform (virtual threads require Java 21)") + ".");
+
+        int reportedCount = 0;
+
+        try {
+            // Job finished? or something wrong with writer?
+            while (crawlCount.get() < numOfPages && !writer.isFailed()) {
+                inFlight.acquire();
+                // Wait while a checkpoint is being taken.
+                try { gate.enter(); }
+                catch (InterruptedException e) { inFlight.release(); throw e; }
+
+                // The frontier may be empty at the beginning, or due to the crawl depth limitation.
+                // If so, crawl the entry url again. (Entry url is never put into visitedUrls)
+                // When re-crawling, no more pages are stored, thus no need to crawl the entry url.
+                QueueItem nextUrl = frontier.poll();
+                if (nextUrl == null && validators != null) {
+                    release();
+                    // Wait for the urls to be retried, if any.
+                    if (frontier.retrySize() == 0) break;
+                    Thread.sleep(Frontier.RETRY_POLL_INTERVAL);
+                    continue;
+                }
+                if (nextUrl == null) nextUrl = new QueueItem(entryUrl, 0);
+
+                try {
+                    URL url = new URL(nextUrl.getUrl());
+                    // Check if url is restricted by some policies.
+                    long begin = System.nanoTime();
+                    boolean allowed = robotPolicy.testURL(url);
+                    stats.recordSince(CrawlStats.Stage.ROBOTS, begin);
+                    if (!allowed) {
+                        release();
+                        // Entry url? No need to run the crawler.
+                        if (nextUrl.getUrl().equals(entryUrl)) {
+                            System.out.println("VirtualThreadCrawler reported the entry url (" +
+                                    entryUrl + ") is disallowed. Exiting...");
+                            break;
+                        }
+                        continue;
+                    }
+
+                    // Mark as visited when dispatched, so in-flight urls are not requested twice.
+                    // A retried url was marked by its first attempt.
+                    // A redirect resolved since the url is enqueued is not fetched, if its page is visited.
+                    String resolved = redirects.resolve(nextUrl.getUrl());
+                    if (!nextUrl.getUrl().equals(entryUrl) && nextUrl.getAttempts() == 0 &&
+                            (!visitedUrls.add(nextUrl.getUrl()) ||
+                                    !resolved.equals(nextUrl.getUrl()) && visitedUrls.contains(resolved))) {
+                        release();
+                        continue;
+                    }
+
+                    taskExecutor.execute(createTask(nextUrl, url));
+                } catch (MalformedURLException e) {
+                    release();
+                }
+
+                // Report crawling progress.
+                int crawled = crawlCount.get();
+                if (crawled - reportedCount >= Math.min(numOfPages, WikiCrawler.REPORT_COUNT)) {
+                    reportedCount = crawled;
+                    reportProgress(false, startAt);
+                }
+            }
+
+            // Wait all urls in flight to complete.
+            inFlight.acquire(concurrency);
+            inFlight.release(concurrency);
+        } catch (InterruptedException e) {
+            // Actions are performed below.
+        }
+
+        taskExecutor.shutdown();
+
+        // The writer is shared, thus stopped by WikiCrawler.
+        reportProgress(true, startAt);
+    }
+}
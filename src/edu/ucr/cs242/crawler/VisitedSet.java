@@ -0,0 +1,110 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A thread-safe set of urls, used to tell whether an url has been visited (or enqueued).
+ * Implementations may trade exactness for memory, thus report their memory usage and false positive rate.
+ */
+public interface VisitedSet {
+    /**
+     * Add an url into the set.
+     * @param url The url to add.
+     * @return Whether the url is newly added. False positives are possible in probabilistic sets.
+     */
+    boolean add(String url);
+
+    /**
+     * Test if an url is in the set.
+     * @param url The url to test.
+     * @return Whether the url is in the set. False positives are possible in probabilistic sets.
+     */
+    boolean contains(String url);
+
+    /**
+     * @return The number of urls added.
+     */
+    long size();
+
+    /**
+     * @return The (estimated) memory usage in bytes.
+     */
+    long memoryUsage();
+
+    /**
+     * @return The estimated false positive rate of {@link #contains(String)}.
+     */
+    double falsePositiveRate();
+
+    /**
+     * Write the set into a stream, led by its type, for checkpointing.
+     * Concurrent additions during writing may or may not be written.
+     * @param out The stream to write into.
+     * @throws IOException
+     */
+    void writeTo(DataOutputStream out) throws IOException;
+
+    /**
+     * Read a set written by {@link #writeTo(DataOutputStream)}.
+     * @param in The stream to read from.
+     * @return The visited set.
+     * @throws IOException If the type is unknown, or the stream is corrupted.
+     */
+    static VisitedSet readFrom(DataInputStream in) throws IOException {
+        String type = in.readUTF();
+        switch (type) {
+            case "exact": return ExactVisitedSet.readFrom(in);
+            case "fingerprint": return FingerprintVisitedSet.readFrom(in);
+            case "bloom": return BloomVisitedSet.readFrom(in);
+            default: throw new IOException("Unknown type of visited set: " + type);
+        }
+    }
+
+    /**
+     * Create a visited set by its type.
+     * @param type         One of `exact`, `fingerprint` and `bloom`.
+     * @param expectedSize The expected number of urls.
+     * @param fpp          The false positive rate of the Bloom filter.
+     * @return The visited set, or null if the type is unknown.
+     */
+    static VisitedSet create(String type, int expectedSize, double fpp) {
+        switch (type) {
+            case "exact": return new ExactVisitedSet();
+            case "fingerprint": return new FingerprintVisitedSet(expectedSize);
+            case "bloom": return new BloomVisitedSet(expectedSize, fpp);
+            default: return null;
+        }
+    }
+
+    /**
+     * Compute the 64-bit fingerprint of an url.
+     * @param url The url.
+     * @return The fingerprint (FNV-1a, with MurmurHash3's finalizer for a better avalanche).
+     */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash ^= url.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * Describe the set in a human-readable way.
+     * @param set The visited set.
+     * @return The description.
+     */
+    static String describe(VisitedSet set) {
+        return String.format("%d urls in %.2f MB, estimated false positive rate %.2e",
+                set.size(), set.memoryUsage() / 1048576.0, set.falsePositiveRate());
+    }
+}
@@ -0,0 +1,200 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The sequential reader of WARC archives, compressed by gzip (one member per record, or as a whole) or not.
+ * Only the records are split here; the HTTP response in a `response` record is parsed on demand.
+ */
+public class WarcReader implements Closeable {
+    /**
+     * A record of the archive.
+     */
+    public static class Record {
+        private final Map<String, String> headers;
+        private final byte[] block;
+
+        private Record(Map<String, String> headers, byte[] block) {
+            this.headers = headers;
+            this.block = block;
+        }
+
+        /**
+         * @param name The name of the header, case-insensitive.
+         * @return The value of the WARC header, or null if missing.
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
+
+        public String getType() {
+            return getHeader("WARC-Type");
+        }
+
+        public String getTargetUri() {
+            return getHeader("WARC-Target-URI");
+        }
+
+        public byte[] getBlock() {
+            return block;
+        }
+
+        /**
+         * Parse the block as an HTTP response.
+         * @return The response, or null if the block is not an HTTP response.
+         */
+        public Response parseResponse() {
+            try {
+                InputStream input = new ByteArrayInputStream(block);
+                String statusLine = readLine(input);
+                if (statusLine == null || !statusLine.startsWith("HTTP/"))
+                    return null;
+                String[] status = statusLine.split(" ", 3);
+                int statusCode = Integer.parseInt(status[1]);
+
+                Map<String, List<String>> headers = new LinkedHashMap<>();
+                String line;
+                while ((line = readLine(input)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon == -1) continue;
+                    headers.computeIfAbsent(line.substring(0, colon).trim(), name -> new ArrayList<>())
+                            .add(line.substring(colon + 1).trim());
+                }
+
+                byte[] body = new byte[input.available()];
+                int length = input.read(body);
+                return new Response(statusCode, headers, new String(body, 0, Math.max(length, 0), charsetOf(headers)));
+            } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * An HTTP response archived in a record.
+     */
+    public static class Response {
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+        private final String body;
+
+        private Response(int statusCode, Map<String, List<String>> headers, String body) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @param name The name of the header, case-insensitive.
+         * @return The first value of the header, or null if missing.
+         */
+        public String getHeader(String name) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty())
+                    return header.getValue().get(0);
+            }
+            return null;
+        }
+
+        public String getBody() {
+            return body;
+        }
+    }
+
+    private final InputStream input;
+
+    /**
+     * Open an archive, decompressed if its name ends with `.gz`.
+     * @param path The path of the archive.
+     * @throws IOException
+     */
+    public WarcReader(Path path) throws IOException {
+        InputStream stream = Files.newInputStream(path);
+        // Concatenated gzip members are read as a single stream.
+        this.input = new BufferedInputStream(path.toString().endsWith(".gz") ?
+                new GZIPInputStream(stream, 65536) : stream, 65536);
+    }
+
+    private static Charset charsetOf(Map<String, List<String>> headers) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!header.getKey().equalsIgnoreCase("Content-Type")) continue;
+            for (String value : header.getValue()) {
+                int index = value.toLowerCase().indexOf("charset=");
+                if (index == -1) continue;
+                try {
+                    return Charset.forName(value.substring(index + "charset=".length()).split(";")[0]
+                            .replace("\"", "").trim());
+                } catch (IllegalArgumentException e) { /* fall back to UTF-8 */ }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Read a line ended by LF (or CRLF), without the line break.
+     * @return The line, or null at the end of the stream.
+     */
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int ch;
+        while ((ch = input.read()) != -1 && ch != '\n') line.write(ch);
+        if (ch == -1 && line.size() == 0)
+            return null;
+
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read the next record.
+     * @return The record, or null at the end of the archive.
+     * @throws EOFException If the archive is truncated, e.g. by a crawler killed while writing.
+     * @throws IOException  If the archive is corrupted.
+     */
+    public Record next() throws IOException {
+        // Skip the blank lines between two records.
+        String line;
+        do {
+            line = readLine(input);
+            if (line == null) return null;
+        } while (line.isEmpty());
+
+        if (!line.startsWith("WARC/"))
+            throw new IOException("Not a WARC record: " + line);
+
+        Map<String, String> headers = new HashMap<>();
+        while ((line = readLine(input)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon != -1) headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        if (line == null)
+            throw new EOFException("Truncated WARC record");
+
+        int length;
+        try {
+            length = Integer.parseInt(headers.getOrDefault("content-length", ""));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length of a WARC record");
+        }
+
+        byte[] block = new byte[length];
+        new DataInputStream(input).readFully(block);
+        return new Record(headers, block);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
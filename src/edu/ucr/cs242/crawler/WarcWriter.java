@@ -0,0 +1,190 @@
+package edu.ucr.cs242.crawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The writer of WARC (ISO 28500) archives, holding the HTTP responses the crawler fetched.
+ * Each record is compressed as a gzip member of its own, so an archive can be read sequentially as one gzip stream,
+ * or entered at any record. Records are compressed by the calling worker, and only appended under the lock.
+ * A new file is started once the current one reaches the maximum size, each led by a `warcinfo` record.
+ * The clients hand over the decoded body, thus the body is stored in UTF-8, with the Content-Type set accordingly,
+ * and Content-Encoding, Transfer-Encoding and Content-Length replaced by the length of the stored body.
+ */
+public class WarcWriter implements Closeable {
+    /**
+     * The default maximum size of a file (bytes), after which a new file is started.
+     */
+    public static final long MAX_FILE_SIZE = 1024L * 1024 * 1024;
+    /**
+     * The extension of the archives.
+     */
+    public static final String EXTENSION = ".warc.gz";
+
+    private static final String CRLF = "\r\n";
+    // The headers describing the original encoding of the body, which no longer holds.
+    private static final String[] DROPPED_HEADERS = { "content-encoding", "transfer-encoding", "content-length" };
+
+    private final Path directory;
+    private final String prefix;
+    private final long maxFileSize;
+
+    private OutputStream output;
+    private long currentSize = 0;
+    private int fileCount = 0;
+    private long recordCount = 0;
+    private long totalSize = 0;
+
+    /**
+     * Construct a writer with given settings. The directory is created if missing.
+     * @param directory   The directory to write the archives into.
+     * @param prefix      The prefix of the file names.
+     * @param maxFileSize The maximum size of a file (bytes).
+     * @throws IOException
+     */
+    public WarcWriter(Path directory, String prefix, long maxFileSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.prefix = prefix;
+        this.maxFileSize = maxFileSize;
+    }
+
+    private static String headerLine(String name, String value) {
+        // Line breaks would end the header block early.
+        return name + ": " + value.replaceAll("[\r\n]+", " ") + CRLF;
+    }
+
+    /**
+     * Compress a record into a gzip member.
+     */
+    private static byte[] compressRecord(String type, String targetUri, String contentType, byte[] block)
+            throws IOException {
+        StringBuilder header = new StringBuilder("WARC/1.0").append(CRLF)
+                .append(headerLine("WARC-Type", type))
+                .append(headerLine("WARC-Record-ID", "<urn:uuid:" + UUID.randomUUID() + ">"))
+                .append(headerLine("WARC-Date", Instant.now().truncatedTo(ChronoUnit.SECONDS).toString()));
+        if (targetUri != null) header.append(headerLine("WARC-Target-URI", targetUri));
+        header.append(headerLine("Content-Type", contentType))
+                .append(headerLine("Content-Length", String.valueOf(block.length)))
+                .append(CRLF);
+
+        ByteArrayOutputStream member = new ByteArrayOutputStream(block.length / 4 + 512);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 8192)) {
+            gzip.write(header.toString().getBytes(StandardCharsets.UTF_8));
+            gzip.write(block);
+            gzip.write((CRLF + CRLF).getBytes(StandardCharsets.UTF_8));
+        }
+        return member.toByteArray();
+    }
+
+    /**
+     * Build the HTTP response as a block of a record.
+     */
+    private static byte[] responseBlock(int statusCode, Map<String, List<String>> headers, byte[] body) {
+        StringBuilder block = new StringBuilder("HTTP/1.1 ").append(statusCode).append(' ')
+                .append(statusCode == 200 ? "OK" : "Status").append(CRLF);
+        headers.forEach((name, values) -> {
+            // HttpClient reports the status line as a header named `:status` for HTTP/2.
+            if (name == null || name.startsWith(":")) return;
+            String lower = name.toLowerCase();
+            for (String dropped : DROPPED_HEADERS)
+                if (lower.equals(dropped)) return;
+
+            for (String value : values) {
+                if (lower.equals("content-type"))
+                    value = value.replaceAll("(?i)charset=[^;]*", "charset=utf-8");
+                block.append(headerLine(name, value));
+            }
+        });
+        block.append(headerLine("Content-Length", String.valueOf(body.length))).append(CRLF);
+
+        byte[] head = block.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = new byte[head.length + body.length];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        System.arraycopy(body, 0, bytes, head.length, body.length);
+        return bytes;
+    }
+
+    /**
+     * Start a new file, led by a `warcinfo` record.
+     */
+    private void roll() throws IOException {
+        close();
+
+        String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMddHHmmss"));
+        Path path = directory.resolve(String.format("%s-%s-%05d%s", prefix, timestamp, fileCount, EXTENSION));
+        // Never overwrite the archives of another run.
+        output = Files.newOutputStream(path, StandardOpenOption.CREATE_NEW);
+        currentSize = 0;
+        ++fileCount;
+
+        String fields = headerLine("software", RobotPolicy.USER_AGENT) +
+                headerLine("format", "WARC File Format 1.0");
+        append(compressRecord("warcinfo", null, "application/warc-fields",
+                fields.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void append(byte[] member) throws IOException {
+        output.write(member);
+        currentSize += member.length;
+        totalSize += member.length;
+    }
+
+    /**
+     * Write an HTTP response into the archive.
+     * @param url        The url of the response, after redirects.
+     * @param statusCode The status code of the response.
+     * @param headers    The headers of the response.
+     * @param body       The decoded body of the response.
+     * @return Whether the response is written. The crawl goes on without archiving it if not.
+     */
+    public boolean writeResponse(String url, int statusCode, Map<String, List<String>> headers, String body) {
+        try {
+            byte[] member = compressRecord("response", url, "application/http; msgtype=response",
+                    responseBlock(statusCode, headers, body.getBytes(StandardCharsets.UTF_8)));
+
+            synchronized (this) {
+                if (output == null || currentSize >= maxFileSize) roll();
+                append(member);
+                ++recordCount;
+            }
+            return true;
+        } catch (IOException e) {
+            System.out.println("WarcWriter throws an IOException: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Close the current file. The next record starts a new file.
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Print the summary of the archives written.
+     */
+    public synchronized void reportSummary() {
+        System.out.format("Summary: WarcWriter archived %d responses into %d files under %s, %.2f MB in total.%n",
+                recordCount, fileCount, directory, totalSize / 1048576.0);
+    }
+}
@@ -3,107 +3,464 @@ package edu.ucr.cs242.crawler;
 import edu.ucr.cs242.Utility;
 import org.apache.commons.cli.*;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.SQLException;
-import java.sql.Statement;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 
 public class WikiCrawler {
+    /**
+     * The number of crawled pages between two progress reports.
+     */
+    public static final int REPORT_COUNT = 50;
+
     private final int numOfThreads;
     private final int numOfPages;
     private final int crawlDepth;
     private final int crawlInterval;
+    private final int minCrawlInterval;
     private final String entryUrl;
     private final String crawlHostRegex;
     private final String crawlPathRegex;
     private final String jdbcUrl;
-
-    private Set<String> visitedUrls = ConcurrentHashMap.newKeySet();
+    private final int concurrency;
+    private final int virtualConcurrency;
+    private final Path frontierDir;
+    private final String visitedSetType;
+    private final double bloomFpp;
+    private final boolean streaming;
+    private final boolean compress;
+    private final long checkpointInterval;
+    private final boolean resume;
+    private final int statsPort;
+    private final Path warcDir;
+    private final long warcSize;
+    private final int shard;
+    private final int numOfShards;
+    private final Path shardSpoolDir;
+    private final long queueMemory;
+    private final boolean prioritize;
+    private final double depthDecay;
+    private final DuplicateDetector.Action duplicateAction;
+    private final PageValidators validators;
 
     /**
      * Construct a crawler with given settings.
      * @param numOfThreads   The number of threads for crawling.
      * @param numOfPages     The number of web pages to crawl.
      * @param crawlDepth     The depth of web pages to crawl.
-     * @param crawlInterval  The interval of crawling next page, limiting the access rate (milliseconds).
+     * @param crawlInterval  The interval between two requests to the same host to start with (milliseconds).
+     * @param minCrawlInterval The minimum interval between two requests to the same host (milliseconds).
      * @param entryUrl       The url of the entry page.
      * @param crawlHostRegex The url to be crawled should be within this host.
      * @param crawlPathRegex The path of the url should start with this prefix.
      * @param jdbcUrl        The JDBC url to access database.
+     * @param concurrency    The maximum number of requests in flight, or 0 to crawl with threads.
+     * @param virtualConcurrency The maximum number of virtual threads in flight, or 0 to crawl with threads.
+     * @param frontierDir    The directory to spill the frontier into, or null to use a temporary directory.
+     * @param visitedSetType The type of visited set, one of `exact`, `fingerprint` and `bloom`.
+     * @param bloomFpp       The false positive rate of the Bloom filter.
+     * @param streaming      Whether to extract pages in a streaming pass, without building the document.
+     * @param compress       Whether to compress the content with a trained dictionary.
+     * @param checkpointInterval The interval between two checkpoints (milliseconds), or 0 to disable checkpoints.
+     * @param resume         Whether to resume from the checkpoint.
+     * @param statsPort      The local port to serve the statistics at `/stats`, or 0 not to serve them.
+     * @param warcDir        The directory to archive the responses into, or null not to archive them.
+     * @param warcSize       The maximum size of an archive file (bytes).
+     * @param shard          The shard of this crawler, from 0.
+     * @param numOfShards    The number of shards, or 1 if not sharded.
+     * @param shardSpoolDir  The spool directory shared by all shards, to exchange the urls through.
+     * @param queueMemory    The capacity of the write queue (bytes).
+     * @param prioritize     Whether to crawl the more important urls first (OPIC), instead of in FIFO order.
+     * @param depthDecay     The factor the importance of an url is discounted by per level of depth.
+     * @param duplicateAction What to do with a near-duplicate page, or null not to detect near-duplicates.
+     * @param validators     The validators of the stored pages to re-crawl, or null if not re-crawling.
      */
-    public WikiCrawler(int numOfThreads, int numOfPages, int crawlDepth, int crawlInterval,
+    public WikiCrawler(int numOfThreads, int numOfPages, int crawlDepth, int crawlInterval, int minCrawlInterval,
                        String entryUrl, String crawlHostRegex, String crawlPathRegex,
-                       String jdbcUrl) {
+                       String jdbcUrl, int concurrency, int virtualConcurrency, Path frontierDir,
+                       String visitedSetType, double bloomFpp, boolean streaming, boolean compress,
+                       long checkpointInterval, boolean resume, int statsPort,
+                       Path warcDir, long warcSize, int shard, int numOfShards, Path shardSpoolDir,
+                       long queueMemory, boolean prioritize, double depthDecay,
+                       DuplicateDetector.Action duplicateAction, PageValidators validators) {
         this.numOfThreads = numOfThreads;
         this.numOfPages = numOfPages;
         this.crawlDepth = crawlDepth;
         this.crawlInterval = crawlInterval;
+        this.minCrawlInterval = minCrawlInterval;
         this.entryUrl = entryUrl;
         this.crawlHostRegex = crawlHostRegex;
         this.crawlPathRegex = crawlPathRegex;
         this.jdbcUrl = jdbcUrl;
+        this.concurrency = concurrency;
+        this.virtualConcurrency = virtualConcurrency;
+        this.frontierDir = frontierDir;
+        this.visitedSetType = visitedSetType;
+        this.bloomFpp = bloomFpp;
+        this.streaming = streaming;
+        this.compress = compress;
+        this.checkpointInterval = checkpointInterval;
+        this.resume = resume;
+        this.statsPort = statsPort;
+        this.warcDir = warcDir;
+        this.warcSize = warcSize;
+        this.shard = shard;
+        this.numOfShards = numOfShards;
+        this.shardSpoolDir = shardSpoolDir;
+        this.queueMemory = queueMemory;
+        this.prioritize = prioritize;
+        this.depthDecay = depthDecay;
+        this.duplicateAction = duplicateAction;
+        this.validators = validators;
     }
 
     /**
      * Start the crawler.
      */
     public void start() {
-        RobotPolicy policy = new RobotPolicy("cs242-crawler");
-        try { policy.parse(new URL(entryUrl)); }
-        catch (MalformedURLException e) { /* ignored */ }
+        HostScheduler scheduler = new HostScheduler(crawlInterval, minCrawlInterval);
+
+        PageExtractor extractor = streaming ?
+                new StreamingExtractor(crawlHostRegex, crawlPathRegex) :
+                new PageExtractor(crawlHostRegex, crawlPathRegex);
+        Path spoolDir = frontierDir;
+        try {
+            if (spoolDir == null) spoolDir = Files.createTempDirectory("cs242-frontier");
+        } catch (IOException e) {
+            System.out.println("WikiCrawler throws an IOException: " + e.getMessage());
+            return;
+        }
+
+        Path checkpointPath = Checkpoint.pathOf(jdbcUrl);
+        Checkpoint checkpoint = checkpointPath == null ? null : new Checkpoint(checkpointPath);
+        VisitedSet visitedUrls, seenUrls;
+        Frontier restored = null;
+        int resumedCount = 0;
+
+        if (resume) {
+            try {
+                Checkpoint.State state = checkpoint.load(spoolDir);
+                visitedUrls = state.getVisitedUrls();
+                seenUrls = state.getSeenUrls();
+                restored = state.getFrontier();
+                resumedCount = state.getCrawledCount();
+                System.out.println("WikiCrawler resumed from the checkpoint saved at " +
+                        Instant.ofEpochMilli(state.getSavedAt()) + ": " + resumedCount + " pages crawled, " +
+                        restored.size() + " urls waiting.");
+
+                // The pages stored after the checkpoint are not to be fetched again.
+                int storedCount = markStoredUrls(visitedUrls);
+                resumedCount += storedCount;
+                System.out.println("WikiCrawler found " + storedCount + " pages stored after the checkpoint.");
+            } catch (IOException | SQLException e) {
+                System.out.println("WikiCrawler failed to resume from " + checkpoint.getPath() + ": " + e.getMessage());
+                return;
+            }
+        } else {
+            visitedUrls = VisitedSet.create(visitedSetType, numOfPages, bloomFpp);
+            seenUrls = VisitedSet.create(visitedSetType, numOfPages, bloomFpp);
+        }
+
+        // A single client is shared by all crawling workers and the robots.txt policy, reusing the connections.
+        try (HttpFetcher fetcher = new HttpFetcher();
+             Frontier frontier = restored != null ? restored :
+                new Frontier(seenUrls, spoolDir, Frontier.HEAD_CAPACITY, Frontier.SEGMENT_SIZE)) {
+            if (prioritize) frontier.prioritize(depthDecay);
+
+            // Robots.txt of a host is fetched before its first url is crawled, and its Crawl-delay is set then.
+            RobotPolicy policy = new RobotPolicy(RobotPolicy.USER_AGENT, fetcher, RobotPolicy.CACHE_TTL, scheduler);
+
+            // When re-crawling, only the stored pages are visited, without following their links.
+            if (validators != null) {
+                validators.getUrls().forEach(url -> frontier.offer(url, crawlDepth));
+            }
+
+            // When sharded, the urls of other shards are forwarded to their owners through the spool directory.
+            ShardRouter router = null;
+            ShardExchangeThread exchanger = null;
+            if (numOfShards > 1) {
+                router = new ShardRouter(shard, numOfShards, shardSpoolDir, numOfPages);
+                frontier.setRouter(router);
+                // The urls sent while this shard was not running.
+                int receivedCount = router.receive(frontier);
+                System.out.println("WikiCrawler runs as shard " + shard + "/" + numOfShards + ", " +
+                        receivedCount + " urls received from other shards.");
+            }
+
+            // The responses are archived for offline re-extraction, if asked.
+            WarcWriter warc = warcDir == null ? null : new WarcWriter(warcDir, "cs242", warcSize);
+
+            // The statistics are always recorded, and served over HTTP if asked.
+            CrawlStats stats = new CrawlStats();
+            StatsServer statsServer = null;
+
+            // The stored pages are the originals to detect the new ones against, even those crawled before.
+            DuplicateDetector duplicates = duplicateAction == null ? null :
+                    DuplicateDetector.load(jdbcUrl, duplicateAction);
+            // The redirects found before, whose links are resolved without fetching them.
+            RedirectMap redirects = RedirectMap.load(jdbcUrl);
+
+            // A single writer is shared by all crawling workers, whichever the mode is.
+            WriterThread writer = new WriterThread(jdbcUrl, compress, stats, queueMemory, duplicates);
+            writer.start();
+
+            if (router != null) {
+                exchanger = new ShardExchangeThread(router, frontier);
+                exchanger.start();
+            }
+
+            stats.watch(frontier, visitedUrls, writer);
+            stats.register();
+            if (statsPort > 0) {
+                statsServer = new StatsServer(stats, statsPort);
+                try { statsServer.start(); }
+                catch (IOException e) {
+                    System.out.println("StatsServer cannot listen on port " + statsPort + ": " + e.getMessage());
+                    statsServer = null;
+                }
+            }
+
+            CrawlGate gate = new CrawlGate();
+            CheckpointThread checkpointer = null;
+            // Re-crawling never follows links, thus nothing to resume.
+            if (checkpoint != null && checkpointInterval > 0 && validators == null) {
+                checkpointer = new CheckpointThread(checkpoint, checkpointInterval, gate, writer,
+                        visitedUrls, seenUrls, frontier, resumedCount);
+                checkpointer.start();
+            }
+
+            LocalDateTime startAt = LocalDateTime.now();
+            int remaining = Math.max(0, numOfPages - resumedCount);
+            if (remaining == 0) {
+                System.out.println("WikiCrawler has crawled " + resumedCount + " pages already. Nothing to do.");
+            } else if (virtualConcurrency > 0) {
+                startVirtualThreads(fetcher, extractor, policy, scheduler, visitedUrls, frontier, writer, gate, stats,
+                        warc, redirects, remaining);
+            } else if (concurrency > 0) {
+                startPipeline(fetcher, extractor, policy, scheduler, visitedUrls, frontier, writer, gate, stats,
+                        warc, redirects, remaining);
+            } else {
+                startThreads(fetcher, extractor, policy, scheduler, visitedUrls, frontier, writer, gate, stats,
+                        warc, redirects, remaining);
+            }
+
+            // Send out the urls still buffered, before the final checkpoint.
+            if (exchanger != null) {
+                exchanger.finish();
+                Utility.waitThread(exchanger);
+                exchanger.exchange();
+                router.reportSummary();
+            }
+
+            // Let the writer drain the queue, and wait for the final commit.
+            writer.finish();
+            Utility.waitThread(writer);
 
-        LocalDateTime startAt = LocalDateTime.now();
+            // The final checkpoint, from which a crawl of more pages can resume.
+            if (checkpointer != null) {
+                checkpointer.finish();
+                Utility.waitThread(checkpointer);
+                checkpointer.take();
+                checkpointer.reportSummary();
+            }
+
+            if (warc != null) {
+                try { warc.close(); }
+                catch (IOException e) { System.out.println("WarcWriter throws an IOException: " + e.getMessage()); }
+                warc.reportSummary();
+            }
+
+            if (statsServer != null) statsServer.stop();
+            stats.unregister();
+            stats.reportSummary();
+            scheduler.reportSummary();
+            fetcher.reportSummary();
+            if (duplicates != null) duplicates.reportSummary();
+            redirects.reportSummary();
+
+            System.out.format("Summary: WikiCrawler committed %d pages in total. ", writer.getCommittedCount());
+            System.out.format("Elapsed time: %s.%n", Utility.elapsedTime(startAt, LocalDateTime.now()));
+            System.out.println("Summary: Visited set (" + visitedSetType + ") holds " +
+                    VisitedSet.describe(visitedUrls) + ".");
+        } catch (SQLException e) {
+            System.out.println("Failed to create the writer, or to load the stored fingerprints or redirects.");
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("WikiCrawler throws an IOException: " + e.getMessage());
+        } finally {
+            // Remove the temporary directory, which is empty now.
+            if (frontierDir == null) {
+                try { Files.deleteIfExists(spoolDir); }
+                catch (IOException e) { /* ignored */ }
+            }
+        }
+    }
+
+    /**
+     * Mark the urls of the stored pages as visited.
+     * @param visitedUrls The visited urls.
+     * @return The number of urls newly marked, i.e. the pages stored after the checkpoint.
+     * @throws SQLException
+     */
+    private int markStoredUrls(VisitedSet visitedUrls) throws SQLException {
+        final String SQL_QUERY = "SELECT url FROM pages WHERE url IS NOT NULL";
+        int count = 0;
+
+        try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
+             Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery(SQL_QUERY)) {
+            while (result.next()) {
+                if (visitedUrls.add(result.getString("url"))) ++count;
+            }
+        }
+        return count;
+    }
+
+    private void startThreads(HttpFetcher fetcher, PageExtractor extractor, RobotPolicy policy, HostScheduler scheduler,
+                              VisitedSet visitedUrls, Frontier frontier, WriterThread writer, CrawlGate gate,
+                              CrawlStats stats, WarcWriter warc, RedirectMap redirects, int numOfPages) {
         CrawlThread[] threads = new CrawlThread[numOfThreads];
-        AtomicInteger committedCount = new AtomicInteger(0);
 
-        System.out.println("WikiCrawler started at " + startAt.toLocalTime() + ". " +
+        System.out.println("WikiCrawler started at " + LocalDateTime.now().toLocalTime() + ". " +
                 "Pages to crawl: " + numOfPages + ".");
 
         for (int i = 0; i < numOfThreads; i++) {
-            try {
-                threads[i] = new CrawlThread(i, visitedUrls, Utility.calculatePartition(numOfPages, numOfThreads, i),
-                        crawlDepth, crawlInterval, entryUrl, crawlHostRegex, crawlPathRegex, jdbcUrl, policy);
-                threads[i].setWriterExitListener(committedCount::addAndGet);
-                threads[i].start();
-            } catch (SQLException e) {
-                threads[i] = null;
-                System.out.println("Failed to create thread " + i + ".");
-                e.printStackTrace();
-            }
+            threads[i] = new CrawlThread(i, visitedUrls, Utility.calculatePartition(numOfPages, numOfThreads, i),
+                    crawlDepth, scheduler, frontier, entryUrl, fetcher, extractor, writer, gate, stats, warc, redirects, policy,
+                    validators);
+            threads[i].start();
         }
 
         Utility.waitThreads(threads);
+    }
+
+    private void startPipeline(HttpFetcher fetcher, PageExtractor extractor, RobotPolicy policy, HostScheduler scheduler,
+                               VisitedSet visitedUrls, Frontier frontier, WriterThread writer, CrawlGate gate,
+                               CrawlStats stats, WarcWriter warc, RedirectMap redirects, int numOfPages) {
+        System.out.println("WikiCrawler started at " + LocalDateTime.now().toLocalTime() + " (asynchronous mode). " +
+                "Pages to crawl: " + numOfPages + ".");
+
+        FetchPipeline pipeline = new FetchPipeline(visitedUrls, numOfPages, crawlDepth, scheduler, frontier, entryUrl,
+                fetcher, extractor, writer, gate, stats, warc, redirects, policy, concurrency,
+                Runtime.getRuntime().availableProcessors(), validators);
+        pipeline.start();
+    }
 
-        System.out.format("Summary: WikiCrawler committed %d pages in total. ", committedCount.get());
-        System.out.format("Elapsed time: %s.%n", Utility.elapsedTime(startAt, LocalDateTime.now()));
+    private void startVirtualThreads(HttpFetcher fetcher, PageExtractor extractor, RobotPolicy policy, HostScheduler scheduler,
+                                     VisitedSet visitedUrls, Frontier frontier, WriterThread writer, CrawlGate gate,
+                                     CrawlStats stats, WarcWriter warc, RedirectMap redirects, int numOfPages) {
+        System.out.println("WikiCrawler started at " + LocalDateTime.now().toLocalTime() + " (virtual-thread mode). " +
+                "Pages to crawl: " + numOfPages + ".");
+
+        VirtualThreadCrawler crawler = new VirtualThreadCrawler(visitedUrls, numOfPages, crawlDepth, scheduler,
+                frontier, entryUrl, fetcher, extractor, writer, gate, stats, warc, redirects, policy, virtualConcurrency,
+                validators);
+        crawler.start();
+    }
+
+    /**
+     * The version of the schema, kept in `PRAGMA user_version`. Version 1 keyed the pages by title, with the
+     * categories and the outgoing links joined by `|`; version 2 kept the category names in `page_categories`;
+     * version 3 kept the title of the original in `duplicateOf`. Such a database is migrated by {@link SchemaMigrator}.
+     */
+    public static final int SCHEMA_VERSION = 4;
+    /**
+     * The tables of the current schema.
+     * A page is keyed by an integer id, the id of its title in the `titles` dictionary, which also holds
+     * the titles only linked to. The outgoing links and the categories are rows of their own, and the digest of
+     * both tells whether either changed, without comparing the rows. The category names are kept once,
+     * in the `categories` dictionary, and referred to by id. A near-duplicate refers to its original by id as well.
+     */
+    static final String[] SQL_CREATE_TABLES = {
+            "CREATE TABLE IF NOT EXISTS titles (" +
+            "id INTEGER PRIMARY KEY, " +
+            "title TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE IF NOT EXISTS pages (" +
+            "id INTEGER PRIMARY KEY, " +
+            "title TEXT NOT NULL UNIQUE, " +
+            "content TEXT NOT NULL, " +
+            "lastModify TEXT NOT NULL, " +
+            "digest INTEGER, " +
+            "url TEXT, " +
+            "etag TEXT, " +
+            "lastModified TEXT, " +
+            "dirty INTEGER NOT NULL DEFAULT 0, " +
+            "simhash INTEGER, " +
+            "duplicateOf INTEGER)",
+            // Scanned by source, for the link graph; the order of the links in a page is not kept.
+            "CREATE TABLE IF NOT EXISTS links (" +
+            "src_id INTEGER NOT NULL, " +
+            "dst_id INTEGER NOT NULL, " +
+            "PRIMARY KEY (src_id, dst_id)) WITHOUT ROWID",
+            "CREATE TABLE IF NOT EXISTS categories (" +
+            "id INTEGER PRIMARY KEY, " +
+            "name TEXT NOT NULL UNIQUE)",
+            "CREATE TABLE IF NOT EXISTS page_categories (" +
+            "page_id INTEGER NOT NULL, " +
+            "category_id INTEGER NOT NULL, " +
+            "PRIMARY KEY (page_id, category_id)) WITHOUT ROWID",
+            // The Wikipedia redirects found, from title to title, with the url the redirect is found at.
+            "CREATE TABLE IF NOT EXISTS redirects (" +
+            "source TEXT PRIMARY KEY, " +
+            "target TEXT NOT NULL, " +
+            "url TEXT)"
+    };
+
+    /**
+     * @return The version of the schema of a database, 0 if it has no pages table yet.
+     */
+    static int schemaVersion(Connection dbConnection) throws SQLException {
+        Map<String, String> columns = columnsOf(dbConnection, "pages");
+        if (columns.isEmpty())
+            return 0;
+        if (!columns.containsKey("id"))
+            return 1;
+        if (columnsOf(dbConnection, "page_categories").containsKey("category"))
+            return 2;
+        return "TEXT".equalsIgnoreCase(columns.get("duplicateOf")) ? 3 : SCHEMA_VERSION;
+    }
+
+    /**
+     * @return The declared types of the columns of a table, by name.
+     */
+    private static Map<String, String> columnsOf(Connection dbConnection, String table) throws SQLException {
+        Map<String, String> columns = new HashMap<>();
+        try (Statement query = dbConnection.createStatement();
+             ResultSet result = query.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (result.next()) columns.put(result.getString("name"), result.getString("type"));
+        }
+        return columns;
     }
 
     /**
      * Initialize database, creating necessary tables.
+     * A database in an older schema is left untouched, it should be migrated first.
      * @param jdbcUrl The JDBC connection string.
      * @return Whether the table creation succeeded.
      */
-    private static boolean initializeDatabase(String jdbcUrl) throws ClassNotFoundException {
-        final String SQL_CREATE =
-                "CREATE TABLE IF NOT EXISTS pages (" +
-                "title TEXT PRIMARY KEY, " +
-                "content TEXT NOT NULL, " +
-                "categories TEXT NOT NULL, " +
-                "lastModify TEXT NOT NULL, " +
-                "outLinks TEXT)";
-
+    static boolean initializeDatabase(String jdbcUrl) throws ClassNotFoundException {
         // Register the default sqlite driver.
         Class.forName("org.sqlite.JDBC");
         try (Connection dbConnection = DriverManager.getConnection(jdbcUrl);
              Statement query = dbConnection.createStatement()) {
-            query.execute(SQL_CREATE);
+            int version = schemaVersion(dbConnection);
+            if (version != 0 && version != SCHEMA_VERSION) {
+                System.out.println("The database " + jdbcUrl + " is in the version " + version + " schema, " +
+                        "run `migrate` on it first.");
+                return false;
+            }
+
+            for (String sql : SQL_CREATE_TABLES) query.execute(sql);
+            query.execute("PRAGMA user_version = " + SCHEMA_VERSION);
             return true;
         } catch (SQLException e) {
             e.printStackTrace();
@@ -132,10 +489,22 @@ public class WikiCrawler {
         final int NUMBER_OF_THREADS = 10;
         final int NUMBER_OF_PAGES = 750000;
         final int CRAWL_DEPTH = 10;
-        final int CRAWL_INTERVAL = 5000;
+        // Shared by all threads, which keeps the aggregate rate of 10 threads sleeping 5 seconds each.
+        final int CRAWL_INTERVAL = 500;
+        final int MIN_CRAWL_INTERVAL = 100;
         final String ENTRY_URL = "https://en.wikipedia.org/wiki/Special:Random";
         final String CRAWL_HOST_REGEX = "^en.wikipedia.org$";
         final String CRAWL_PATH_REGEX = "^/wiki/([^:]*)$"; // Special pages (such as Help:Category) are not crawled
+        final String VISITED_SET = "fingerprint";
+        final double BLOOM_FPP = 0.001;
+        final int CHECKPOINT_INTERVAL = 300;
+        final int STATS_PORT = 0;
+        final int WARC_SIZE = 1024;
+        final String SHARD = "0/1";
+        final int QUEUE_MEMORY = (int) (WriterThread.QUEUE_MEMORY / 1048576);
+        final String NEAR_DUPLICATES = "off";
+        final String CRAWL_ORDER = "fifo";
+        final double DEPTH_DECAY = 0.9;
 
         Options options = new Options();
         options.addOption(Option.builder("t")
@@ -162,8 +531,18 @@ public class WikiCrawler {
         options.addOption(Option.builder("i")
                         .longOpt("interval")
                         .argName("INTERVAL")
-                        .desc("the interval (milliseconds) of crawling next page, " +
-                                "limiting the access rate (default: " + CRAWL_INTERVAL + ")")
+                        .desc("the interval (milliseconds) between two requests to the same host to start with, " +
+                                "shared by all threads; it shrinks while the host responds promptly, and grows " +
+                                "while the host throttles or slows down (default: " + CRAWL_INTERVAL + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("m")
+                        .longOpt("min-interval")
+                        .argName("INTERVAL")
+                        .desc("the minimum interval (milliseconds) between two requests to the same host; " +
+                                "a longer Crawl-delay in robots.txt takes precedence (default: " +
+                                MIN_CRAWL_INTERVAL + ")")
                         .numberOfArgs(1)
                         .build());
 
@@ -188,6 +567,141 @@ public class WikiCrawler {
                         .numberOfArgs(1)
                         .build());
 
+        options.addOption(Option.builder("o")
+                        .longOpt("order")
+                        .argName("ORDER")
+                        .desc("the order to crawl the urls in, `fifo` (breadth first) or `opic` (the urls most " +
+                                "linked to by the pages crawled so far first, by OPIC) (default: " + CRAWL_ORDER + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("e")
+                        .longOpt("depth-decay")
+                        .argName("RATE")
+                        .desc("with --order opic, the factor the importance of an url is discounted by per level " +
+                                "of depth, in (0, 1]; 1 ranks by importance only, a smaller one prefers shallower " +
+                                "urls (default: " + DEPTH_DECAY + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("a")
+                        .longOpt("async")
+                        .argName("CONCURRENCY")
+                        .desc("fetch asynchronously with this many requests in flight, and parse on " +
+                                "all cores instead of using crawling threads (default: disabled)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("v")
+                        .longOpt("virtual-threads")
+                        .argName("CONCURRENCY")
+                        .desc("crawl with a virtual thread per url, with up to this many urls in flight, " +
+                                "instead of using crawling threads (default: disabled)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("F")
+                        .longOpt("frontier-dir")
+                        .argName("DIRECTORY")
+                        .desc("the directory to spill the crawl frontier into (default: a temporary directory)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("V")
+                        .longOpt("visited-set")
+                        .argName("TYPE")
+                        .desc("the visited set, one of `exact` (full urls), `fingerprint` (64-bit hashes) and " +
+                                "`bloom` (scalable Bloom filter) (default: " + VISITED_SET + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("b")
+                        .longOpt("bloom-fpp")
+                        .argName("RATE")
+                        .desc("the false positive rate of the Bloom filter (default: " + BLOOM_FPP + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("s", "streaming", false,
+                "extract pages in a single streaming pass over the HTML, without building the document");
+
+        options.addOption("z", "compress", false,
+                "compress the content with a dictionary, trained from the first pages written if the database " +
+                        "has none yet");
+
+        options.addOption("r", "recrawl", false,
+                "re-crawl all stored pages with conditional requests, and update the changed ones " +
+                        "(the number of pages is the number of stored pages)");
+
+        options.addOption(Option.builder("k")
+                        .longOpt("checkpoint-interval")
+                        .argName("SECONDS")
+                        .desc("the interval between two checkpoints, saved next to the SQLite database; " +
+                                "0 disables checkpoints (default: " + CHECKPOINT_INTERVAL + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption("R", "resume", false,
+                "resume from the checkpoint, with the visited urls and the frontier restored " +
+                        "(the number of pages includes the pages crawled before)");
+
+        options.addOption(Option.builder("w")
+                        .longOpt("warc-dir")
+                        .argName("DIRECTORY")
+                        .desc("archive the responses into rolling gzip WARC files in this directory, " +
+                                "for offline re-extraction (default: disabled)")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("W")
+                        .longOpt("warc-size")
+                        .argName("MB")
+                        .desc("the maximum size of a WARC file, after which a new file is started " +
+                                "(default: " + WARC_SIZE + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("n")
+                        .longOpt("shard")
+                        .argName("INDEX/COUNT")
+                        .desc("crawl as one of COUNT processes, owning the urls hashed to shard INDEX (from 0) and " +
+                                "forwarding the others through --spool-dir; --pages is per shard (default: " +
+                                SHARD + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("D")
+                        .longOpt("spool-dir")
+                        .argName("DIRECTORY")
+                        .desc("the directory shared by all shards to exchange urls through")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("M")
+                        .longOpt("queue-memory")
+                        .argName("MB")
+                        .desc("the memory the pages waiting to be written may hold; crawling workers wait " +
+                                "while it is used up (default: " + QUEUE_MEMORY + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("x")
+                        .longOpt("near-duplicates")
+                        .argName("ACTION")
+                        .desc("what to do with a page whose content nearly duplicates a stored page, by SimHash: " +
+                                "`mark` (store it with the id of the original, left out of the indexes), " +
+                                "`skip` (do not store it) or `off` (default: " + NEAR_DUPLICATES + ")")
+                        .numberOfArgs(1)
+                        .build());
+
+        options.addOption(Option.builder("S")
+                        .longOpt("stats-port")
+                        .argName("PORT")
+                        .desc("serve the live statistics of the crawl in JSON at http://localhost:PORT/stats; " +
+                                "they are always available over JMX (default: disabled)")
+                        .numberOfArgs(1)
+                        .build());
+
         options.addOption(Option.builder("l")
                         .longOpt("log-output")
                         .argName("FILE NAME")
@@ -228,14 +742,118 @@ public class WikiCrawler {
                 int numOfPages = Integer.parseInt(cmd.getOptionValue("pages", String.valueOf(NUMBER_OF_PAGES)));
                 int crawlDepth = Integer.parseInt(cmd.getOptionValue("depth", String.valueOf(CRAWL_DEPTH)));
                 int crawlInterval = Integer.parseInt(cmd.getOptionValue("interval", String.valueOf(CRAWL_INTERVAL)));
+                int minCrawlInterval = Integer.parseInt(
+                        cmd.getOptionValue("min-interval", String.valueOf(MIN_CRAWL_INTERVAL)));
+                if (crawlInterval < 0 || minCrawlInterval < 0) {
+                    throw new NumberFormatException();
+                }
 
                 // Test if valid url
                 String entryUrl = new URL(cmd.getOptionValue("entry-url", ENTRY_URL)).toString();
                 String crawlHostRegex = cmd.getOptionValue("host-regex", CRAWL_HOST_REGEX);
                 String crawlPathRegex = cmd.getOptionValue("path-regex", CRAWL_PATH_REGEX);
-
-                new WikiCrawler(numOfThreads, numOfPages, crawlDepth, crawlInterval,
-                        entryUrl, crawlHostRegex, crawlPathRegex, jdbcUrl).start();
+                int concurrency = Integer.parseInt(cmd.getOptionValue("async", "0"));
+                int virtualConcurrency = Integer.parseInt(cmd.getOptionValue("virtual-threads", "0"));
+                Path frontierDir = cmd.hasOption("frontier-dir") ? Paths.get(cmd.getOptionValue("frontier-dir")) : null;
+                String visitedSetType = cmd.getOptionValue("visited-set", VISITED_SET);
+                double bloomFpp = Double.parseDouble(cmd.getOptionValue("bloom-fpp", String.valueOf(BLOOM_FPP)));
+                int checkpointInterval = Integer.parseInt(
+                        cmd.getOptionValue("checkpoint-interval", String.valueOf(CHECKPOINT_INTERVAL)));
+                if (checkpointInterval < 0) {
+                    throw new NumberFormatException();
+                }
+                int statsPort = Integer.parseInt(cmd.getOptionValue("stats-port", String.valueOf(STATS_PORT)));
+                if (statsPort < 0 || statsPort > 65535) {
+                    throw new NumberFormatException();
+                }
+                Path warcDir = cmd.hasOption("warc-dir") ? Paths.get(cmd.getOptionValue("warc-dir")) : null;
+                int warcSize = Integer.parseInt(cmd.getOptionValue("warc-size", String.valueOf(WARC_SIZE)));
+                if (warcSize <= 0) {
+                    throw new NumberFormatException();
+                }
+
+                int queueMemory = Integer.parseInt(cmd.getOptionValue("queue-memory", String.valueOf(QUEUE_MEMORY)));
+                if (queueMemory <= 0) {
+                    throw new NumberFormatException();
+                }
+
+                String[] shardOption = cmd.getOptionValue("shard", SHARD).split("/", 2);
+                int shard = Integer.parseInt(shardOption[0]);
+                int numOfShards = Integer.parseInt(shardOption.length == 2 ? shardOption[1] : "");
+                if (numOfShards <= 0 || shard < 0 || shard >= numOfShards) {
+                    throw new NumberFormatException();
+                }
+                Path shardSpoolDir = cmd.hasOption("spool-dir") ? Paths.get(cmd.getOptionValue("spool-dir")) : null;
+                if (numOfShards > 1 && shardSpoolDir == null) {
+                    printMessage("--spool-dir is required with --shard");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                if (concurrency > 0 && virtualConcurrency > 0) {
+                    printMessage("--async and --virtual-threads are exclusive");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                if (VisitedSet.create(visitedSetType, 0, bloomFpp) == null || bloomFpp <= 0 || bloomFpp >= 1) {
+                    printMessage("invalid visited set");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                String crawlOrder = cmd.getOptionValue("order", CRAWL_ORDER);
+                double depthDecay = Double.parseDouble(cmd.getOptionValue("depth-decay", String.valueOf(DEPTH_DECAY)));
+                if (!crawlOrder.equals("fifo") && !crawlOrder.equals("opic") || depthDecay <= 0 || depthDecay > 1) {
+                    printMessage("invalid crawl order");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                String nearDuplicates = cmd.getOptionValue("near-duplicates", NEAR_DUPLICATES);
+                DuplicateDetector.Action duplicateAction = DuplicateDetector.parseAction(nearDuplicates);
+                if (duplicateAction == null && !nearDuplicates.equals("off")) {
+                    printMessage("invalid near-duplicate action");
+                    printHelp(options);
+                    System.exit(1);
+                }
+
+                if (cmd.hasOption("resume")) {
+                    Path checkpointPath = Checkpoint.pathOf(jdbcUrl);
+                    if (cmd.hasOption("recrawl")) {
+                        printMessage("--resume and --recrawl are exclusive");
+                        printHelp(options);
+                        System.exit(1);
+                    }
+                    if (checkpointPath == null || !new Checkpoint(checkpointPath).exists()) {
+                        printMessage("no checkpoint to resume from" +
+                                (checkpointPath == null ? "" : " (" + checkpointPath + ")"));
+                        System.exit(1);
+                    }
+                }
+
+                PageValidators validators = null;
+                if (cmd.hasOption("recrawl")) {
+                    try { validators = PageValidators.load(jdbcUrl); }
+                    catch (SQLException e) {
+                        printMessage("failed to load stored pages: " + e.getMessage());
+                        System.exit(1);
+                    }
+
+                    if (validators.size() == 0) {
+                        printMessage("no stored pages with url to re-crawl");
+                        System.exit(1);
+                    }
+                    numOfPages = validators.size();
+                }
+
+                new WikiCrawler(numOfThreads, numOfPages, crawlDepth, crawlInterval, minCrawlInterval,
+                        entryUrl, crawlHostRegex, crawlPathRegex, jdbcUrl, concurrency, virtualConcurrency,
+                        frontierDir, visitedSetType, bloomFpp, cmd.hasOption("streaming"),
+                        cmd.hasOption("compress"), checkpointInterval * 1000L, cmd.hasOption("resume"),
+                        statsPort, warcDir, warcSize * 1048576L, shard, numOfShards, shardSpoolDir,
+                        queueMemory * 1048576L, crawlOrder.equals("opic"), depthDecay, duplicateAction,
+                        validators).start();
             } catch (NumberFormatException | MalformedURLException e) {
                 printMessage("invalid option(s)");
                 printHelp(options);
@@ -11,6 +11,13 @@ public class WikiPage {
 
     private List<String> outLinks;
 
+    private String url;
+    private String etag;
+    private String lastModified;
+
+    private long simHash;
+    private String duplicateOf;
+
     public String getTitle() {
         return title;
     }
@@ -31,6 +38,26 @@ public class WikiPage {
         return outLinks;
     }
 
+    public String getUrl() {
+        return url;
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public long getSimHash() {
+        return simHash;
+    }
+
+    public String getDuplicateOf() {
+        return duplicateOf;
+    }
+
     /**
      * Represent a web page in Wikipedia.
      * @param title      The page title.
@@ -46,4 +73,30 @@ public class WikiPage {
         this.lastModify = lastModify;
         this.outLinks = outLinks;
     }
+
+    /**
+     * Attach the url and the validators of the response, for conditional requests on re-crawl.
+     * @param url          The url of the page.
+     * @param etag         The `ETag` header, may be null.
+     * @param lastModified The `Last-Modified` header, may be null.
+     * @return This page.
+     */
+    public WikiPage withValidators(String url, String etag, String lastModified) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        return this;
+    }
+
+    /**
+     * Attach the SimHash fingerprint of the content, and the page it near-duplicates.
+     * @param simHash     The fingerprint, by {@link SimHash#of(String)}.
+     * @param duplicateOf The title of the page it near-duplicates, or null if it is an original.
+     * @return This page.
+     */
+    public WikiPage withSimHash(long simHash, String duplicateOf) {
+        this.simHash = simHash;
+        this.duplicateOf = duplicateOf;
+        return this;
+    }
 }
@@ -0,0 +1,299 @@
+package edu.ucr.cs242.crawler;
+
+import org.jsoup.parser.Parser;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Convert the wikitext of an article into a page of the same shape as {@link PageExtractor} builds from its HTML:
+ * the content is the plain text of the paragraphs, lists and headings, one per line, without references,
+ * templates (infoboxes, navboxes) and tables; the categories are the names in the category links;
+ * the outgoing links are the titles of the links to other articles, in order of first appearance.
+ * As with the HTML, a page with no content or no categories is not stored.
+ * The categories added by templates are not known without expanding the templates, thus are missing.
+ * The converter holds no per-page state, thus can be shared among threads.
+ */
+public class WikitextConverter {
+    private static final Pattern COMMENT_PATTERN = Pattern.compile("<!--.*?(-->|$)", Pattern.DOTALL);
+    /**
+     * References, and the tags rendered into tables, images or divs, which are removed from the HTML.
+     */
+    private static final Pattern REMOVED_TAG_PATTERN = Pattern.compile(
+            "<(ref|gallery|timeline|imagemap|graph|mapframe|references)\\b[^>]*?(/>|>.*?</\\1\\s*>)",
+            Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+    private static final Pattern BREAK_PATTERN = Pattern.compile("<br\\s*/?>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TAG_PATTERN = Pattern.compile("</?[a-zA-Z][^>]*>");
+    private static final Pattern EXTERNAL_LINK_PATTERN =
+            Pattern.compile("\\[(?:https?:|ftp:)?//[^\\s\\]]*(?:\\s+([^\\]]*))?]");
+    private static final Pattern EMPHASIS_PATTERN = Pattern.compile("'{2,}");
+    private static final Pattern MAGIC_WORD_PATTERN = Pattern.compile("__[A-Z]+__");
+    private static final Pattern HEADING_PATTERN = Pattern.compile("^(={1,6})\\s*(.*?)\\s*\\1\\s*$");
+    private static final Pattern LIST_PATTERN = Pattern.compile("^[*#:;]+\\s*");
+    private static final Pattern SPACES_PATTERN = Pattern.compile("[\\s\\u00a0]+");
+    /**
+     * The letters following a link are rendered as a part of it, e.g. [[bus]]es.
+     */
+    private static final Pattern LINK_TRAIL_PATTERN = Pattern.compile("^[a-z]+");
+
+    private static final String CATEGORY_PREFIX = "category:";
+    private static final String[] MEDIA_PREFIXES = { "file:", "image:", "media:" };
+
+    /**
+     * The page under conversion.
+     */
+    private static class Conversion {
+        private final Set<String> categories = new LinkedHashSet<>();
+        private final Set<String> outLinks = new LinkedHashSet<>();
+    }
+
+    /**
+     * Convert an article.
+     * @param title     The title of the article.
+     * @param wikitext  The wikitext of its latest revision.
+     * @param timestamp The time of the revision in ISO 8601, may be null.
+     * @return The page, or null if it should not be stored.
+     */
+    public WikiPage convert(String title, String wikitext, String timestamp) {
+        Conversion conversion = new Conversion();
+        String text = COMMENT_PATTERN.matcher(wikitext).replaceAll("");
+        text = REMOVED_TAG_PATTERN.matcher(text).replaceAll("");
+        text = removeNested(text, "{{", "}}");
+        text = removeTables(text);
+        text = replaceLinks(text, conversion);
+        text = EXTERNAL_LINK_PATTERN.matcher(text).replaceAll(match ->
+                match.group(1) == null ? "" : Matcher.quoteReplacement(match.group(1)));
+        text = BREAK_PATTERN.matcher(text).replaceAll(" ");
+        text = TAG_PATTERN.matcher(text).replaceAll("");
+        text = EMPHASIS_PATTERN.matcher(text).replaceAll("");
+        text = MAGIC_WORD_PATTERN.matcher(text).replaceAll("");
+
+        String content = String.join("\n", toBlocks(text));
+        if (content.isEmpty() || conversion.categories.isEmpty())
+            return null;
+
+        return new WikiPage(title, content, new ArrayList<>(conversion.categories), parseTimestamp(timestamp),
+                new ArrayList<>(conversion.outLinks));
+    }
+
+    /**
+     * Parse the timestamp of a revision.
+     * @param timestamp The time in ISO 8601, may be null.
+     * @return The time in UTC, or current date time if not valid.
+     */
+    public static LocalDateTime parseTimestamp(String timestamp) {
+        if (timestamp != null) {
+            try { return OffsetDateTime.parse(timestamp).withOffsetSameInstant(ZoneOffset.UTC).toLocalDateTime(); }
+            catch (DateTimeParseException e) { /* fall through */ }
+        }
+        return LocalDateTime.now();
+    }
+
+    /**
+     * Normalize a title as MediaWiki does: underscores are spaces, runs of spaces are collapsed,
+     * and the first letter is upper case.
+     * @param title The title in a link.
+     * @return The title, or an empty string if none.
+     */
+    public static String normalizeTitle(String title) {
+        String normalized = SPACES_PATTERN.matcher(title.replace('_', ' ')).replaceAll(" ").trim();
+        if (normalized.isEmpty())
+            return normalized;
+        int first = normalized.codePointAt(0);
+        return new StringBuilder().appendCodePoint(Character.toUpperCase(first))
+                .append(normalized, Character.charCount(first), normalized.length()).toString();
+    }
+
+    /**
+     * Remove the blocks between balanced delimiters, e.g. templates.
+     */
+    private static String removeNested(String text, String open, String close) {
+        if (!text.contains(open))
+            return text;
+
+        StringBuilder output = new StringBuilder(text.length());
+        int depth = 0;
+        for (int i = 0; i < text.length(); ) {
+            if (text.startsWith(open, i)) {
+                ++depth;
+                i += open.length();
+            } else if (depth > 0 && text.startsWith(close, i)) {
+                --depth;
+                i += close.length();
+            } else {
+                if (depth == 0) output.append(text.charAt(i));
+                ++i;
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Remove the tables, which open with a line starting with `{|` and close with one starting with `|}`.
+     */
+    private static String removeTables(String text) {
+        if (!text.contains("{|"))
+            return text;
+
+        StringBuilder output = new StringBuilder(text.length());
+        int depth = 0;
+        for (String line : text.split("\n", -1)) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("{|")) {
+                ++depth;
+            } else if (depth > 0 && trimmed.startsWith("|}")) {
+                --depth;
+            } else if (depth == 0) {
+                output.append(line).append('\n');
+            }
+        }
+        return output.toString();
+    }
+
+    private static boolean hasPrefix(String target, String[] prefixes) {
+        String lower = target.toLowerCase();
+        for (String prefix : prefixes)
+            if (lower.startsWith(prefix)) return true;
+        return false;
+    }
+
+    /**
+     * Replace the internal links by their text, collecting the categories and the outgoing links.
+     * The media links are removed along with their captions, which are rendered as divs.
+     */
+    private static String replaceLinks(String text, Conversion conversion) {
+        if (!text.contains("[["))
+            return text;
+
+        StringBuilder output = new StringBuilder(text.length());
+        int i = 0;
+        while (i < text.length()) {
+            int begin = text.indexOf("[[", i);
+            if (begin < 0) {
+                output.append(text, i, text.length());
+                break;
+            }
+            output.append(text, i, begin);
+
+            // Find the matching end, the captions of media may have links nested.
+            int depth = 0, end = -1;
+            for (int j = begin; j < text.length() - 1; j++) {
+                if (text.startsWith("[[", j)) { ++depth; ++j; }
+                else if (text.startsWith("]]", j)) {
+                    if (--depth == 0) { end = j; break; }
+                    ++j;
+                }
+            }
+            if (end < 0) {
+                // Not closed, left as text.
+                output.append(text, begin, text.length());
+                break;
+            }
+
+            String inner = text.substring(begin + 2, end);
+            i = end + 2;
+            int pipe = inner.indexOf('|');
+            String target = (pipe < 0 ? inner : inner.substring(0, pipe)).trim();
+            String label = pipe < 0 ? null : inner.substring(inner.lastIndexOf('|') + 1);
+
+            if (hasPrefix(target, MEDIA_PREFIXES))
+                continue;
+            if (target.toLowerCase().startsWith(CATEGORY_PREFIX)) {
+                String category = normalizeTitle(target.substring(CATEGORY_PREFIX.length()));
+                if (!category.isEmpty()) conversion.categories.add(Parser.unescapeEntities(category, false));
+                continue;
+            }
+
+            if (target.startsWith(":")) {
+                // A link to another namespace, shown as text.
+                output.append(label == null ? target.substring(1) : label);
+            } else if (target.indexOf(':') >= 0) {
+                // Another namespace, or another language, which is not shown in the content unless labeled.
+                if (label != null) output.append(label);
+            } else {
+                String linkTitle = target;
+                int anchor = linkTitle.indexOf('#');
+                if (anchor >= 0) linkTitle = linkTitle.substring(0, anchor);
+                linkTitle = normalizeTitle(Parser.unescapeEntities(linkTitle, false));
+                // A link to a section of this page is not an outgoing link.
+                if (!linkTitle.isEmpty()) conversion.outLinks.add(linkTitle);
+
+                output.append(label == null || label.isEmpty() ? target : label);
+                Matcher trail = LINK_TRAIL_PATTERN.matcher(text.substring(i, Math.min(text.length(), i + 32)));
+                if (trail.find()) {
+                    output.append(trail.group());
+                    i += trail.end();
+                }
+            }
+        }
+        return output.toString();
+    }
+
+    /**
+     * Split the text into blocks: a heading, a paragraph (of consecutive lines), or a list item.
+     * A heading followed directly by another heading of the same level has no text, thus is removed.
+     */
+    private static List<String> toBlocks(String text) {
+        List<String> blocks = new ArrayList<>();
+        // The level of the last block if it is a heading, or 0.
+        int lastHeading = 0;
+        StringBuilder paragraph = new StringBuilder();
+
+        for (String line : text.split("\n")) {
+            Matcher heading = HEADING_PATTERN.matcher(line);
+            Matcher list = LIST_PATTERN.matcher(line);
+            String trimmed = line.trim();
+
+            if (trimmed.isEmpty() || trimmed.startsWith("----") || heading.matches() || list.lookingAt()) {
+                lastHeading = flush(paragraph, blocks, lastHeading);
+                if (heading.matches()) {
+                    String block = clean(heading.group(2));
+                    if (block.isEmpty())
+                        continue;
+                    if (lastHeading == heading.group(1).length()) blocks.remove(blocks.size() - 1);
+                    blocks.add(block);
+                    lastHeading = heading.group(1).length();
+                } else if (list.lookingAt()) {
+                    String block = clean(line.substring(list.end()));
+                    if (block.isEmpty())
+                        continue;
+                    blocks.add(block);
+                    lastHeading = 0;
+                }
+            } else {
+                if (paragraph.length() > 0) paragraph.append(' ');
+                paragraph.append(trimmed);
+            }
+        }
+        flush(paragraph, blocks, lastHeading);
+        return blocks;
+    }
+
+    private static int flush(StringBuilder paragraph, List<String> blocks, int lastHeading) {
+        if (paragraph.length() == 0)
+            return lastHeading;
+
+        String block = clean(paragraph.toString());
+        paragraph.setLength(0);
+        if (block.isEmpty())
+            return lastHeading;
+        blocks.add(block);
+        return 0;
+    }
+
+    /**
+     * Decode the entities, and collapse the spaces.
+     */
+    private static String clean(String text) {
+        if (text.indexOf('&') >= 0) text = Parser.unescapeEntities(text, false);
+        return SPACES_PATTERN.matcher(text).replaceAll(" ").trim();
+    }
+}
@@ -1,111 +1,625 @@
 package edu.ucr.cs242.crawler;
 
+import edu.ucr.cs242.ContentCodec;
 import edu.ucr.cs242.OnThreadExitEventListener;
 
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
-import java.sql.SQLException;
+import java.sql.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.BlockingQueue;
-import java.util.stream.Collectors;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * The consumer class, to write data into database.
+ * The consumer class, to write data into database. A single writer is shared by all crawling workers,
+ * which hand the pages over through a queue bounded by the memory the pages hold, so only one connection ever writes
+ * into SQLite, and a stalled database holds the workers back instead of piling up pages on the heap.
+ * The pages are written by group commit: a transaction is committed when the buffered pages reach a row count
+ * or a size limit, or when the oldest buffered page has waited long enough, whichever comes first.
+ * Thus the transactions grow with the load, while a page is never held back for long when the load is light.
+ * If compression is enabled, the content is encoded by {@link ContentCodec}. Without a trained dictionary yet,
+ * the first pages are written in plain text, and sampled to train one.
+ * The SimHash fingerprint of a page is computed by the worker handing it over, and checked against the
+ * {@link DuplicateDetector} if any, which either marks a near-duplicate or drops it before it is queued.
+ * The redirects found by the workers go through the same queue, into the `redirects` table.
+ * A page is keyed by the id of its title in the titles {@link IdDictionary}, and its outgoing links are written as
+ * pairs of ids, the target titles added to the dictionary if not crawled yet. So are its categories,
+ * by the ids of their names in the categories dictionary.
  */
 public class WriterThread extends Thread {
     /**
-     * The number of records to be batch-written per SQL transaction.
+     * The default capacity of the queue (bytes). Crawling workers are blocked when the queue is full.
      */
-    public static final int BATCH_WRITE_COUNT = 50;
+    public static final long QUEUE_MEMORY = 64L * 1024 * 1024;
     /**
-     * The SQL insert statement.
+     * The estimated memory held by a string besides its characters (bytes): the header of the string and its array.
+     */
+    public static final int STRING_OVERHEAD = 40;
+    /**
+     * The maximum number of pages per transaction.
+     */
+    public static final int MAX_BATCH_ROWS = 500;
+    /**
+     * The maximum estimated size of pages per transaction (bytes).
+     */
+    public static final long MAX_BATCH_BYTES = 8L * 1024 * 1024;
+    /**
+     * The maximum time a page is buffered before being committed (milliseconds).
+     */
+    public static final long MAX_BATCH_DELAY = 500;
+    /**
+     * The number of pages sampled to train a dictionary.
+     */
+    public static final int TRAIN_SAMPLE_COUNT = 500;
+    /**
+     * The SQL update statement, which only updates a page if it is changed, and flags it dirty for re-indexing.
+     * The categories and the outgoing links are compared by their digest.
+     */
+    public static final String SQL_UPDATE =
+            "UPDATE pages SET content = ?, lastModify = ?, digest = ?, duplicateOf = ?, dirty = 1 " +
+            "WHERE id = ? AND (content IS NOT ? OR digest IS NOT ? OR duplicateOf IS NOT ?)";
+    /**
+     * The SQL update statement of the validators and the fingerprint, which does not flag the page dirty.
+     */
+    public static final String SQL_UPDATE_VALIDATORS =
+            "UPDATE pages SET url = ?, etag = ?, lastModified = ?, simhash = ? WHERE id = ?";
+    /**
+     * The SQL insert statement for new pages. SQLite before 3.24 has no upsert, thus updates go first.
      */
     public static final String SQL_INSERT =
-            "INSERT OR IGNORE INTO pages (title, content, categories, lastModify, outLinks) VALUES (?, ?, ?, ?, ?)";
-
-    private final int threadId;
-    private final BlockingQueue<WikiPage> pageQueue;
+            "INSERT OR IGNORE INTO pages (id, title, content, lastModify, digest, url, etag, lastModified, " +
+            "simhash, duplicateOf, dirty) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, 1)";
+    /**
+     * The SQL statements replacing the outgoing links of a page, by the ids of their titles.
+     */
+    public static final String SQL_DELETE_LINKS = "DELETE FROM links WHERE src_id = ?";
+    public static final String SQL_INSERT_LINK = "INSERT OR IGNORE INTO links (src_id, dst_id) VALUES (?, ?)";
+    /**
+     * The SQL statements replacing the categories of a page, by the ids of their names.
+     */
+    public static final String SQL_DELETE_CATEGORIES = "DELETE FROM page_categories WHERE page_id = ?";
+    public static final String SQL_INSERT_CATEGORY =
+            "INSERT OR IGNORE INTO page_categories (page_id, category_id) VALUES (?, ?)";
+    /**
+     * The SQL insert statement for redirects, where the latest target of a title wins.
+     */
+    public static final String SQL_INSERT_REDIRECT =
+            "INSERT OR REPLACE INTO redirects (source, target, url) VALUES (?, ?, ?)";
 
-    private Connection dbConnection;
+    private final MemoryBoundedQueue<QueuedPage> pageQueue;
+    private final Connection dbConnection;
+    private final CrawlStats stats;
+    private final ContentCodec codec;
+    private final DuplicateDetector duplicates;
+    private List<String> samples = null;
     private OnThreadExitEventListener exitEventListener;
 
+    private volatile boolean finishing = false;
+    private volatile boolean failed = false;
+
+    // Metrics, written by the writer only.
+    private volatile int committedCount = 0;
+    private volatile int redirectCount = 0;
+    private volatile int writtenCount = 0;
+    private final AtomicInteger acceptedCount = new AtomicInteger(0);
+    private final Object writtenLock = new Object();
+    private volatile int commitCount = 0;
+    private volatile long totalCommitTime = 0;
+    private volatile long maxCommitTime = 0;
+    private volatile long totalQueueDepth = 0;
+    private volatile int maxQueueDepth = 0;
+    private final AtomicLong blockedCount = new AtomicLong(0);
+    private final AtomicLong skippedCount = new AtomicLong(0);
+    private final int[] flushCounts = new int[FlushReason.values().length];
+
+    /**
+     * The statements batched into a transaction, executed in order when committed.
+     */
+    private static class Statements implements AutoCloseable {
+        private final PreparedStatement update;
+        private final PreparedStatement updateValidators;
+        private final PreparedStatement insert;
+        private final PreparedStatement deleteLinks;
+        private final PreparedStatement insertLink;
+        private final PreparedStatement deleteCategories;
+        private final PreparedStatement insertCategory;
+        private final PreparedStatement insertRedirect;
+        private final IdDictionary titles;
+        private final IdDictionary categories;
+
+        private Statements(Connection dbConnection) throws SQLException {
+            this.update = dbConnection.prepareStatement(SQL_UPDATE);
+            this.updateValidators = dbConnection.prepareStatement(SQL_UPDATE_VALIDATORS);
+            this.insert = dbConnection.prepareStatement(SQL_INSERT);
+            this.deleteLinks = dbConnection.prepareStatement(SQL_DELETE_LINKS);
+            this.insertLink = dbConnection.prepareStatement(SQL_INSERT_LINK);
+            this.deleteCategories = dbConnection.prepareStatement(SQL_DELETE_CATEGORIES);
+            this.insertCategory = dbConnection.prepareStatement(SQL_INSERT_CATEGORY);
+            this.insertRedirect = dbConnection.prepareStatement(SQL_INSERT_REDIRECT);
+            this.titles = IdDictionary.titles(dbConnection);
+            this.categories = IdDictionary.categories(dbConnection);
+        }
+
+        @Override
+        public void close() throws SQLException {
+            for (AutoCloseable statement : Arrays.asList(update, updateValidators, insert, deleteLinks, insertLink,
+                    deleteCategories, insertCategory, insertRedirect, titles, categories)) {
+                try { statement.close(); }
+                catch (Exception e) { /* closed with the connection anyway */ }
+            }
+        }
+    }
+
+    /**
+     * What triggers a group commit.
+     */
+    private enum FlushReason { ROWS, BYTES, DEADLINE, FINAL }
+
+    /**
+     * A page in the queue, with the time it is handed over, and the memory it holds.
+     * A redirect has no page, but the titles it redirects from and to, and the url it is found at.
+     */
+    private static class QueuedPage {
+        private final WikiPage page;
+        private final String[] redirect;
+        private final long queuedAt;
+        private final long memory;
+
+        private QueuedPage(WikiPage page, long queuedAt) {
+            this.page = page;
+            this.redirect = null;
+            this.queuedAt = queuedAt;
+            this.memory = memoryOf(page);
+        }
+
+        private QueuedPage(String[] redirect, long queuedAt) {
+            this.page = null;
+            this.redirect = redirect;
+            this.queuedAt = queuedAt;
+            long memory = 0;
+            for (String field : redirect) memory += field == null ? 0 : 2L * field.length() + STRING_OVERHEAD;
+            this.memory = memory;
+        }
+
+        private long size() {
+            if (page != null)
+                return sizeOf(page);
+            long size = 0;
+            for (String field : redirect) size += field == null ? 0 : field.length();
+            return size;
+        }
+    }
+
     public void setExitEventListener(OnThreadExitEventListener exitEventListener) {
         this.exitEventListener = exitEventListener;
     }
 
     /**
      * Construct a writer thread, with given settings.
-     * @param threadId  The associated thread id.
-     * @param jdbcUrl   The JDBC connection string.
-     * @param pageQueue The producer-consumer queue.
+     * @param jdbcUrl  The JDBC connection string.
+     * @param compress Whether to compress the content.
+     * @param stats    The statistics to record the latencies of the queue and the commits into.
+     * @param queueMemory The capacity of the queue (bytes).
+     * @param duplicates  The near-duplicate detector, or null not to detect near-duplicates.
      * @throws SQLException
      */
-    public WriterThread(int threadId, String jdbcUrl, BlockingQueue<WikiPage> pageQueue) throws SQLException {
-        this.threadId = threadId;
-        this.pageQueue = pageQueue;
-
+    public WriterThread(String jdbcUrl, boolean compress, CrawlStats stats, long queueMemory,
+                        DuplicateDetector duplicates) throws SQLException {
+        super("WriterThread");
+        this.stats = stats;
+        this.duplicates = duplicates;
+        this.pageQueue = new MemoryBoundedQueue<>(queueMemory, queued -> queued.memory);
         this.dbConnection = DriverManager.getConnection(jdbcUrl);
+
+        // With write-ahead logging, readers never block the writer, and a commit does not rewrite the database.
+        try (Statement statement = dbConnection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = WAL");
+            statement.execute("PRAGMA synchronous = NORMAL");
+        }
         this.dbConnection.setAutoCommit(false);
+
+        this.codec = compress ? ContentCodec.load(dbConnection) : null;
+        if (codec != null && !codec.canEncode()) {
+            samples = new ArrayList<>(TRAIN_SAMPLE_COUNT);
+        }
+    }
+
+    /**
+     * Hand a page over to the writer, blocking while the queue is full.
+     * A near-duplicate is dropped here, if the detector is to skip them.
+     * @param page The page to write.
+     * @throws InterruptedException
+     */
+    public void put(WikiPage page) throws InterruptedException {
+        // Fingerprinted by the worker, so the single writer is not held up by it.
+        long begin = System.nanoTime();
+        long simHash = SimHash.of(page.getContent());
+        String duplicateOf = duplicates == null ? null : duplicates.check(page.getTitle(), simHash);
+        stats.recordSince(CrawlStats.Stage.DEDUP, begin);
+        if (duplicateOf != null && duplicates.getAction() == DuplicateDetector.Action.SKIP) {
+            skippedCount.incrementAndGet();
+            return;
+        }
+        page.withSimHash(simHash, duplicateOf);
+        offer(new QueuedPage(page, System.nanoTime()));
+    }
+
+    /**
+     * Hand a redirect over to the writer, blocking while the queue is full.
+     * @param source The title of the redirect.
+     * @param target The title of the page it redirects to.
+     * @param url    The url of the redirect, may be null.
+     * @throws InterruptedException
+     */
+    public void putRedirect(String source, String target, String url) throws InterruptedException {
+        offer(new QueuedPage(new String[] { source, target, url }, System.nanoTime()));
+    }
+
+    private void offer(QueuedPage queued) throws InterruptedException {
+        boolean blocked = false;
+        // The page is dropped if the writer fails, otherwise the workers would wait forever.
+        while (!failed) {
+            if (pageQueue.offer(queued, blocked ? MAX_BATCH_DELAY : 0, TimeUnit.MILLISECONDS)) {
+                acceptedCount.incrementAndGet();
+                stats.recordSince(CrawlStats.Stage.QUEUE_PUT, queued.queuedAt);
+                break;
+            }
+            // Only counted once per page, however long it waits.
+            if (!blocked) {
+                blocked = true;
+                blockedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Block until all the pages handed over so far are committed, which takes at most about {@link #MAX_BATCH_DELAY}.
+     * @return Whether the pages are committed, false if the writer has failed or exited.
+     * @throws InterruptedException
+     */
+    public boolean sync() throws InterruptedException {
+        int target = acceptedCount.get();
+        synchronized (writtenLock) {
+            while (writtenCount < target && !failed && isAlive())
+                writtenLock.wait(MAX_BATCH_DELAY);
+        }
+        return writtenCount >= target;
+    }
+
+    /**
+     * Let the writer exit after all pages in the queue are written.
+     */
+    public void finish() {
+        finishing = true;
+    }
+
+    /**
+     * @return Whether the writer has stopped due to an error, after which no page will be written.
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * @return The number of pages waiting in the queue.
+     */
+    public int getQueueDepth() {
+        return pageQueue.size();
+    }
+
+    /**
+     * @return The number of pages committed, whether changed or not.
+     */
+    public int getWrittenCount() {
+        return writtenCount;
+    }
+
+    /**
+     * @return The estimated memory held by the pages waiting in the queue (bytes).
+     */
+    public long getQueueMemory() {
+        return pageQueue.getUsedBytes();
+    }
+
+    /**
+     * @return The maximum estimated memory ever held by the queue (bytes).
+     */
+    public long getMaxQueueMemory() {
+        return pageQueue.getMaxUsedBytes();
+    }
+
+    /**
+     * @return The capacity of the queue (bytes).
+     */
+    public long getQueueCapacity() {
+        return pageQueue.getCapacity();
+    }
+
+    /**
+     * @return The number of pages whose workers were blocked, waiting for room in the queue.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * @return The number of near-duplicates dropped, never queued.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * @return The number of new or changed pages committed.
+     */
+    public int getCommittedCount() {
+        return committedCount;
+    }
+
+    /**
+     * @return The number of redirects committed.
+     */
+    public int getRedirectCount() {
+        return redirectCount;
+    }
+
+    /**
+     * @return The average time of a commit, including executing the batch (milliseconds).
+     */
+    public double getAverageCommitLatency() {
+        int count = commitCount;
+        return count == 0 ? 0 : totalCommitTime / 1e6 / count;
+    }
+
+    /**
+     * @return The maximum time of a commit, including executing the batch (milliseconds).
+     */
+    public double getMaxCommitLatency() {
+        return maxCommitTime / 1e6;
+    }
+
+    /**
+     * @return The average number of pages waiting in the queue, sampled at each commit.
+     */
+    public double getAverageQueueDepth() {
+        int count = commitCount;
+        return count == 0 ? 0 : totalQueueDepth / (double) count;
+    }
+
+    /**
+     * @return The maximum number of pages waiting in the queue, sampled at each commit.
+     */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * Estimate the size of a page in database.
+     */
+    private static long sizeOf(WikiPage page) {
+        long size = page.getTitle().length() + page.getContent().length();
+        for (String category : page.getCategories()) size += category.length() + 1;
+        for (String outLink : page.getOutLinks()) size += outLink.length() + 1;
+        return size;
+    }
+
+    /**
+     * Estimate the memory held by a page in the queue, two bytes per character at most.
+     */
+    private static long memoryOf(WikiPage page) {
+        long memory = 2 * sizeOf(page) +
+                STRING_OVERHEAD * (4L + page.getCategories().size() + page.getOutLinks().size());
+        if (page.getUrl() != null) memory += 2L * page.getUrl().length() + STRING_OVERHEAD;
+        if (page.getDuplicateOf() != null) memory += 2L * page.getDuplicateOf().length() + STRING_OVERHEAD;
+        return memory;
+    }
+
+    /**
+     * Collect the content as a sample, and train the dictionary once enough samples are collected.
+     */
+    private void sample(String content) throws SQLException {
+        samples.add(content);
+        if (samples.size() >= TRAIN_SAMPLE_COUNT) {
+            codec.addDictionary(dbConnection, ContentCodec.train(samples, ContentCodec.DICTIONARY_SIZE));
+            System.out.println("WriterThread trained a dictionary of " + codec.getDictionarySize() + " bytes " +
+                    "from " + samples.size() + " pages. The content is compressed from now on.");
+            samples = null;
+        }
+    }
+
+    /**
+     * The digest of the categories and the outgoing links of a page (64-bit FNV-1a), to tell whether either changed.
+     * @param categories The categories.
+     * @param outLinks   The titles of the outgoing links.
+     * @return The digest.
+     */
+    public static long digestOf(List<String> categories, List<String> outLinks) {
+        long hash = 0xcbf29ce484222325L;
+        for (List<String> list : Arrays.asList(categories, outLinks)) {
+            for (String item : list) {
+                for (int i = 0; i < item.length(); i++) hash = (hash ^ item.charAt(i)) * 0x100000001b3L;
+                // Separate the items, so moving a character across them changes the digest.
+                hash = (hash ^ '|') * 0x100000001b3L;
+            }
+            hash = (hash ^ '\n') * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void addBatch(WikiPage page, Statements statements) throws SQLException {
+        Object content = page.getContent();
+        if (codec != null && codec.canEncode()) {
+            content = codec.encode(page.getContent());
+        } else if (samples != null) {
+            sample(page.getContent());
+        }
+
+        int id = statements.titles.idOf(page.getTitle());
+        Integer duplicateOf = page.getDuplicateOf() == null ? null : statements.titles.idOf(page.getDuplicateOf());
+        long digest = digestOf(page.getCategories(), page.getOutLinks());
+        String lastModify = page.getLastModify().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm"));
+
+        PreparedStatement update = statements.update;
+        update.setObject(1, content);
+        update.setString(2, lastModify);
+        update.setLong(3, digest);
+        update.setObject(4, duplicateOf);
+        update.setInt(5, id);
+        update.setObject(6, content);
+        update.setLong(7, digest);
+        update.setObject(8, duplicateOf);
+        update.addBatch();
+
+        PreparedStatement updateValidators = statements.updateValidators;
+        updateValidators.setString(1, page.getUrl());
+        updateValidators.setString(2, page.getETag());
+        updateValidators.setString(3, page.getLastModified());
+        updateValidators.setLong(4, page.getSimHash());
+        updateValidators.setInt(5, id);
+        updateValidators.addBatch();
+
+        PreparedStatement insert = statements.insert;
+        insert.setInt(1, id);
+        insert.setString(2, page.getTitle());
+        insert.setObject(3, content);
+        insert.setString(4, lastModify);
+        insert.setLong(5, digest);
+        insert.setString(6, page.getUrl());
+        insert.setString(7, page.getETag());
+        insert.setString(8, page.getLastModified());
+        insert.setLong(9, page.getSimHash());
+        insert.setObject(10, duplicateOf);
+        insert.addBatch();
+
+        // The rows are replaced whether changed or not, they are cheap to write compared to the content.
+        statements.deleteLinks.setInt(1, id);
+        statements.deleteLinks.addBatch();
+        for (String outLink : page.getOutLinks()) {
+            statements.insertLink.setInt(1, id);
+            statements.insertLink.setInt(2, statements.titles.idOf(outLink));
+            statements.insertLink.addBatch();
+        }
+
+        statements.deleteCategories.setInt(1, id);
+        statements.deleteCategories.addBatch();
+        for (String category : page.getCategories()) {
+            statements.insertCategory.setInt(1, id);
+            statements.insertCategory.setInt(2, statements.categories.idOf(category));
+            statements.insertCategory.addBatch();
+        }
+    }
+
+    private static void addRedirectBatch(String[] redirect, PreparedStatement insertRedirect) throws SQLException {
+        for (int i = 0; i < redirect.length; i++) insertRedirect.setString(i + 1, redirect[i]);
+        insertRedirect.addBatch();
+    }
+
+    /**
+     * Execute the batched statements in order, and commit.
+     * @return The number of changed or new pages.
+     */
+    private int commit(Statements statements, int rows, FlushReason reason) throws SQLException {
+        long begin = System.nanoTime();
+        int changed = Arrays.stream(statements.update.executeBatch()).sum();
+        statements.updateValidators.executeBatch();
+        changed += Arrays.stream(statements.insert.executeBatch()).sum();
+        statements.deleteLinks.executeBatch();
+        statements.insertLink.executeBatch();
+        statements.deleteCategories.executeBatch();
+        statements.insertCategory.executeBatch();
+        int redirects = statements.insertRedirect.executeBatch().length;
+        dbConnection.commit();
+        long elapsed = System.nanoTime() - begin;
+        stats.record(CrawlStats.Stage.COMMIT, elapsed);
+
+        int queueDepth = pageQueue.size();
+        totalCommitTime += elapsed;
+        maxCommitTime = Math.max(maxCommitTime, elapsed);
+        totalQueueDepth += queueDepth;
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        ++flushCounts[reason.ordinal()];
+        ++commitCount;
+        committedCount += changed;
+        redirectCount += redirects;
+        synchronized (writtenLock) {
+            writtenCount += rows;
+            writtenLock.notifyAll();
+        }
+        return changed;
     }
 
     @Override
     public void run() {
-        int bufferedCount = 0;
-        int committedCount = 0;
-
-        System.out.println("WriterThread " + threadId + " started at " + LocalDateTime.now().toLocalTime() + ".");
-        try (PreparedStatement statement = dbConnection.prepareStatement(SQL_INSERT)) {
-            while (!Thread.currentThread().isInterrupted()) {
-                try {
-                    WikiPage page = pageQueue.take();
-
-                    statement.setString(1, page.getTitle());
-                    statement.setString(2, page.getContent());
-                    statement.setString(3, page.getCategories().stream().collect(Collectors.joining("|")));
-                    statement.setString(4, page.getLastModify().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm")));
-                    statement.setString(5, page.getOutLinks().stream().collect(Collectors.joining("|")));
-                    statement.addBatch();
-
-                    if (++bufferedCount % BATCH_WRITE_COUNT == 0) {
-                        int sum = Arrays.stream(statement.executeBatch()).sum();
-                        dbConnection.commit();
-                        committedCount += sum;
-
-                        System.out.format("WriterThread %d committed %d pages. Most recent one: %s.%n",
-                                threadId, sum, page.getTitle());
+        List<QueuedPage> drained = new ArrayList<>(MAX_BATCH_ROWS);
+        int bufferedRows = 0;
+        long bufferedBytes = 0;
+        long deadline = Long.MAX_VALUE;
+
+        System.out.println("WriterThread started at " + LocalDateTime.now().toLocalTime() + ".");
+        try (Statements statements = new Statements(dbConnection)) {
+            while (!finishing || !pageQueue.isEmpty()) {
+                // Wait for the first page, or until the oldest buffered page is due.
+                long timeout = bufferedRows == 0 ? MAX_BATCH_DELAY :
+                        TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                QueuedPage first = timeout > 0 ? pageQueue.poll(timeout, TimeUnit.MILLISECONDS) : null;
+
+                if (first != null) {
+                    // Take whatever else is waiting, without blocking.
+                    drained.add(first);
+                    pageQueue.drainTo(drained, MAX_BATCH_ROWS - bufferedRows - 1);
+
+                    for (QueuedPage queued : drained) {
+                        stats.recordSince(CrawlStats.Stage.QUEUE_WAIT, queued.queuedAt);
+                        if (queued.page != null) addBatch(queued.page, statements);
+                        else addRedirectBatch(queued.redirect, statements.insertRedirect);
+                        if (bufferedRows++ == 0) deadline = System.nanoTime() + MAX_BATCH_DELAY * 1000000;
+                        bufferedBytes += queued.size();
                     }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
+                    drained.clear();
+                }
+
+                FlushReason reason = null;
+                if (bufferedRows >= MAX_BATCH_ROWS) reason = FlushReason.ROWS;
+                else if (bufferedBytes >= MAX_BATCH_BYTES) reason = FlushReason.BYTES;
+                else if (bufferedRows > 0 && System.nanoTime() >= deadline) reason = FlushReason.DEADLINE;
+
+                if (reason != null) {
+                    int sum = commit(statements, bufferedRows, reason);
+                    System.out.format("WriterThread committed %d of %d pages (by %s). Queue depth: %d.%n",
+                            sum, bufferedRows, reason.name().toLowerCase(), pageQueue.size());
+                    bufferedRows = 0;
+                    bufferedBytes = 0;
                 }
             }
 
             // The final commit.
-            int sum = Arrays.stream(statement.executeBatch()).sum();
-            dbConnection.commit();
-            committedCount += sum;
+            commit(statements, bufferedRows, FlushReason.FINAL);
         } catch (Exception e) {
-            System.out.println("WriterThread " + threadId + " throws an exception.");
+            System.out.println("WriterThread throws an exception.");
             e.printStackTrace();
 
             // Something wrong, we have to rollback the transaction.
-            Thread.currentThread().interrupt();
+            failed = true;
+            pageQueue.clear();
             try { dbConnection.rollback(); }
             catch (SQLException _e) { _e.printStackTrace(); }
         } finally {
             try { dbConnection.close(); }
             catch (SQLException _e) { _e.printStackTrace(); }
 
-            System.out.format("Summary: WriterThread %d committed %d pages in total.%n", threadId, committedCount);
-
-            // Normal exit?
-            if (!Thread.currentThread().isInterrupted()) {
-                synchronized (pageQueue) {
-                    pageQueue.notify();
-                }
-            }
+            System.out.format("Summary: WriterThread committed %d pages in total, in %d transactions " +
+                            "(by rows: %d, by bytes: %d, by deadline: %d). " +
+                            "Commit latency: avg %.2f ms, max %.2f ms. Queue depth: avg %.1f, max %d. " +
+                            "Queue memory: max %.2f of %.2f MB, %d pages blocked. %d near-duplicates skipped. " +
+                            "%d redirects recorded.%n",
+                    committedCount, commitCount, flushCounts[FlushReason.ROWS.ordinal()],
+                    flushCounts[FlushReason.BYTES.ordinal()], flushCounts[FlushReason.DEADLINE.ordinal()],
+                    getAverageCommitLatency(), getMaxCommitLatency(), getAverageQueueDepth(), maxQueueDepth,
+                    getMaxQueueMemory() / 1048576.0, getQueueCapacity() / 1048576.0, blockedCount.get(),
+                    skippedCount.get(), redirectCount);
 
             if (exitEventListener != null) {
                 exitEventListener.onExitEvent(committedCount);
@@ -1,95 +1,85 @@
 package edu.ucr.cs242.indexing;
 
+import edu.ucr.cs242.ContentCodec;
+import edu.ucr.cs242.PageScanner;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
 
 import java.io.IOException;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 
 public class IndexThread extends Thread {
     /**
-     * The number of records to be batch-read per SQL transaction.
+     * The columns read besides the id.
+     * The category names are resolved from their ids, and joined by `|`, as the analyzer of the categories expects.
      */
-    public static final int BATCH_READ_COUNT = 50;
-    /**
-     * The SQL query statement.
-     */
-    public static final String SQL_QUERY = "SELECT title, content, categories FROM pages LIMIT ? OFFSET ?";
+    public static final String SQL_COLUMNS =
+            "title, content, " +
+            "(SELECT group_concat(c.name, '|') FROM page_categories p JOIN categories c ON c.id = p.category_id " +
+            "WHERE p.page_id = pages.id) AS categories";
 
     private final Indexer indexer;
     private final int threadId;
-    private final int pageStartIndex;
-    private final int numOfPages;
+    private final PageScanner.Range range;
     private final Connection dbConnection;
     private final IndexWriter indexWriter;
+    private final ContentCodec codec;
 
     /**
      * Construct an indexing thread with given settings.
-     * @param indexer        The associated indexer.
-     * @param threadId       The associated thread id.
-     * @param pageStartIndex The page offset (in the database) to start indexing.
-     * @param numOfPages     The number of pages to index.
-     * @param dbConnection   The connection to the database.
-     * @param indexWriter    The index writer.
+     * @param indexer      The associated indexer.
+     * @param threadId     The associated thread id.
+     * @param range        The range of pages to index.
+     * @param dbConnection The connection to the database.
+     * @param indexWriter  The index writer.
+     * @param codec        The codec to decode the content.
      */
-    public IndexThread(Indexer indexer, int threadId, int pageStartIndex, int numOfPages,
-                       Connection dbConnection, IndexWriter indexWriter) {
+    public IndexThread(Indexer indexer, int threadId, PageScanner.Range range,
+                       Connection dbConnection, IndexWriter indexWriter, ContentCodec codec) {
         this.indexer = indexer;
         this.threadId = threadId;
-        this.pageStartIndex = pageStartIndex;
-        this.numOfPages = numOfPages;
+        this.range = range;
         this.dbConnection = dbConnection;
         this.indexWriter = indexWriter;
+        this.codec = codec;
     }
 
     @Override
     public void run() {
-        int indexedCount = 0;
-
         System.out.println("IndexerThread " + threadId + " started at " + LocalDateTime.now().toLocalTime() + ". " +
-                "Pages to index: " + numOfPages + ".");
-        while (indexedCount < numOfPages) {
-            int localCount = 0;
-
-            try (PreparedStatement statement = dbConnection.prepareStatement(SQL_QUERY)) {
-                statement.setInt(1, Math.min(BATCH_READ_COUNT, numOfPages - indexedCount));
-                statement.setInt(2, pageStartIndex + indexedCount);
+                "Ids to index: " + range + ".");
 
-                try (ResultSet result = statement.executeQuery()) {
-                    while (result.next()) {
-                        String title = result.getString("title");
-                        String content = result.getString("content");
-                        String categories = result.getString("categories");
-
-                        Document doc = new Document();
-                        doc.add(new Field("title", title, TextField.TYPE_STORED));
-                        // Content & categories are indexed only, but not stored,
-                        // to save the space. We'll fetch the content from our database.
-                        doc.add(new Field("content", content, TextField.TYPE_NOT_STORED));
-                        doc.add(new Field("categories", categories, TextField.TYPE_NOT_STORED));
-                        indexWriter.addDocument(doc);
-
-                        ++localCount;
-                    }
-                }
+        try {
+            new PageScanner(dbConnection, SQL_COLUMNS).scan(range, result -> {
+                int id = result.getInt("id");
+                String title = result.getString("title");
+                String content = codec.getContent(result, "content");
+                String categories = result.getString("categories");
 
+                Document doc = new Document();
+                // The searcher fetches the page by its id.
+                doc.add(new StoredField("id", id));
+                doc.add(new Field("title", title, TextField.TYPE_STORED));
+                // Content & categories are indexed only, but not stored,
+                // to save the space. We'll fetch the content from our database.
+                doc.add(new Field("content", content, TextField.TYPE_NOT_STORED));
+                doc.add(new Field("categories", categories == null ? "" : categories, TextField.TYPE_NOT_STORED));
+                indexWriter.addDocument(doc);
+            }, localCount -> {
                 indexWriter.commit();
-
-                indexedCount += localCount;
                 indexer.reportProgress(localCount);
-            } catch (SQLException e) {
-                System.out.println("IndexerThread " + threadId + " throws an SQLException.");
-                e.printStackTrace();
-            } catch (IOException e) {
-                System.out.println("IndexerThread " + threadId + " throws an IOException.");
-                e.printStackTrace();
-            }
+            });
+        } catch (SQLException e) {
+            System.out.println("IndexerThread " + threadId + " throws an SQLException.");
+            e.printStackTrace();
+        } catch (IOException e) {
+            System.out.println("IndexerThread " + threadId + " throws an IOException.");
+            e.printStackTrace();
         }
     }
 }
@@ -1,5 +1,7 @@
 package edu.ucr.cs242.indexing;
 
+import edu.ucr.cs242.ContentCodec;
+import edu.ucr.cs242.PageScanner;
 import edu.ucr.cs242.Utility;
 import org.apache.commons.cli.*;
 import org.apache.lucene.analysis.Analyzer;
@@ -50,14 +52,14 @@ public class Indexer {
         }
     }
 
-    private void startThreads(IndexWriter indexWriter) {
+    private void startThreads(IndexWriter indexWriter, ContentCodec codec) throws SQLException {
         IndexThread[] threads = new IndexThread[numOfThreads];
+        // Each thread scans a range of ids, of about the same number of pages.
+        List<PageScanner.Range> ranges = PageScanner.partition(dbConnection, numOfThreads);
 
-        for (int i = 0, pageStartIndex = 0; i < numOfThreads; i++) {
-            int partition = Utility.calculatePartition(numOfPages, numOfThreads, i);
-            threads[i] = new IndexThread(this, i, pageStartIndex, partition, dbConnection, indexWriter);
+        for (int i = 0; i < numOfThreads; i++) {
+            threads[i] = new IndexThread(this, i, ranges.get(i), dbConnection, indexWriter, codec);
             threads[i].start();
-            pageStartIndex += partition;
         }
 
         Utility.waitThreads(threads);
@@ -97,13 +99,16 @@ public class Indexer {
             System.out.println("Indexer started at " + startAt.toLocalTime() + ". " +
                     "Pages to index: " + numOfPages + ".");
 
-            startThreads(writer);
+            startThreads(writer, ContentCodec.load(dbConnection));
 
             // Some cleanup
             if (writer.hasUncommittedChanges()) {
                 writer.commit();
             }
             writer.close();
+        } catch (SQLException e) {
+            System.out.println("Indexer throws an SQLException.");
+            e.printStackTrace();
         } catch (IOException e) {
             System.out.println("Indexer throws an IOException: " + e.getMessage());
         }
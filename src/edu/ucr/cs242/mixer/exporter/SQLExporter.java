@@ -1,5 +1,7 @@
 package edu.ucr.cs242.mixer.exporter;
 
+import edu.ucr.cs242.ContentCodec;
+import edu.ucr.cs242.PageScanner;
 import edu.ucr.cs242.Utility;
 import org.apache.commons.cli.*;
 import org.json.JSONObject;
@@ -10,37 +12,53 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class SQLExporter {
     /**
-     * The number of records to be batch-read per SQL transaction.
+     * The columns read besides the id, which is the id in the database, thus stable among exports.
+     * The categories are the ids in the dictionary, joined by `,`.
      */
-    public static final int BATCH_READ_COUNT = 50;
-
+    public static final String SQL_COLUMNS =
+            "title, content, " +
+            "(SELECT group_concat(category_id) FROM page_categories WHERE page_id = pages.id) AS categories";
+    /**
+     * The SQL query statement of the category dictionary, exported once, to which the pages refer by id.
+     */
+    public static final String SQL_QUERY_CATEGORIES = "SELECT id, name FROM categories ORDER BY id";
     /**
-     * The SQL query statement.
+     * The SQL query statement of the outgoing links, in order of their source. A link to a title not exported
+     * is resolved through the redirects recorded by the crawler, to the page the redirect points to.
      */
-    public static final String SQL_QUERY = "SELECT title, content, categories, outLinks FROM pages LIMIT ? OFFSET ?";
+    public static final String SQL_QUERY_LINKS =
+            "SELECT l.src_id, COALESCE(p.id, rp.id) AS dst_id, p.id IS NULL AS resolved FROM links l " +
+            "JOIN pages s ON s.id = l.src_id AND s.duplicateOf IS NULL " +
+            "LEFT JOIN pages p ON p.id = l.dst_id AND p.duplicateOf IS NULL " +
+            "LEFT JOIN titles t ON p.id IS NULL AND t.id = l.dst_id " +
+            "LEFT JOIN redirects r ON r.source = t.title " +
+            "LEFT JOIN pages rp ON rp.title = r.target AND rp.duplicateOf IS NULL " +
+            "WHERE COALESCE(p.id, rp.id) IS NOT NULL ORDER BY l.src_id";
 
     private final Connection dbConnection;
     private final String jsonOutputPath;
     private final int numOfPages;
+    private final ContentCodec codec;
 
     /**
      * Construct an SQLExporter with given settings.
      * @param dbConnection   The active database connection.
      * @param jsonOutputPath The folder to output JSON format data.
+     * @throws SQLException
      */
-    public SQLExporter(Connection dbConnection, String jsonOutputPath) {
+    public SQLExporter(Connection dbConnection, String jsonOutputPath) throws SQLException {
         this.dbConnection = dbConnection;
         this.jsonOutputPath = jsonOutputPath;
+        this.codec = ContentCodec.load(dbConnection);
 
         numOfPages = Utility.fetchPageCount(dbConnection);
         // Check number of pages we have.
@@ -50,102 +68,120 @@ public class SQLExporter {
         }
     }
 
-    private void reportProgress(LocalDateTime startAt, int count, boolean links) {
+    private void reportProgress(LocalDateTime startAt, int count) {
         if (count == numOfPages || count % 1000 == 0) {
-            System.out.format("%sSQLExporter has exported %d pages%s, %.2f%% completed. Elapsed time: %s.%n",
+            System.out.format("%sSQLExporter has exported %d pages, %.2f%% completed. Elapsed time: %s.%n",
                     count == numOfPages ? "Summary: " : "",
-                    count,
-                    links ? "' outgoing links" : "",
-                    count * 100.0f / numOfPages, Utility.elapsedTime(startAt, LocalDateTime.now()));
+                    count, count * 100.0f / numOfPages, Utility.elapsedTime(startAt, LocalDateTime.now()));
         }
     }
 
+    /**
+     * Write the outgoing links of a page, if any.
+     */
+    private static void writeLinks(FileOutputStream linkOutput, int id, Set<Integer> links) throws IOException {
+        if (links.isEmpty())
+            return;
+
+        JSONObject object = new JSONObject()
+                .put("id", id)
+                .put("links", new ArrayList<>(links));
+
+        linkOutput.write(object.toString().getBytes("utf-8"));
+        linkOutput.write('\n');
+        linkOutput.flush();
+    }
+
     public void start() {
         LocalDateTime startAt = LocalDateTime.now();
         System.out.println("SQLExporter started at " + startAt.toLocalTime() + ". " +
                 "Pages to export: " + numOfPages + ".");
 
-        Map<String, Integer> titleToId = new HashMap<>();
-        Map<String, List<String>> outgoingLinks = new HashMap<>();
-
         try {
-            int writtenCount = 0;
             FileOutputStream dataOutput = new FileOutputStream(Paths.get(jsonOutputPath, "data.json").toString());
-            FileOutputStream indexOutput = new FileOutputStream(Paths.get(jsonOutputPath, "index.json").toString());
             FileOutputStream linkOutput = new FileOutputStream(Paths.get(jsonOutputPath, "link.json").toString());
+            FileOutputStream categoryOutput =
+                    new FileOutputStream(Paths.get(jsonOutputPath, "categories.json").toString());
 
-            while (writtenCount < numOfPages) {
-                try (PreparedStatement statement = dbConnection.prepareStatement(SQL_QUERY)) {
-                    statement.setInt(1, Math.min(BATCH_READ_COUNT, numOfPages - writtenCount));
-                    statement.setInt(2, writtenCount);
-
-                    try (ResultSet result = statement.executeQuery()) {
-                        while (result.next()) {
-                            String title = result.getString("title");
-                            String content = result.getString("content");
-                            List<String> categories =
-                                    Arrays.stream(result.getString("categories").split(Pattern.quote("|")))
-                                            .collect(Collectors.toList());
-                            List<String> outLinks =
-                                    Arrays.stream(result.getString("outLinks").split(Pattern.quote("|")))
-                                            .collect(Collectors.toList());
-
-                            JSONObject object = new JSONObject()
-                                    .put("id", writtenCount)
-                                    .put("title", title)
-                                    .put("content", content)
-                                    .put("categories", categories);
-
-                            dataOutput.write(object.toString().getBytes("utf-8"));
-                            dataOutput.write('\n');
-                            dataOutput.flush();
-
-                            object = new JSONObject()
-                                    .put("id", writtenCount)
-                                    .put("title", title);
-
-                            indexOutput.write(object.toString().getBytes("utf-8"));
-                            indexOutput.write('\n');
-                            indexOutput.flush();
-
-                            titleToId.put(title, writtenCount);
-                            outgoingLinks.put(title, outLinks);
-
-                            ++writtenCount;
-                        }
-                    }
+            int categoryCount = 0;
+            try (Statement query = dbConnection.createStatement();
+                 ResultSet result = query.executeQuery(SQL_QUERY_CATEGORIES)) {
+                while (result.next()) {
+                    JSONObject object = new JSONObject()
+                            .put("id", result.getInt("id"))
+                            .put("name", result.getString("name"));
 
-                    reportProgress(startAt, writtenCount, false);
-                } catch (SQLException e) {
-                    System.out.println("SQLExporter throws an SQLException.");
-                    e.printStackTrace();
+                    categoryOutput.write(object.toString().getBytes("utf-8"));
+                    categoryOutput.write('\n');
+                    ++categoryCount;
                 }
+                categoryOutput.flush();
+            } catch (SQLException e) {
+                System.out.println("SQLExporter throws an SQLException.");
+                e.printStackTrace();
             }
+            System.out.println("SQLExporter has exported " + categoryCount + " categories.");
+
+            try {
+                int[] writtenCount = { 0 };
+                PageScanner.Range range = PageScanner.partition(dbConnection, 1).get(0);
+                new PageScanner(dbConnection, SQL_COLUMNS).scan(range, result -> {
+                    int id = result.getInt("id");
+                    String title = result.getString("title");
+                    String content = codec.getContent(result, "content");
+                    String joinedCategories = result.getString("categories");
+                    List<Integer> categories = joinedCategories == null ? Collections.emptyList() :
+                            Arrays.stream(joinedCategories.split(","))
+                                    .map(Integer::parseInt).collect(Collectors.toList());
 
-            writtenCount = 0;
-            for (Map.Entry<String, Integer> entry : titleToId.entrySet()) {
-                List<Integer> links = outgoingLinks.get(entry.getKey()).stream()
-                        .map(titleToId::get)
-                        .filter(Objects::nonNull)
-                        .collect(Collectors.toList());
-
-                if (!links.isEmpty()) {
                     JSONObject object = new JSONObject()
-                            .put("id", entry.getValue())
-                            .put("links", links);
+                            .put("id", id)
+                            .put("title", title)
+                            .put("content", content)
+                            .put("categories", categories);
+
+                    dataOutput.write(object.toString().getBytes("utf-8"));
+                    dataOutput.write('\n');
+                    dataOutput.flush();
+
+                    ++writtenCount[0];
+                }, localCount -> reportProgress(startAt, writtenCount[0]));
+            } catch (SQLException e) {
+                System.out.println("SQLExporter throws an SQLException.");
+                e.printStackTrace();
+            }
 
-                    linkOutput.write(object.toString().getBytes("utf-8"));
-                    linkOutput.write('\n');
-                    linkOutput.flush();
+            // The links are stored by the ids of their titles, thus streamed without holding every page in memory.
+            int linkedCount = 0, resolvedCount = 0;
+            try (Statement query = dbConnection.createStatement();
+                 ResultSet result = query.executeQuery(SQL_QUERY_LINKS)) {
+                int lastId = -1;
+                Set<Integer> links = new LinkedHashSet<>();
+                while (result.next()) {
+                    int id = result.getInt("src_id");
+                    if (id != lastId) {
+                        if (!links.isEmpty()) ++linkedCount;
+                        writeLinks(linkOutput, lastId, links);
+                        links.clear();
+                        lastId = id;
+                    }
+                    links.add(result.getInt("dst_id"));
+                    if (result.getBoolean("resolved")) ++resolvedCount;
                 }
-
-                ++writtenCount;
-                reportProgress(startAt, writtenCount, true);
+                if (!links.isEmpty()) ++linkedCount;
+                writeLinks(linkOutput, lastId, links);
+            } catch (SQLException e) {
+                System.out.println("SQLExporter throws an SQLException.");
+                e.printStackTrace();
             }
 
+            System.out.format("Summary: SQLExporter has exported the outgoing links of %d pages, " +
+                            "%d of them resolved through redirects. Elapsed time: %s.%n", linkedCount, resolvedCount,
+                    Utility.elapsedTime(startAt, LocalDateTime.now()));
+
             dataOutput.close();
-            indexOutput.close();
             linkOutput.close();
+            categoryOutput.close();
         } catch (IOException e) {
             System.out.println("SQLExporter throws an IOException: " + e.getMessage());
         }
@@ -9,9 +9,8 @@ import java.io.*;
 import java.math.BigInteger;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
-import java.util.Objects;
+import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.stream.Collectors;
 
 public class DocumentLengthImportThread extends Thread {
     private final DB database;
@@ -45,7 +44,11 @@ public class DocumentLengthImportThread extends Thread {
         int indexedCount = 0;
 
         try (BufferedReader dataReader = new BufferedReader(
-                new FileReader(Paths.get(jsonOutputPath, "data.json").toString()))) {
+                new FileReader(Paths.get(jsonOutputPath, "data.json").toString()));
+             BufferedReader categoryReader = new BufferedReader(
+                new FileReader(Paths.get(jsonOutputPath, "categories.json").toString()))) {
+            // The pages refer to their categories by id.
+            Map<Integer, String> categoryNames = Utility.readCategories(categoryReader);
 
             // 0 - title, 1 - content, 2 - categories
             long[] totalDocLength = { 0, 0, 0 };
@@ -58,9 +61,7 @@ public class DocumentLengthImportThread extends Thread {
                     int docId = dataJson.getInt("id");
                     String title = dataJson.getString("title").toLowerCase();
                     String content = dataJson.getString("content").toLowerCase();
-                    String categories = dataJson.getJSONArray("categories").toList().stream()
-                            .map(Objects::toString).map(String::toLowerCase)
-                            .collect(Collectors.joining(" "));
+                    String categories = Utility.joinCategories(dataJson.getJSONArray("categories"), categoryNames);
 
                     totalDocLength[0] += putLength(docId, 0, title);
                     totalDocLength[1] += putLength(docId, 1, content);
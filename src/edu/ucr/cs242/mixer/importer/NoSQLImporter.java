@@ -40,9 +40,6 @@ public class NoSQLImporter {
         options.createIfMissing(true);
 
         try (DB db = JniDBFactory.factory.open(new File(databasePath), options)) {
-            Thread indexThread = new IndexImportThread(db, jsonOutputPath);
-            indexThread.start();
-
             Thread dataThread = new DataImportThread(db, hadoopIndexOutputPath);
             dataThread.start();
 
@@ -52,7 +49,6 @@ public class NoSQLImporter {
             PageRankImportThread pageRankThread = new PageRankImportThread(db, hadoopPageRankOutputPath);
             pageRankThread.start();
 
-            Utility.waitThread(indexThread);
             Utility.waitThread(dataThread);
             Utility.waitThread(lengthThread);
             Utility.waitThread(pageRankThread);
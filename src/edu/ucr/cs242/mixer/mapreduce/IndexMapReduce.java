@@ -14,7 +14,10 @@ import org.json.JSONObject;
 import org.tartarus.snowball.SnowballStemmer;
 import org.tartarus.snowball.ext.englishStemmer;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -22,7 +25,26 @@ import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 class IndexMapper extends Mapper<Object, Text, Text, IndexWritable> {
+    /**
+     * The configuration key of the category dictionary exported along with the data.
+     */
+    static final String CATEGORIES_PATH = "cs242.categories.path";
+
     private final SnowballStemmer stemmer = new englishStemmer();
+    private Map<Integer, String> categoryNames = new HashMap<>();
+
+    @Override
+    protected void setup(Context context) throws IOException {
+        // The pages refer to their categories by id, the names are loaded once per mapper.
+        String categoriesPath = context.getConfiguration().get(CATEGORIES_PATH);
+        if (categoriesPath != null) {
+            Path path = new Path(categoriesPath);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    path.getFileSystem(context.getConfiguration()).open(path), StandardCharsets.UTF_8))) {
+                categoryNames = Utility.readCategories(reader);
+            }
+        }
+    }
 
     private void mapInvertedIndex(Map<String, List<Integer>> frequency,
                                   Map<String, List<List<Integer>>> position,
@@ -68,9 +90,7 @@ class IndexMapper extends Mapper<Object, Text, Text, IndexWritable> {
             // We index in lowercase
             String title = json.getString("title").toLowerCase();
             String content = json.getString("content").toLowerCase();
-            String categories = json.getJSONArray("categories").toList().stream()
-                    .map(Objects::toString).map(String::toLowerCase)
-                    .collect(Collectors.joining(" "));
+            String categories = Utility.joinCategories(json.getJSONArray("categories"), categoryNames);
 
             // <key, <fieldId:freq>>
             Map<String, List<Integer>> frequency = new HashMap<>();
@@ -114,7 +134,16 @@ public class IndexMapReduce {
         if (args.length != 2) {
             System.out.println("usage: mapreduce <json-data-input-path> <index-output-path>");
         } else {
-            Job job = Job.getInstance(new Configuration(), "MapReduceIndexer");
+            Configuration configuration = new Configuration();
+            // The category dictionary is exported next to the data.
+            Path categoriesPath = new Path(new Path(args[0]).getParent(), "categories.json");
+            if (categoriesPath.getFileSystem(configuration).exists(categoriesPath)) {
+                configuration.set(IndexMapper.CATEGORIES_PATH, categoriesPath.toString());
+            } else {
+                System.out.println("mapreduce: " + categoriesPath + " is not found, the categories are not indexed.");
+            }
+
+            Job job = Job.getInstance(configuration, "MapReduceIndexer");
             job.setJarByClass(IndexMapReduce.class);
 
             job.setMapperClass(IndexMapper.class);
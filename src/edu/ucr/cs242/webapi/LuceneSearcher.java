@@ -108,19 +108,20 @@ public class LuceneSearcher extends Searcher {
 
             List<RelatedPage> pages = new ArrayList<>();
             if (hits > 0) {
-                Map<String, String> titleScoreMap = Arrays.stream(topDocs.scoreDocs).map(sd -> {
+                Map<Integer, String> idScoreMap = Arrays.stream(topDocs.scoreDocs).map(sd -> {
                     try { return new AbstractMap.SimpleEntry<>(searcher.doc(sd.doc), sd.score); }
                     catch (IOException e) { return null; }
                 }).filter(Objects::nonNull).collect(
                         // Supplier, LinkedHashMap keep the insertion order.
                         LinkedHashMap::new,
                         // Accumulator
-                        (map, item) -> map.put(item.getKey().get("title"), String.valueOf(item.getValue())),
+                        (map, item) -> map.put(item.getKey().getField("id").numericValue().intValue(),
+                                String.valueOf(item.getValue())),
                         // Combiner
                         LinkedHashMap::putAll
                 );
 
-                pages = fetchRelatedPages(titleScoreMap, keyword, category, LuceneSearcher::fragmentHighlight);
+                pages = fetchRelatedPages(idScoreMap, keyword, category, LuceneSearcher::fragmentHighlight);
             }
 
             reader.close();
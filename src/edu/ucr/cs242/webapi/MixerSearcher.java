@@ -351,7 +351,7 @@ public class MixerSearcher extends Searcher {
                         }
                     }
 
-                    Map<String, String> titleScoreMap = finalScore.entrySet().stream()
+                    Map<Integer, String> idScoreMap = finalScore.entrySet().stream()
                             // Adding PageRank
                             .map(entry -> combinePageRank(entry.getKey(), entry.getValue()))
                             // Max to min
@@ -361,15 +361,13 @@ public class MixerSearcher extends Searcher {
                             // LinkedHashMap keep the insertion order.
                             .collect(LinkedHashMap::new, // Supplier
                                     // Accumulator
-                                    (map, item) -> map.put(
-                                            Utility.levelDBGet(levelDB, "__docId_" + item.getKey()),
-                                            item.getValue().toString()
-                                    ),
+                                    // The docId is the id of the page, as exported.
+                                    (map, item) -> map.put(item.getKey(), item.getValue().toString()),
                                     // Combiner
                                     LinkedHashMap::putAll
                             );
 
-                    pages = fetchRelatedPages(titleScoreMap, keyword, category, MixerSearcher::fragmentHighlight);
+                    pages = fetchRelatedPages(idScoreMap, keyword, category, MixerSearcher::fragmentHighlight);
                 }
             }
 
@@ -1,5 +1,6 @@
 package edu.ucr.cs242.webapi;
 
+import edu.ucr.cs242.ContentCodec;
 import edu.ucr.cs242.Utility;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -29,15 +30,19 @@ public abstract class Searcher {
     private static final int RESULT_PER_PAGE = 10;
 
     protected final Connection dbConnection;
+    private final ContentCodec codec;
+    /**
+     * The category names by id, shared by all results, filled as the categories are first shown.
+     */
+    private final Map<Integer, String> categoryNames = new HashMap<>();
 
     protected Searcher(String jdbcUrl) throws SQLException {
         this.dbConnection = DriverManager.getConnection(jdbcUrl);
+        this.codec = ContentCodec.load(dbConnection);
     }
 
-    private static String buildBatchSelectSQL(int numOfTitles) {
-        // In a form of `SELECT title, content, categories, lastModify FROM pages WHERE title IN (?, ?, ?)`
-        final String baseSQL = "SELECT title, content, categories, lastModify FROM pages WHERE title IN ";
-        return baseSQL + IntStream.range(0, numOfTitles).mapToObj(i -> "?")
+    private static String buildBatchSelectSQL(String baseSQL, int numOfIds) {
+        return baseSQL + IntStream.range(0, numOfIds).mapToObj(i -> "?")
                 .collect(Collectors.joining(", ", "(", ")"));
     }
 
@@ -58,51 +63,100 @@ public abstract class Searcher {
         return text;
     }
 
-    protected List<RelatedPage> fetchRelatedPages(Map<String, String> titleScoreMap, String keyword, String category,
+    /**
+     * Resolve the names of categories, looking up those not seen before.
+     * @return The names, in order of the ids.
+     */
+    private synchronized List<String> resolveCategories(List<Integer> categoryIds) throws SQLException {
+        List<Integer> missing = categoryIds.stream().filter(id -> !categoryNames.containsKey(id))
+                .distinct().collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            // In a form of `SELECT id, name FROM categories WHERE id IN (?, ?, ?)`
+            try (PreparedStatement statement = dbConnection.prepareStatement(buildBatchSelectSQL(
+                    "SELECT id, name FROM categories WHERE id IN ", missing.size()))) {
+                for (int i = 1; i <= missing.size(); i++) {
+                    statement.setInt(i, missing.get(i - 1));
+                }
+
+                try (ResultSet result = statement.executeQuery()) {
+                    while (result.next()) categoryNames.put(result.getInt("id"), result.getString("name"));
+                }
+            }
+        }
+        return categoryIds.stream().map(categoryNames::get).filter(Objects::nonNull).collect(Collectors.toList());
+    }
+
+    /**
+     * Fetch the category ids of a batch of pages.
+     * @return The category ids of each page, by its id.
+     */
+    private Map<Integer, List<Integer>> fetchCategories(List<Integer> ids) throws SQLException {
+        // In a form of `SELECT page_id, category_id FROM page_categories WHERE page_id IN (?, ?, ?)`
+        Map<Integer, List<Integer>> categories = new HashMap<>();
+        try (PreparedStatement statement = dbConnection.prepareStatement(buildBatchSelectSQL(
+                "SELECT page_id, category_id FROM page_categories WHERE page_id IN ", ids.size()))) {
+            for (int i = 1; i <= ids.size(); i++) {
+                statement.setInt(i, ids.get(i - 1));
+            }
+
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    categories.computeIfAbsent(result.getInt("page_id"), id -> new ArrayList<>())
+                            .add(result.getInt("category_id"));
+                }
+            }
+        }
+        return categories;
+    }
+
+    protected List<RelatedPage> fetchRelatedPages(Map<Integer, String> idScoreMap, String keyword, String category,
                                                   BiFunction<String, String, String> fragmentHighlight) {
         // Keep the scored order from Lucene
-        Map<String, RelatedPage> pages = new HashMap<>();
-        List<String> titles = new ArrayList<>(titleScoreMap.keySet());
+        Map<Integer, RelatedPage> pages = new HashMap<>();
+        List<Integer> ids = new ArrayList<>(idScoreMap.keySet());
 
         int fetchCount = 0;
-        while (fetchCount < titles.size()) {
-            int localCount = 0;
+        while (fetchCount < ids.size()) {
+            int batchSize = Math.min(ids.size() - fetchCount, BATCH_READ_COUNT);
+            List<Integer> batch = ids.subList(fetchCount, fetchCount + batchSize);
 
-            int batchSize = Math.min(titles.size() - fetchCount, BATCH_READ_COUNT);
-            try (PreparedStatement statement = dbConnection.prepareStatement(buildBatchSelectSQL(batchSize))) {
+            // In a form of `SELECT id, title, content, lastModify FROM pages WHERE id IN (?, ?, ?)`
+            try (PreparedStatement statement = dbConnection.prepareStatement(buildBatchSelectSQL(
+                    "SELECT id, title, content, lastModify FROM pages WHERE id IN ", batchSize))) {
                 for (int i = 1; i <= batchSize; i++) {
-                    statement.setString(i, titles.get(fetchCount + i - 1));
+                    statement.setInt(i, batch.get(i - 1));
                 }
 
+                Map<Integer, List<Integer>> batchCategories = fetchCategories(batch);
                 try (ResultSet result = statement.executeQuery()) {
                     while (result.next()) {
+                        int id = result.getInt("id");
                         String title = result.getString("title");
-                        String content = fragmentHighlight.apply(result.getString("content"), keyword);
+                        String content = fragmentHighlight.apply(codec.getContent(result, "content"), keyword);
                         List<String> categories =
-                                Arrays.stream(result.getString("categories").split(Pattern.quote("|")))
-                                .collect(Collectors.toList());
+                                resolveCategories(batchCategories.getOrDefault(id, Collections.emptyList()));
                         String lastMod = result.getString("lastModify");
 
-                        pages.put(title, new RelatedPage(
+                        pages.put(id, new RelatedPage(
                                 fullTextHighlight(title, keyword, "span"),
                                 title,
                                 content,
                                 categories.stream().map(s -> fullTextHighlight(s, category, "b")).collect(Collectors.toList()),
                                 categories,
                                 lastMod,
-                                titleScoreMap.get(title)));
-                        ++localCount;
+                                idScoreMap.get(id)));
                     }
                 }
-
-                fetchCount += localCount;
             } catch (Exception e) {
                 System.out.println("Searcher::fetchRelatedPages throws an Exception.");
                 e.printStackTrace();
             }
+
+            // A page removed since indexing is skipped, rather than fetched again.
+            fetchCount += batchSize;
         }
 
-        return titles.stream().map(pages::get).collect(Collectors.toList());
+        return ids.stream().map(pages::get).filter(Objects::nonNull).collect(Collectors.toList());
     }
 
     public final JSONObject search(String query, int pageId) {